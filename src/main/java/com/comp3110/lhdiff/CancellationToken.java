@@ -0,0 +1,88 @@
+package com.comp3110.lhdiff;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cooperative cancellation and deadline for one mapping.
+ * 
+ * Stages poll the token between units of work (a row of the LCS table, a line
+ * of candidates, ...). Steps 3-5 stop early and hand back what they have so far;
+ * Step 2 cannot produce a usable partial answer and throws {@link Cancelled}.
+ * LHDiff then skips the remaining stages and returns a MappingResult marked
+ * partial.
+ */
+public final class CancellationToken {
+    
+    /** Token that is never cancelled */
+    public static final CancellationToken NONE = new CancellationToken(false, 0);
+    
+    private final boolean hasDeadline;
+    private final long deadlineNanos;
+    private volatile boolean cancelled;
+    
+    /**
+     * Token without a deadline, cancelled only through {@link #cancel()}
+     */
+    public CancellationToken() {
+        this(false, 0);
+    }
+    
+    private CancellationToken(boolean hasDeadline, long deadlineNanos) {
+        this.hasDeadline = hasDeadline;
+        this.deadlineNanos = deadlineNanos;
+    }
+    
+    /**
+     * Token that cancels itself once the timeout has elapsed
+     */
+    public static CancellationToken withTimeout(long timeout, TimeUnit unit) {
+        return new CancellationToken(true, System.nanoTime() + unit.toNanos(timeout));
+    }
+    
+    /**
+     * Request cancellation; stages notice it at their next check
+     */
+    public void cancel() {
+        if (this == NONE) {
+            throw new UnsupportedOperationException("CancellationToken.NONE cannot be cancelled");
+        }
+        cancelled = true;
+    }
+    
+    public boolean isCancelled() {
+        return cancelled || (hasDeadline && System.nanoTime() - deadlineNanos >= 0);
+    }
+    
+    /**
+     * @throws Cancelled if the token is cancelled or past its deadline
+     */
+    public void throwIfCancelled() {
+        if (isCancelled()) {
+            throw new Cancelled();
+        }
+    }
+    
+    /**
+     * Nanoseconds until the deadline (Long.MAX_VALUE without one, 0 once cancelled)
+     */
+    public long remainingNanos() {
+        if (cancelled) {
+            return 0;
+        }
+        if (!hasDeadline) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, deadlineNanos - System.nanoTime());
+    }
+    
+    /**
+     * Thrown by stages that cannot return a partial answer
+     */
+    public static class Cancelled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        public Cancelled() {
+            super("Mapping cancelled", null, false, false);
+        }
+    }
+}
\ No newline at end of file
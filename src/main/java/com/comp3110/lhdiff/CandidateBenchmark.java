@@ -0,0 +1,107 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.SimHashGenerator.LineFeatures;
+
+import java.util.*;
+
+/**
+ * Step 3 scan benchmark
+ * Times the all-pairs candidate scan over HashMap<Integer, LineFeatures>
+ * against the packed FeatureTable scan on the same random features
+ */
+public class CandidateBenchmark {
+    
+    private final SimHashGenerator generator;
+    private final int warmupRounds;
+    private final int rounds;
+    private long checksum;
+    
+    public CandidateBenchmark(int kCandidates, int warmupRounds, int rounds) {
+        this.generator = new SimHashGenerator(kCandidates);
+        this.warmupRounds = warmupRounds;
+        this.rounds = rounds;
+    }
+    
+    /**
+     * Best-of-rounds time of both scans for one pool size
+     * 
+     * @return {map path nanos, table path nanos}
+     */
+    public long[] run(int size, long seed) {
+        Random random = new Random(seed);
+        Map<Integer, LineFeatures> leftMap = new HashMap<>();
+        Map<Integer, LineFeatures> rightMap = new HashMap<>();
+        for (int line = 1; line <= size; line++) {
+            leftMap.put(line, new LineFeatures(random.nextLong(), random.nextLong()));
+            rightMap.put(line, new LineFeatures(random.nextLong(), random.nextLong()));
+        }
+        FeatureTable leftTable = FeatureTable.of(leftMap);
+        FeatureTable rightTable = FeatureTable.of(rightMap);
+        
+        long bestMap = Long.MAX_VALUE;
+        long bestTable = Long.MAX_VALUE;
+        for (int round = 0; round < warmupRounds + rounds; round++) {
+            long start = System.nanoTime();
+            checksum += generator.generateCandidates(leftMap, rightMap).size();
+            long mapNanos = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            checksum += generator.generateCandidates(leftTable, rightTable, CancellationToken.NONE).size();
+            long tableNanos = System.nanoTime() - start;
+            
+            if (round >= warmupRounds) {
+                bestMap = Math.min(bestMap, mapNanos);
+                bestTable = Math.min(bestTable, tableNanos);
+            }
+        }
+        
+        return new long[] {bestMap, bestTable};
+    }
+    
+    /**
+     * Sum of the result sizes of every scan so far; main prints it, which
+     * keeps the results live so the scans cannot be optimized away
+     */
+    public long checksum() {
+        return checksum;
+    }
+    
+    /**
+     * Main method - Command line interface
+     */
+    public static void main(String[] args) {
+        List<Integer> sizes = new ArrayList<>(Arrays.asList(500, 1000, 2000, 4000));
+        int warmup = 3;
+        int rounds = 5;
+        
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes":
+                    sizes.clear();
+                    for (String size : args[++i].split(",")) {
+                        sizes.add(Integer.parseInt(size.trim()));
+                    }
+                    break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                default:
+                    System.out.println("Usage: java CandidateBenchmark [--sizes 500,1000,...] [--warmup N] [--rounds N]");
+                    return;
+            }
+        }
+        
+        CandidateBenchmark benchmark = new CandidateBenchmark(15, warmup, rounds);
+        
+        System.out.println("Step 3 all-pairs scan, k = 15, best of " + rounds + " rounds");
+        System.out.println(String.format("  %-12s %12s %12s %12s %12s %8s",
+                           "lines/side", "map ms", "map ns/pair", "table ms", "table ns/pr", "speedup"));
+        for (int size : sizes) {
+            long[] nanos = benchmark.run(size, size);
+            double pairs = (double) size * size;
+            System.out.println(String.format("  %-12d %12.1f %12.1f %12.1f %12.1f %7.1fx",
+                               size, nanos[0] / 1e6, nanos[0] / pairs,
+                               nanos[1] / 1e6, nanos[1] / pairs, (double) nanos[0] / nanos[1]));
+        }
+        System.out.println("  Checksum: " + benchmark.checksum());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,390 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.DiffAnalyzer.Algorithm;
+import com.comp3110.lhdiff.DiffAnalyzer.DiffResult;
+import com.comp3110.lhdiff.Preprocessor.FileLines;
+import com.comp3110.lhdiff.WorkloadGenerator.EditMix;
+import com.comp3110.lhdiff.WorkloadGenerator.GeneratedPair;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Complexity regression check
+ * Runs each stage on generated pairs of doubling size, fits the growth
+ * exponent of its time and of the bytes it allocates (least squares on
+ * log-log), and fails when a stage grows faster than its declared complexity
+ * class or allocates more than its memory ceiling at the largest size. Meant
+ * to catch an accidental quadratic loop or O(m*n) table, not small slowdowns:
+ * the tolerances are wide enough for JIT and GC noise, and an n log n stage
+ * is declared linear (log n adds about 0.1 to the exponent over these sizes).
+ * 
+ * Time is the best of several rounds after warm-up, each round repeating
+ * the stage until at least MIN_ROUND_NANOS have passed so that small sizes
+ * are not timed from a few milliseconds of noise. Allocation is counted
+ * on a fresh thread, so it includes the scratch buffers (see Scratch) a warm
+ * thread would reuse: an O(m*n) table shows up even though repeated calls
+ * do not allocate it again.
+ * 
+ * Run by the complexity Maven profile (mvn -P complexity verify); exits with
+ * status 1 on a violation.
+ */
+public class ComplexityCheck {
+    
+    static final double TIME_TOLERANCE = 0.4;
+    static final double MEMORY_TOLERANCE = 0.25;
+    static final long MIN_ROUND_NANOS = 50_000_000L;
+    
+    private final List<String> seedLines;
+    private final int rounds;
+    private final com.sun.management.ThreadMXBean allocation;
+    
+    public ComplexityCheck(List<String> seedLines, int rounds) {
+        this.seedLines = seedLines;
+        this.rounds = rounds;
+        this.allocation = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+    
+    /**
+     * Stages under check, with their declared growth in old lines; memory
+     * ceilings are about four times what the stages allocate today
+     */
+    public static List<StageCheck> stages() {
+        DiffAnalyzer diffAnalyzer = new DiffAnalyzer();
+        SimHashGenerator simHashGenerator = new SimHashGenerator();
+        ConflictResolver conflictResolver = new ConflictResolver();
+        LineSplitDetector splitDetector = new LineSplitDetector();
+        
+        List<StageCheck> stages = new ArrayList<>();
+        stages.add(new StageCheck("DiffAnalyzer LCS_TABLE", 2, 2, 16, new int[] {500, 1000, 2000, 4000},
+            input -> () -> diffAnalyzer.findUnchangedLines(input.oldLines.getNormalizedLines(),
+                                                           input.newLines.getNormalizedLines(),
+                                                           Algorithm.LCS_TABLE)));
+        stages.add(new StageCheck("DiffAnalyzer MYERS", 2, 1, 2048, new int[] {1000, 2000, 4000, 8000},
+            input -> () -> diffAnalyzer.findUnchangedLines(input.oldLines.getNormalizedLines(),
+                                                           input.newLines.getNormalizedLines(),
+                                                           Algorithm.MYERS)));
+        stages.add(new StageCheck("DiffAnalyzer PATIENCE", 1, 1, 2048, new int[] {8000, 16000, 32000, 64000},
+            input -> () -> diffAnalyzer.findUnchangedLines(input.oldLines.getNormalizedLines(),
+                                                           input.newLines.getNormalizedLines(),
+                                                           Algorithm.PATIENCE)));
+        stages.add(new StageCheck("SimHashGenerator features", 1, 1, 64, new int[] {8000, 16000, 32000, 64000},
+            input -> () -> simHashGenerator.computeFeatureTable(input.oldLines.getOriginalLines(),
+                                                                input.diff.oldChanged, CancellationToken.NONE)));
+        stages.add(new StageCheck("SimHashGenerator LSH", 1, 1, 160, new int[] {8000, 16000, 32000, 64000},
+            input -> () -> simHashGenerator.generateCandidatesLsh(input.oldFeatures, input.newFeatures,
+                                                                  CancellationToken.NONE)));
+        stages.add(new StageCheck("SimHashGenerator exhaustive", 2, 1, 128, new int[] {8000, 16000, 32000, 64000},
+            input -> () -> simHashGenerator.generateCandidates(input.oldFeatures, input.newFeatures,
+                                                               CancellationToken.NONE)));
+        stages.add(new StageCheck("ConflictResolver", 1, 1, 256, new int[] {8000, 16000, 32000, 64000},
+            input -> () -> conflictResolver.resolveMappings(input.oldLines.getOriginalLines(),
+                                                            input.newLines.getOriginalLines(),
+                                                            input.candidates(simHashGenerator),
+                                                            input.oldFeatures, input.newFeatures,
+                                                            CancellationToken.NONE, new StageStats())));
+        stages.add(new StageCheck("LineSplitDetector", 2, 1, 160, new int[] {1000, 2000, 4000, 8000},
+            input -> {
+                Set<Integer> unmappedOld = new HashSet<>(input.diff.oldChanged);
+                Set<Integer> unmappedNew = new HashSet<>(input.diff.newChanged);
+                return () -> splitDetector.detectSplits(input.oldLines.getOriginalLines(),
+                                                        input.newLines.getOriginalLines(),
+                                                        unmappedOld, unmappedNew);
+            }));
+        return stages;
+    }
+    
+    /**
+     * Measure one stage at each of its sizes and check the fitted exponents
+     */
+    public Result run(StageCheck stage) throws InterruptedException {
+        List<Runnable> work = new ArrayList<>();
+        for (int size : stage.sizes) {
+            work.add(stage.workload.prepare(input(size)));
+        }
+        
+        // Warm the JIT on every input, the largest twice, so no size is timed interpreted
+        for (Runnable runnable : work) {
+            runnable.run();
+        }
+        work.get(work.size() - 1).run();
+        
+        List<Measurement> measurements = new ArrayList<>();
+        for (int i = 0; i < work.size(); i++) {
+            long bestNanos = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                System.gc();
+                bestNanos = Math.min(bestNanos, timePerRun(work.get(i)));
+            }
+            measurements.add(new Measurement(stage.sizes[i], bestNanos, coldAllocation(work.get(i))));
+        }
+        return new Result(stage, measurements);
+    }
+    
+    /**
+     * Average time of one run, over as many runs as fit in MIN_ROUND_NANOS
+     */
+    private static long timePerRun(Runnable work) {
+        int runs = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            work.run();
+            runs++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MIN_ROUND_NANOS);
+        return elapsed / runs;
+    }
+    
+    /**
+     * Bytes one run allocates on a fresh thread
+     */
+    private long coldAllocation(Runnable work) throws InterruptedException {
+        long[] bytes = new long[1];
+        Thread thread = new Thread(() -> {
+            long threadId = Thread.currentThread().getId();
+            long before = allocation.getThreadAllocatedBytes(threadId);
+            work.run();
+            bytes[0] = allocation.getThreadAllocatedBytes(threadId) - before;
+        });
+        thread.start();
+        thread.join();
+        return bytes[0];
+    }
+    
+    /**
+     * Generated pair of the given size with Steps 1-3 already run on it
+     */
+    private Input input(int size) {
+        WorkloadGenerator generator = new WorkloadGenerator(new EditMix(), size);
+        GeneratedPair pair = generator.generate(generator.expandSeed(seedLines, size));
+        return new Input(pair);
+    }
+    
+    /**
+     * Least-squares slope of log y against log x
+     */
+    static double growthExponent(double[] x, double[] y) {
+        int n = x.length;
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = 0; i < n; i++) {
+            sumX += Math.log(x[i]);
+            sumY += Math.log(Math.max(1, y[i]));
+        }
+        double meanX = sumX / n;
+        double meanY = sumY / n;
+        
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < n; i++) {
+            double dx = Math.log(x[i]) - meanX;
+            covariance += dx * (Math.log(Math.max(1, y[i])) - meanY);
+            variance += dx * dx;
+        }
+        return covariance / variance;
+    }
+    
+    /**
+     * Builds the work a stage does on one input, outside the timed region
+     */
+    public interface Workload {
+        Runnable prepare(Input input);
+    }
+    
+    /**
+     * A stage and its declared complexity class in old lines n: time grows as
+     * n^timeExponent, allocation as n^memoryExponent, with at most
+     * memoryCeiling bytes per n^memoryExponent at the largest size
+     */
+    public static class StageCheck {
+        public final String name;
+        public final double timeExponent;
+        public final double memoryExponent;
+        public final double memoryCeiling;
+        public final int[] sizes;
+        public final Workload workload;
+        
+        public StageCheck(String name, double timeExponent, double memoryExponent, double memoryCeiling,
+                          int[] sizes, Workload workload) {
+            this.name = name;
+            this.timeExponent = timeExponent;
+            this.memoryExponent = memoryExponent;
+            this.memoryCeiling = memoryCeiling;
+            this.sizes = sizes;
+            this.workload = workload;
+        }
+    }
+    
+    /**
+     * One generated pair with the inputs of every stage under check
+     */
+    public static class Input {
+        public final FileLines oldLines;
+        public final FileLines newLines;
+        public final DiffResult diff;
+        public final FeatureTable oldFeatures;
+        public final FeatureTable newFeatures;
+        private Map<Integer, List<Integer>> candidates;
+        
+        Input(GeneratedPair pair) {
+            Preprocessor preprocessor = new Preprocessor();
+            this.oldLines = preprocessor.preprocessLines(pair.oldLines);
+            this.newLines = preprocessor.preprocessLines(pair.newLines);
+            this.diff = new DiffAnalyzer().findUnchangedLines(oldLines.getNormalizedLines(),
+                                                              newLines.getNormalizedLines(),
+                                                              Algorithm.PATIENCE);
+            SimHashGenerator simHashGenerator = new SimHashGenerator();
+            this.oldFeatures = simHashGenerator.computeFeatureTable(oldLines.getOriginalLines(), diff.oldChanged,
+                                                                    CancellationToken.NONE);
+            this.newFeatures = simHashGenerator.computeFeatureTable(newLines.getOriginalLines(), diff.newChanged,
+                                                                    CancellationToken.NONE);
+        }
+        
+        /**
+         * Step 3 LSH candidates, computed on first use
+         */
+        Map<Integer, List<Integer>> candidates(SimHashGenerator simHashGenerator) {
+            if (candidates == null) {
+                candidates = simHashGenerator.generateCandidatesLsh(oldFeatures, newFeatures, CancellationToken.NONE);
+            }
+            return candidates;
+        }
+    }
+    
+    /**
+     * Best-of-rounds time per run and allocation at one size
+     */
+    public static class Measurement {
+        public final int size;
+        public final long nanos;
+        public final long bytes;
+        
+        public Measurement(int size, long nanos, long bytes) {
+            this.size = size;
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+    }
+    
+    /**
+     * Fitted growth of one stage and how it compares with the declared class
+     */
+    public static class Result {
+        public final StageCheck stage;
+        public final List<Measurement> measurements;
+        public final double timeExponent;
+        public final double memoryExponent;
+        public final double memoryPerUnit;
+        public final List<String> violations = new ArrayList<>();
+        
+        Result(StageCheck stage, List<Measurement> measurements) {
+            this.stage = stage;
+            this.measurements = measurements;
+            
+            double[] sizes = new double[measurements.size()];
+            double[] nanos = new double[measurements.size()];
+            double[] bytes = new double[measurements.size()];
+            for (int i = 0; i < measurements.size(); i++) {
+                sizes[i] = measurements.get(i).size;
+                nanos[i] = measurements.get(i).nanos;
+                bytes[i] = measurements.get(i).bytes;
+            }
+            this.timeExponent = growthExponent(sizes, nanos);
+            this.memoryExponent = growthExponent(sizes, bytes);
+            Measurement largest = measurements.get(measurements.size() - 1);
+            this.memoryPerUnit = largest.bytes / Math.pow(largest.size, stage.memoryExponent);
+            
+            if (timeExponent > stage.timeExponent + TIME_TOLERANCE) {
+                violations.add(String.format("time grows as n^%.2f, declared n^%.0f", timeExponent,
+                                             stage.timeExponent));
+            }
+            if (memoryExponent > stage.memoryExponent + MEMORY_TOLERANCE) {
+                violations.add(String.format("allocation grows as n^%.2f, declared n^%.0f", memoryExponent,
+                                             stage.memoryExponent));
+            }
+            if (memoryPerUnit > stage.memoryCeiling) {
+                violations.add(String.format("%.0f bytes per n^%.0f at n=%d, ceiling %.0f", memoryPerUnit,
+                                             stage.memoryExponent, largest.size, stage.memoryCeiling));
+            }
+        }
+        
+        public boolean passed() {
+            return violations.isEmpty();
+        }
+    }
+    
+    /**
+     * Main method - Command line interface
+     */
+    public static void main(String[] args) {
+        String seedFile = "examples/Version1.java";
+        int rounds = 5;
+        String only = null;
+        
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                case "--stage": only = args[++i]; break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        System.out.println("Usage: java ComplexityCheck [seed_file] [--rounds N] [--stage NAME]");
+                        System.out.println("\nExits with status 1 if a stage exceeds its declared complexity"
+                                           + " class or memory ceiling.");
+                        return;
+                    }
+                    seedFile = args[i];
+            }
+        }
+        
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            System.err.println("Error: this JVM cannot measure per-thread allocation");
+            System.exit(1);
+        }
+        
+        try {
+            List<String> seedLines = Files.readAllLines(Paths.get(seedFile), StandardCharsets.UTF_8);
+            ComplexityCheck check = new ComplexityCheck(seedLines, rounds);
+            
+            int failures = 0;
+            for (StageCheck stage : stages()) {
+                if (only != null && !stage.name.toLowerCase(Locale.ROOT).contains(only.toLowerCase(Locale.ROOT))) {
+                    continue;
+                }
+                Result result = check.run(stage);
+                
+                System.out.println(stage.name);
+                for (Measurement measurement : result.measurements) {
+                    System.out.println(String.format("  n=%-7d %10.2f ms %12.1f KB", measurement.size,
+                                                     measurement.nanos / 1e6, measurement.bytes / 1024.0));
+                }
+                System.out.println(String.format("  Time:    n^%.2f (declared n^%.0f)", result.timeExponent,
+                                                 stage.timeExponent));
+                System.out.println(String.format("  Memory:  n^%.2f (declared n^%.0f), %.1f bytes per n^%.0f"
+                                                 + " (ceiling %.0f)", result.memoryExponent,
+                                                 stage.memoryExponent, result.memoryPerUnit,
+                                                 stage.memoryExponent, stage.memoryCeiling));
+                for (String violation : result.violations) {
+                    System.out.println("  FAILED: " + violation);
+                }
+                if (!result.passed()) {
+                    failures++;
+                }
+            }
+            
+            System.out.println(failures == 0 ? "\nAll stages within their complexity class"
+                                             : "\n" + failures + " stage(s) exceeded their complexity class");
+            if (failures > 0) {
+                System.exit(1);
+            }
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
\ No newline at end of file
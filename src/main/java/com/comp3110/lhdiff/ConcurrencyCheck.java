@@ -0,0 +1,204 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.LHDiff.MappingResult;
+import com.comp3110.lhdiff.WorkloadGenerator.EditMix;
+import com.comp3110.lhdiff.WorkloadGenerator.GeneratedPair;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency stress check
+ * Maps generated pairs on one thread, then maps them again from many threads
+ * sharing a single LHDiff and checks every result against the single-threaded
+ * one. Also reports the bytes each mapping allocates on its thread, on the
+ * first round (cold scratch buffers) and after warm-up.
+ * 
+ * Stages run inline on the calling thread (no executor), so a mapping's
+ * allocation is all on the thread that is measured.
+ */
+public class ConcurrencyCheck {
+    
+    private final LHDiff lhdiff;
+    private final List<GeneratedPair> pairs;
+    private final List<MappingResult> expected = new ArrayList<>();
+    
+    public ConcurrencyCheck(LHDiff lhdiff, List<GeneratedPair> pairs) {
+        this.lhdiff = lhdiff;
+        this.pairs = pairs;
+        for (GeneratedPair pair : pairs) {
+            expected.add(lhdiff.mapLines(pair.oldLines, pair.newLines, false));
+        }
+    }
+    
+    /**
+     * Map every pair rounds times on each of threads threads, all starting
+     * together and each visiting the pairs in its own order
+     * 
+     * @return Number of results that differ from the single-threaded ones
+     */
+    public int run(int threads, int rounds) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger mismatches = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            workers.add(pool.submit(() -> {
+                List<Integer> order = new ArrayList<>();
+                for (int i = 0; i < pairs.size(); i++) {
+                    order.add(i);
+                }
+                Random random = new Random(seed);
+                start.await();
+                
+                for (int round = 0; round < rounds; round++) {
+                    Collections.shuffle(order, random);
+                    for (int i : order) {
+                        GeneratedPair pair = pairs.get(i);
+                        MappingResult result = lhdiff.mapLines(pair.oldLines, pair.newLines, false);
+                        if (!sameMapping(result, expected.get(i)) && mismatches.getAndIncrement() == 0) {
+                            System.err.println("Pair " + i + " mapped differently on "
+                                               + Thread.currentThread().getName());
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        
+        start.countDown();
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Mapping failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return mismatches.get();
+    }
+    
+    /**
+     * Bytes allocated per mapping on one thread, averaged over a round of all
+     * pairs: {first round, after warmupRounds more}
+     * 
+     * @return null if the JVM cannot measure per-thread allocation
+     */
+    public long[] allocationPerMapping(int warmupRounds) throws InterruptedException {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) mx;
+        
+        // On a fresh thread, so the first round starts with empty scratch buffers
+        AtomicLong first = new AtomicLong();
+        AtomicLong warm = new AtomicLong();
+        Thread thread = new Thread(() -> {
+            long threadId = Thread.currentThread().getId();
+            for (int round = 0; round <= warmupRounds + 1; round++) {
+                long before = allocation.getThreadAllocatedBytes(threadId);
+                for (GeneratedPair pair : pairs) {
+                    lhdiff.mapLines(pair.oldLines, pair.newLines, false);
+                }
+                long perMapping = (allocation.getThreadAllocatedBytes(threadId) - before) / pairs.size();
+                if (round == 0) {
+                    first.set(perMapping);
+                } else if (round > warmupRounds) {
+                    warm.set(perMapping);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        
+        return new long[] {first.get(), warm.get()};
+    }
+    
+    private static boolean sameMapping(MappingResult a, MappingResult b) {
+        return a.mappings.equals(b.mappings)
+            && a.splits.equals(b.splits)
+            && a.unmappedOld.equals(b.unmappedOld)
+            && a.unmappedNew.equals(b.unmappedNew);
+    }
+    
+    /**
+     * Main method - Command line interface
+     */
+    public static void main(String[] args) {
+        String seedFile = "examples/Version1.java";
+        int threads = 8;
+        int pairCount = 16;
+        int lines = 1000;
+        int rounds = 5;
+        
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--pairs": pairCount = Integer.parseInt(args[++i]); break;
+                case "--lines": lines = Integer.parseInt(args[++i]); break;
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        System.out.println("Usage: java ConcurrencyCheck [seed_file] [--threads N] [--pairs N]"
+                                           + " [--lines N] [--rounds N]");
+                        return;
+                    }
+                    seedFile = args[i];
+            }
+        }
+        
+        try {
+            List<String> seedLines = Files.readAllLines(Paths.get(seedFile), StandardCharsets.UTF_8);
+            List<GeneratedPair> pairs = new ArrayList<>();
+            for (int p = 0; p < pairCount; p++) {
+                WorkloadGenerator generator = new WorkloadGenerator(new EditMix(), p);
+                pairs.add(generator.generate(generator.expandSeed(seedLines, lines)));
+            }
+            
+            // Default strategies depend only on the pair, so any difference means shared state
+            LHDiff lhdiff = new LHDiff(EngineConfig.builder()
+                    .executor(Runnable::run)
+                    .build());
+            ConcurrencyCheck check = new ConcurrencyCheck(lhdiff, pairs);
+            
+            long start = System.nanoTime();
+            int mismatches = check.run(threads, rounds);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            int mappings = threads * rounds * pairs.size();
+            
+            System.out.println(String.format("Threads:     %d sharing one LHDiff", threads));
+            System.out.println(String.format("Mappings:    %d of %d pairs x %d lines (%.0f/s)",
+                                             mappings, pairs.size(), lines, mappings / seconds));
+            System.out.println(String.format("Mismatches:  %d", mismatches));
+            
+            long[] allocated = check.allocationPerMapping(rounds);
+            if (allocated == null) {
+                System.out.println("Allocation:  not measurable on this JVM");
+            } else {
+                System.out.println(String.format("Allocation:  %.1f KB/mapping cold, %.1f KB/mapping warm"
+                                                 + " (%.0f bytes per old line)",
+                                                 allocated[0] / 1024.0, allocated[1] / 1024.0,
+                                                 (double) allocated[1] / lines));
+            }
+            
+            if (mismatches > 0) {
+                System.exit(1);
+            }
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
\ No newline at end of file
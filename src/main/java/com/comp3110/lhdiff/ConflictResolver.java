@@ -1,6 +1,5 @@
 package com.comp3110.lhdiff;
 
-import org.apache.commons.text.similarity.LevenshteinDistance;
 import java.util.*;
 
 /**
@@ -14,32 +13,29 @@ public class ConflictResolver {
     private final double contextWeight = 0.4;
     private static final int CONTEXT_WINDOW = 4;
     
-    private final LevenshteinDistance levenshtein;
-    
     public ConflictResolver() {
         this(0.5); // Default threshold: 50% similarity required
     }
     
     public ConflictResolver(double threshold) {
         this.threshold = threshold;
-        this.levenshtein = new LevenshteinDistance();
     }
     
     /**
      * Calculate normalized Levenshtein similarity [0, 1]
      * 1 = identical, 0 = completely different
      */
-    public double levenshteinSimilarity(String str1, String str2) {
-        if (str1.isEmpty() && str2.isEmpty()) {
+    public double levenshteinSimilarity(CharSequence str1, CharSequence str2) {
+        if (str1.length() == 0 && str2.length() == 0) {
             return 1.0;
         }
         
-        if (str1.isEmpty() || str2.isEmpty()) {
+        if (str1.length() == 0 || str2.length() == 0) {
             return 0.0;
         }
         
         int maxLen = Math.max(str1.length(), str2.length());
-        int distance = levenshtein.apply(str1, str2);
+        int distance = Levenshtein.distance(str1, str2);
         double similarity = 1.0 - ((double) distance / maxLen);
         
         return Math.max(0.0, similarity);
@@ -49,9 +45,18 @@ public class ConflictResolver {
      * Calculate cosine similarity between two texts
      * Uses word-based vectors
      */
-    public double cosineSimilarity(String text1, String text2) {
-        Set<String> words1 = new HashSet<>(SimHash.tokenize(text1));
-        Set<String> words2 = new HashSet<>(SimHash.tokenize(text2));
+    public double cosineSimilarity(CharSequence text1, CharSequence text2) {
+        if (SimHash.isAsciiText(text1) && SimHash.isAsciiText(text2)) {
+            Scratch scratch = Scratch.get();
+            scratch.words.clear();
+            scratch.words.addWords(text1);
+            scratch.otherWords.clear();
+            scratch.otherWords.addWords(text2);
+            return cosineSimilarity(scratch.words, scratch.otherWords);
+        }
+        
+        Set<String> words1 = new HashSet<>(SimHash.tokenize(text1.toString()));
+        Set<String> words2 = new HashSet<>(SimHash.tokenize(text2.toString()));
         
         if (words1.isEmpty() || words2.isEmpty()) {
             return 0.0;
@@ -72,14 +77,87 @@ public class ConflictResolver {
         return denominator > 0 ? numerator / denominator : 0.0;
     }
     
+    /**
+     * Cosine similarity of two word sets, computed as above
+     */
+    private static double cosineSimilarity(TokenSet words1, TokenSet words2) {
+        if (words1.size() == 0 || words2.size() == 0) {
+            return 0.0;
+        }
+        
+        int intersection = words1.intersectionSize(words2);
+        if (intersection == 0) {
+            return 0.0;
+        }
+        
+        double numerator = intersection;
+        double denominator = Math.sqrt(words1.size()) * Math.sqrt(words2.size());
+        
+        return denominator > 0 ? numerator / denominator : 0.0;
+    }
+    
+    /**
+     * Upper bound on levenshteinSimilarity from the q-gram count filter
+     * (exact when a line is empty); new line fingerprints are cached
+     */
+    private static double contentSimilarityBound(String oldLine, int[] oldFingerprint, String newLine,
+                                                 int newLineNum, Map<Integer, int[]> newFingerprints) {
+        if (oldLine.isEmpty() || newLine.isEmpty()) {
+            return oldLine.isEmpty() && newLine.isEmpty() ? 1.0 : 0.0;
+        }
+        int[] newFingerprint = newFingerprints.get(newLineNum);
+        if (newFingerprint == null) {
+            newFingerprint = QGrams.fingerprint(newLine);
+            newFingerprints.put(newLineNum, newFingerprint);
+        }
+        int maxLen = Math.max(oldLine.length(), newLine.length());
+        int lowerBound = QGrams.distanceLowerBound(oldLine.length(), newLine.length(),
+                                                   QGrams.common(oldFingerprint, newFingerprint));
+        return 1.0 - ((double) lowerBound / maxLen);
+    }
+    
+    /**
+     * Upper bound on cosineSimilarity of two lines' contexts from their
+     * signatures, computed the same way from the bound on shared words
+     */
+    private static double cosineBound(FeatureTable oldFeatures, int oldRow, FeatureTable newFeatures, int newRow) {
+        int words1 = oldFeatures.contextWords[oldRow];
+        int words2 = newFeatures.contextWords[newRow];
+        if (words1 == 0 || words2 == 0) {
+            return 0.0;
+        }
+        
+        int intersection = oldFeatures.sharedWordsBound(oldRow, newFeatures, newRow);
+        if (intersection <= 0) {
+            return 0.0;
+        }
+        
+        double numerator = intersection;
+        double denominator = Math.sqrt(words1) * Math.sqrt(words2);
+        
+        return denominator > 0 ? numerator / denominator : 0.0;
+    }
+    
+    /**
+     * Whether a pair scoring at most bestPossible could still become the best match
+     */
+    private boolean canWin(double bestPossible, double bestSimilarity) {
+        return bestPossible > bestSimilarity && bestPossible >= threshold;
+    }
+    
     /**
      * Get context text around a line
      */
     public String getContextText(List<String> lines, int lineIdx, int window) {
+        StringBuilder context = new StringBuilder();
+        appendContextText(lines, lineIdx, window, context);
+        return context.toString();
+    }
+    
+    private static void appendContextText(List<String> lines, int lineIdx, int window, StringBuilder context) {
         int start = Math.max(0, lineIdx - window);
         int end = Math.min(lines.size(), lineIdx + window + 1);
         
-        StringBuilder context = new StringBuilder();
         for (int i = start; i < end; i++) {
             if (i != lineIdx) {
                 if (context.length() > 0) {
@@ -88,15 +166,13 @@ public class ConflictResolver {
                 context.append(lines.get(i));
             }
         }
-        
-        return context.toString();
     }
     
     /**
      * Compute combined similarity using content and context
      */
-    public double computeCombinedSimilarity(String oldLine, String newLine,
-                                           String oldContext, String newContext) {
+    public double computeCombinedSimilarity(CharSequence oldLine, CharSequence newLine,
+                                           CharSequence oldContext, CharSequence newContext) {
         // Content similarity using Levenshtein
         double contentSim = levenshteinSimilarity(oldLine, newLine);
         
@@ -117,15 +193,70 @@ public class ConflictResolver {
      */
     public Map<Integer, Integer> resolveMappings(List<String> oldLines, List<String> newLines,
                                                 Map<Integer, List<Integer>> candidates) {
+        return resolveMappings(oldLines, newLines, candidates, CancellationToken.NONE);
+    }
+    
+    /**
+     * Resolve candidate mappings, stopping early once the token is cancelled.
+     * Old lines are resolved in order, so the mappings returned on cancellation
+     * are exactly those a full run would have made for the lines it reached.
+     */
+    public Map<Integer, Integer> resolveMappings(List<String> oldLines, List<String> newLines,
+                                                Map<Integer, List<Integer>> candidates,
+                                                CancellationToken token) {
+        return resolveMappings(oldLines, newLines, candidates, token, new StageStats());
+    }
+    
+    /**
+     * Resolve candidate mappings, counting in stats how many candidate pairs
+     * were scored and how many of those were filtered without running
+     * Levenshtein
+     */
+    public Map<Integer, Integer> resolveMappings(List<String> oldLines, List<String> newLines,
+                                                Map<Integer, List<Integer>> candidates,
+                                                CancellationToken token, StageStats stats) {
+        return resolveMappings(oldLines, newLines, candidates, null, null, token, stats);
+    }
+    
+    /**
+     * Resolve candidate mappings with two filters in front of the exact
+     * scores. The q-gram filter bounds content similarity from the lines'
+     * q-gram counts; with feature tables carrying context signatures, context
+     * cosine is bounded from the signatures before either context is split
+     * into words. A pair is filtered when even its bounds could not make it
+     * the best match so far, so the mappings are the same as without them.
+     * 
+     * @param oldFeatures Features with context signatures of the old lines,
+     *        or null (as are lines the table lacks) to skip the signature bound
+     * @param newFeatures Same for the new lines
+     */
+    public Map<Integer, Integer> resolveMappings(List<String> oldLines, List<String> newLines,
+                                                Map<Integer, List<Integer>> candidates,
+                                                FeatureTable oldFeatures, FeatureTable newFeatures,
+                                                CancellationToken token, StageStats stats) {
         Map<Integer, Integer> mappings = new HashMap<>();
+        Map<Integer, int[]> newFingerprints = new HashMap<>();
+        boolean signatures = oldFeatures != null && newFeatures != null
+                             && oldFeatures.hasSignatures() && newFeatures.hasSignatures();
+        long pairs = 0;
+        long filtered = 0;
+        long filteredBySignature = 0;
         Set<Integer> usedNewLines = new HashSet<>();
         
+        Scratch scratch = Scratch.get();
+        StringBuilder oldContext = scratch.text;
+        StringBuilder newContext = scratch.otherText;
+        
         // Sort old line numbers for consistent processing
         List<Integer> sortedOldLines = new ArrayList<>(candidates.keySet());
         Collections.sort(sortedOldLines);
         
         // Process each old line and its candidates
         for (int oldLineNum : sortedOldLines) {
+            if (token.isCancelled()) {
+                break;
+            }
+            
             int oldIdx = oldLineNum - 1; // Convert to 0-indexed
             
             if (oldIdx < 0 || oldIdx >= oldLines.size()) {
@@ -133,7 +264,12 @@ public class ConflictResolver {
             }
             
             String oldLine = oldLines.get(oldIdx);
-            String oldContext = getContextText(oldLines, oldIdx, CONTEXT_WINDOW);
+            int[] oldFingerprint = QGrams.fingerprint(oldLine);
+            int oldRow = signatures ? oldFeatures.indexOf(oldLineNum) : -1;
+            
+            // Old context and its words, collected once for all of its candidates when first needed
+            boolean oldContextReady = false;
+            TokenSet oldWords = null;
             
             Integer bestMatch = null;
             double bestSimilarity = -1.0;
@@ -154,12 +290,55 @@ public class ConflictResolver {
                     }
                     
                     String newLine = newLines.get(newIdx);
-                    String newContext = getContextText(newLines, newIdx, CONTEXT_WINDOW);
+                    pairs++;
+                    
+                    // Bounds: content from q-gram counts, context from the signatures
+                    double bestContentSim = contentSimilarityBound(oldLine, oldFingerprint, newLine,
+                                                                   newLineNum, newFingerprints);
+                    double bestContextSim = 1.0;
+                    int newRow = oldRow >= 0 ? newFeatures.indexOf(newLineNum) : -1;
+                    if (newRow >= 0) {
+                        bestContextSim = cosineBound(oldFeatures, oldRow, newFeatures, newRow);
+                    }
+                    if (!canWin(contentWeight * bestContentSim + contextWeight * bestContextSim, bestSimilarity)) {
+                        filtered++;
+                        if (newRow >= 0) {
+                            filteredBySignature++;
+                        }
+                        continue;
+                    }
+                    
+                    if (!oldContextReady) {
+                        oldContext.setLength(0);
+                        appendContextText(oldLines, oldIdx, CONTEXT_WINDOW, oldContext);
+                        if (SimHash.isAsciiText(oldContext)) {
+                            oldWords = scratch.words;
+                            oldWords.clear();
+                            oldWords.addWords(oldContext);
+                        }
+                        oldContextReady = true;
+                    }
+                    newContext.setLength(0);
+                    appendContextText(newLines, newIdx, CONTEXT_WINDOW, newContext);
+                    
+                    // Compute similarity, as computeCombinedSimilarity does
+                    double contextSim;
+                    if (oldWords != null && SimHash.isAsciiText(newContext)) {
+                        scratch.otherWords.clear();
+                        scratch.otherWords.addWords(newContext);
+                        contextSim = cosineSimilarity(oldWords, scratch.otherWords);
+                    } else {
+                        contextSim = cosineSimilarity(oldContext, newContext);
+                    }
+                    
+                    // q-gram filter again, against the exact context similarity
+                    if (!canWin(contentWeight * bestContentSim + contextWeight * contextSim, bestSimilarity)) {
+                        filtered++;
+                        continue;
+                    }
                     
-                    // Compute similarity
-                    double similarity = computeCombinedSimilarity(
-                        oldLine, newLine, oldContext, newContext
-                    );
+                    double contentSim = levenshteinSimilarity(oldLine, newLine);
+                    double similarity = contentWeight * contentSim + contextWeight * contextSim;
                     
                     // Track best match
                     if (similarity > bestSimilarity && similarity >= threshold) {
@@ -176,6 +355,9 @@ public class ConflictResolver {
             }
         }
         
+        stats.increment("resolve pairs", pairs);
+        stats.increment("resolve pairs filtered", filtered);
+        stats.increment("resolve pairs filtered by signature", filteredBySignature);
         return mappings;
     }
     
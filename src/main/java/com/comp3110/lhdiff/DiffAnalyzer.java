@@ -8,6 +8,18 @@ import java.util.*;
  */
 public class DiffAnalyzer {
     
+    /**
+     * Algorithms for finding the unchanged lines
+     */
+    public enum Algorithm {
+        /** Full LCS table: exact, O(m*n) time and memory */
+        LCS_TABLE,
+        /** Myers' linear-space diff: O((m+n)*D) time, O(m+n) memory */
+        MYERS,
+        /** Patience diff: unique-line anchors, Myers between them */
+        PATIENCE
+    }
+    
     /**
      * Find unchanged lines between old and new file versions
      * 
@@ -16,6 +28,23 @@ public class DiffAnalyzer {
      * @return DiffResult containing mappings and changed line sets
      */
     public DiffResult findUnchangedLines(List<String> oldLines, List<String> newLines) {
+        return findUnchangedLines(oldLines, newLines, Algorithm.LCS_TABLE);
+    }
+    
+    /**
+     * Find unchanged lines with the given algorithm
+     */
+    public DiffResult findUnchangedLines(List<String> oldLines, List<String> newLines, Algorithm algorithm) {
+        return findUnchangedLines(oldLines, newLines, algorithm, CancellationToken.NONE);
+    }
+    
+    /**
+     * Find unchanged lines with the given algorithm, polling the token as it goes
+     * 
+     * @throws CancellationToken.Cancelled if the token is cancelled before the diff completes
+     */
+    public DiffResult findUnchangedLines(List<String> oldLines, List<String> newLines, Algorithm algorithm,
+                                         CancellationToken token) {
         Map<Integer, Integer> unchangedMappings = new HashMap<>();
         Set<Integer> oldChanged = new HashSet<>();
         Set<Integer> newChanged = new HashSet<>();
@@ -28,8 +57,16 @@ public class DiffAnalyzer {
             newChanged.add(i);
         }
         
-        // Find matching blocks using LCS
-        List<MatchBlock> matchingBlocks = findMatchingBlocks(oldLines, newLines);
+        // Find matching blocks
+        List<MatchBlock> matchingBlocks;
+        switch (algorithm) {
+            case MYERS:
+            case PATIENCE:
+                matchingBlocks = findMatchingBlocksLinear(oldLines, newLines, algorithm == Algorithm.PATIENCE, token);
+                break;
+            default:
+                matchingBlocks = findMatchingBlocks(oldLines, newLines, token);
+        }
         
         // Map unchanged lines (convert to 1-indexed)
         for (MatchBlock block : matchingBlocks) {
@@ -43,32 +80,40 @@ public class DiffAnalyzer {
             }
         }
         
-        return new DiffResult(unchangedMappings, oldChanged, newChanged);
+        return new DiffResult(unchangedMappings, oldChanged, newChanged, matchingBlocks);
     }
     
     /**
      * Find matching blocks using Longest Common Subsequence algorithm
      */
-    private List<MatchBlock> findMatchingBlocks(List<String> oldLines, List<String> newLines) {
+    private List<MatchBlock> findMatchingBlocks(List<String> oldLines, List<String> newLines,
+                                                CancellationToken token) {
         int m = oldLines.size();
         int n = newLines.size();
         
-        // Build LCS table
-        int[][] lcs = new int[m + 1][n + 1];
+        // Build LCS table, row-major with rows of n + 1 cells, in the thread's
+        // scratch buffer; only row 0 and column 0 need clearing
+        int width = n + 1;
+        int[] lcs = Scratch.get().ints(Scratch.LCS_TABLE, Math.multiplyExact(m + 1, width));
+        Arrays.fill(lcs, 0, width, 0);
         
         for (int i = 1; i <= m; i++) {
+            token.throwIfCancelled();
+            int row = i * width;
+            int above = row - width;
+            lcs[row] = 0;
             for (int j = 1; j <= n; j++) {
                 if (oldLines.get(i - 1).equals(newLines.get(j - 1))) {
-                    lcs[i][j] = lcs[i - 1][j - 1] + 1;
+                    lcs[row + j] = lcs[above + j - 1] + 1;
                 } else {
-                    lcs[i][j] = Math.max(lcs[i - 1][j], lcs[i][j - 1]);
+                    lcs[row + j] = Math.max(lcs[above + j], lcs[row + j - 1]);
                 }
             }
         }
         
         // Extract matching blocks
         List<MatchBlock> blocks = new ArrayList<>();
-        extractMatchingBlocks(oldLines, newLines, lcs, m, n, blocks);
+        extractMatchingBlocks(oldLines, newLines, lcs, width, m, n, blocks);
         
         // Merge consecutive blocks
         return mergeConsecutiveBlocks(blocks);
@@ -76,21 +121,297 @@ public class DiffAnalyzer {
     
     /**
      * Extract matching blocks by backtracking through LCS table
+     * (iteratively, so large files cannot overflow the stack)
      */
     private void extractMatchingBlocks(List<String> oldLines, List<String> newLines,
-                                      int[][] lcs, int i, int j, List<MatchBlock> blocks) {
-        if (i == 0 || j == 0) {
-            return;
+                                      int[] lcs, int width, int i, int j, List<MatchBlock> blocks) {
+        List<MatchBlock> reversed = new ArrayList<>();
+        
+        while (i > 0 && j > 0) {
+            if (oldLines.get(i - 1).equals(newLines.get(j - 1))) {
+                reversed.add(new MatchBlock(i - 1, j - 1, 1)); // 0-indexed
+                i--;
+                j--;
+            } else if (lcs[(i - 1) * width + j] > lcs[i * width + j - 1]) {
+                i--;
+            } else {
+                j--;
+            }
         }
         
-        if (oldLines.get(i - 1).equals(newLines.get(j - 1))) {
-            extractMatchingBlocks(oldLines, newLines, lcs, i - 1, j - 1, blocks);
-            blocks.add(new MatchBlock(i - 1, j - 1, 1)); // 0-indexed
-        } else if (lcs[i - 1][j] > lcs[i][j - 1]) {
-            extractMatchingBlocks(oldLines, newLines, lcs, i - 1, j, blocks);
+        for (int k = reversed.size() - 1; k >= 0; k--) {
+            blocks.add(reversed.get(k));
+        }
+    }
+    
+    /**
+     * Find matching blocks with Myers or patience diff over interned line ids
+     */
+    private List<MatchBlock> findMatchingBlocksLinear(List<String> oldLines, List<String> newLines,
+                                                      boolean patience, CancellationToken token) {
+        Map<String, Integer> ids = new HashMap<>();
+        int[] a = intern(oldLines, ids);
+        int[] b = intern(newLines, ids);
+        
+        List<MatchBlock> blocks = new ArrayList<>();
+        if (patience) {
+            patienceDiff(a, 0, a.length, b, 0, b.length, blocks, token);
         } else {
-            extractMatchingBlocks(oldLines, newLines, lcs, i, j - 1, blocks);
+            myersDiff(a, 0, a.length, b, 0, b.length, blocks, token);
         }
+        
+        return mergeConsecutiveBlocks(blocks);
+    }
+    
+    private static int[] intern(List<String> lines, Map<String, Integer> ids) {
+        int[] interned = new int[lines.size()];
+        int i = 0;
+        for (String line : lines) {
+            Integer id = ids.get(line);
+            if (id == null) {
+                id = ids.size();
+                ids.put(line, id);
+            }
+            interned[i++] = id;
+        }
+        return interned;
+    }
+    
+    /**
+     * Patience diff: match lines that are unique on both sides of the range,
+     * keep the longest increasing run of them as anchors and recurse between
+     * anchors; ranges without unique lines fall back to Myers
+     */
+    private void patienceDiff(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi, List<MatchBlock> blocks,
+                              CancellationToken token) {
+        token.throwIfCancelled();
+        
+        // Common prefix
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            blocks.add(new MatchBlock(aLo++, bLo++, 1));
+        }
+        
+        // Common suffix (emitted after the middle)
+        int suffix = 0;
+        while (aHi - suffix > aLo && bHi - suffix > bLo && a[aHi - suffix - 1] == b[bHi - suffix - 1]) {
+            suffix++;
+        }
+        aHi -= suffix;
+        bHi -= suffix;
+        
+        if (aLo < aHi && bLo < bHi) {
+            int[][] anchors = uniqueAnchors(a, aLo, aHi, b, bLo, bHi);
+            
+            if (anchors.length == 0) {
+                myersDiff(a, aLo, aHi, b, bLo, bHi, blocks, token);
+            } else {
+                int prevA = aLo;
+                int prevB = bLo;
+                for (int[] anchor : anchors) {
+                    patienceDiff(a, prevA, anchor[0], b, prevB, anchor[1], blocks, token);
+                    blocks.add(new MatchBlock(anchor[0], anchor[1], 1));
+                    prevA = anchor[0] + 1;
+                    prevB = anchor[1] + 1;
+                }
+                patienceDiff(a, prevA, aHi, b, prevB, bHi, blocks, token);
+            }
+        }
+        
+        for (int k = 0; k < suffix; k++) {
+            blocks.add(new MatchBlock(aHi + k, bHi + k, 1));
+        }
+    }
+    
+    /**
+     * Pairs (i, j) of lines unique in both ranges, reduced to the longest
+     * subsequence increasing in both i and j
+     */
+    private static int[][] uniqueAnchors(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        // id -> position in b range, or -1 if the id occurs more than once
+        Map<Integer, Integer> inB = new HashMap<>();
+        for (int j = bLo; j < bHi; j++) {
+            inB.put(b[j], inB.containsKey(b[j]) ? -1 : j);
+        }
+        Map<Integer, Integer> inA = new HashMap<>();
+        for (int i = aLo; i < aHi; i++) {
+            inA.put(a[i], inA.containsKey(a[i]) ? -1 : i);
+        }
+        
+        // Candidate pairs in order of i
+        List<int[]> pairs = new ArrayList<>();
+        for (int i = aLo; i < aHi; i++) {
+            Integer j = inB.get(a[i]);
+            if (j != null && j >= 0 && inA.get(a[i]) == i) {
+                pairs.add(new int[] {i, j});
+            }
+        }
+        
+        // Longest increasing subsequence on j (patience sorting)
+        int n = pairs.size();
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int p = 0; p < n; p++) {
+            int j = pairs.get(p)[1];
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairs.get(tails[mid])[1] < j) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[p] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = p;
+            if (lo == length) {
+                length++;
+            }
+        }
+        
+        int[][] anchors = new int[length][];
+        for (int k = length - 1, p = length > 0 ? tails[length - 1] : -1; k >= 0; k--, p = previous[p]) {
+            anchors[k] = pairs.get(p);
+        }
+        return anchors;
+    }
+    
+    /**
+     * Myers' O(ND) diff in linear space: find the middle snake of the
+     * shortest edit script, then recurse on both halves
+     */
+    private void myersDiff(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi, List<MatchBlock> blocks,
+                           CancellationToken token) {
+        // Common prefix
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            blocks.add(new MatchBlock(aLo++, bLo++, 1));
+        }
+        
+        // Common suffix (emitted after the middle)
+        int suffix = 0;
+        while (aHi - suffix > aLo && bHi - suffix > bLo && a[aHi - suffix - 1] == b[bHi - suffix - 1]) {
+            suffix++;
+        }
+        aHi -= suffix;
+        bHi -= suffix;
+        
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        
+        if (n == 1 || m == 1) {
+            // A single line on one side matches at most once on the other
+            if (n == 1) {
+                for (int j = bLo; j < bHi; j++) {
+                    if (a[aLo] == b[j]) {
+                        blocks.add(new MatchBlock(aLo, j, 1));
+                        break;
+                    }
+                }
+            } else if (m > 0) {
+                for (int i = aLo; i < aHi; i++) {
+                    if (a[i] == b[bLo]) {
+                        blocks.add(new MatchBlock(i, bLo, 1));
+                        break;
+                    }
+                }
+            }
+        } else if (n > 0 && m > 0) {
+            int[] split = middleSnake(a, aLo, n, b, bLo, m, token);
+            if (split == null) {
+                // Nothing in common
+            } else {
+                myersDiff(a, aLo, aLo + split[0], b, bLo, bLo + split[1], blocks, token);
+                myersDiff(a, aLo + split[0], aHi, b, bLo + split[1], bHi, blocks, token);
+            }
+        }
+        
+        for (int k = 0; k < suffix; k++) {
+            blocks.add(new MatchBlock(aHi + k, bHi + k, 1));
+        }
+    }
+    
+    /**
+     * Bidirectional search for the point where the forward and reverse
+     * furthest-reaching paths overlap
+     * 
+     * @return {x, y} offsets of the split point, or null if the ranges share nothing
+     */
+    private static int[] middleSnake(int[] a, int aLo, int n, int[] b, int bLo, int m,
+                                     CancellationToken token) {
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length];
+        int[] reverse = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(reverse, -1);
+        forward[offset + 1] = 0;
+        reverse[offset + 1] = 0;
+        
+        int delta = n - m;
+        boolean front = (delta & 1) != 0;
+        int k1Start = 0, k1End = 0, k2Start = 0, k2End = 0;
+        
+        for (int d = 0; d < maxD; d++) {
+            token.throwIfCancelled();
+            for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1 = (k1 == -d || (k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1]))
+                    ? forward[k1Offset + 1]
+                    : forward[k1Offset - 1] + 1;
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1++;
+                    y1++;
+                }
+                forward[k1Offset] = x1;
+                
+                if (x1 > n) {
+                    k1End += 2;
+                } else if (y1 > m) {
+                    k1Start += 2;
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length && reverse[k2Offset] != -1) {
+                        int x2 = n - reverse[k2Offset];
+                        if (x1 >= x2) {
+                            return new int[] {x1, y1};
+                        }
+                    }
+                }
+            }
+            
+            for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2 = (k2 == -d || (k2 != d && reverse[k2Offset - 1] < reverse[k2Offset + 1]))
+                    ? reverse[k2Offset + 1]
+                    : reverse[k2Offset - 1] + 1;
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[aLo + n - x2 - 1] == b[bLo + m - y2 - 1]) {
+                    x2++;
+                    y2++;
+                }
+                reverse[k2Offset] = x2;
+                
+                if (x2 > n) {
+                    k2End += 2;
+                } else if (y2 > m) {
+                    k2Start += 2;
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return new int[] {x1, y1};
+                        }
+                    }
+                }
+            }
+        }
+        
+        return null;
     }
     
     /**
@@ -126,12 +447,12 @@ public class DiffAnalyzer {
     /**
      * Represents a matching block in the diff
      */
-    private static class MatchBlock {
-        int oldStart; // 0-indexed
-        int newStart; // 0-indexed
-        int size;
+    public static class MatchBlock {
+        public final int oldStart; // 0-indexed
+        public final int newStart; // 0-indexed
+        public final int size;
         
-        MatchBlock(int oldStart, int newStart, int size) {
+        public MatchBlock(int oldStart, int newStart, int size) {
             this.oldStart = oldStart;
             this.newStart = newStart;
             this.size = size;
@@ -145,12 +466,20 @@ public class DiffAnalyzer {
         public final Map<Integer, Integer> unchangedMappings; // old line -> new line
         public final Set<Integer> oldChanged; // Changed lines in old file
         public final Set<Integer> newChanged; // Changed lines in new file
+        public final List<MatchBlock> blocks; // Unchanged blocks in file order
         
         public DiffResult(Map<Integer, Integer> unchangedMappings,
                          Set<Integer> oldChanged, Set<Integer> newChanged) {
+            this(unchangedMappings, oldChanged, newChanged, new ArrayList<>());
+        }
+        
+        public DiffResult(Map<Integer, Integer> unchangedMappings,
+                         Set<Integer> oldChanged, Set<Integer> newChanged,
+                         List<MatchBlock> blocks) {
             this.unchangedMappings = unchangedMappings;
             this.oldChanged = oldChanged;
             this.newChanged = newChanged;
+            this.blocks = blocks;
         }
     }
     
@@ -0,0 +1,464 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.LHDiff.MappingResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Directory snapshot diff
+ * Pairs the files of two snapshots of a source tree and maps the lines of
+ * every pair, in parallel, into one result with per-file stats.
+ * 
+ * Files are paired by identical relative path first. The old files and new
+ * files left over are then paired as renames or moves by whole-file MinHash
+ * over the words SimHash.tokenize finds: the estimated Jaccard similarity of
+ * the two files' word sets must reach the rename threshold, and the most
+ * similar pairs are taken first (same file name breaking ties). Anything
+ * still unpaired is reported as added or deleted. Files containing a NUL
+ * byte in their first 8 KB are treated as binary and skipped.
+ */
+public class DirectoryDiff {
+    
+    /** MinHash signature length; the similarity estimate is in steps of 1/64 */
+    static final int MIN_HASHES = 64;
+    
+    private static final int BINARY_PROBE = 8192;
+    
+    /**
+     * How a file fared between the snapshots
+     */
+    public enum Kind {
+        MODIFIED, RENAMED, ADDED, DELETED
+    }
+    
+    private final int threads;
+    private final double renameThreshold;
+    private final LHDiff lhdiff;
+    
+    public DirectoryDiff() {
+        this(Runtime.getRuntime().availableProcessors(), 0.5, EngineConfig.defaults());
+    }
+    
+    /**
+     * @param renameThreshold Minimum estimated word-set similarity for pairing
+     *                        an old and a new file at different paths
+     */
+    public DirectoryDiff(int threads, double renameThreshold, EngineConfig config) {
+        this.threads = Math.max(1, threads);
+        this.renameThreshold = renameThreshold;
+        this.lhdiff = new LHDiff(config);
+    }
+    
+    /**
+     * Pair the files of two snapshots and map every pair
+     */
+    public DirectoryResult diff(Path oldRoot, Path newRoot) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        
+        try {
+            List<String> oldFiles = listTextFiles(oldRoot);
+            List<String> newFiles = listTextFiles(newRoot);
+            
+            // Identical paths
+            Set<String> newSet = new HashSet<>(newFiles);
+            List<FileDiff> pending = new ArrayList<>();
+            List<String> oldLeft = new ArrayList<>();
+            for (String path : oldFiles) {
+                if (newSet.remove(path)) {
+                    pending.add(new FileDiff(Kind.MODIFIED, path, path, 1.0));
+                } else {
+                    oldLeft.add(path);
+                }
+            }
+            List<String> newLeft = new ArrayList<>();
+            for (String path : newFiles) {
+                if (newSet.contains(path)) {
+                    newLeft.add(path);
+                }
+            }
+            
+            // Renames and moves among the rest
+            pending.addAll(pairRenames(pool, oldRoot, oldLeft, newRoot, newLeft));
+            
+            // Map every pair
+            List<Callable<FileDiff>> tasks = new ArrayList<>();
+            for (FileDiff file : pending) {
+                tasks.add(() -> mapFile(file, oldRoot, newRoot));
+            }
+            List<FileDiff> files = new ArrayList<>();
+            for (Future<FileDiff> future : pool.invokeAll(tasks)) {
+                files.add(getResult(future));
+            }
+            
+            // What is still unpaired was added or deleted
+            Set<String> pairedOld = new HashSet<>();
+            Set<String> pairedNew = new HashSet<>();
+            for (FileDiff file : files) {
+                pairedOld.add(file.oldPath);
+                pairedNew.add(file.newPath);
+            }
+            for (String path : oldLeft) {
+                if (!pairedOld.contains(path)) {
+                    files.add(new FileDiff(Kind.DELETED, path, null, 0.0));
+                }
+            }
+            for (String path : newLeft) {
+                if (!pairedNew.contains(path)) {
+                    files.add(new FileDiff(Kind.ADDED, null, path, 0.0));
+                }
+            }
+            
+            files.sort(Comparator.comparing(FileDiff::path));
+            return new DirectoryResult(files, System.nanoTime() - start);
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Relative paths (with '/' separators) of the text files below root, sorted
+     */
+    static List<String> listTextFiles(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IOException("Not a directory: " + root);
+        }
+        
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        
+        List<String> paths = new ArrayList<>();
+        for (Path file : files) {
+            if (!isBinary(file)) {
+                paths.add(root.relativize(file).toString().replace(root.getFileSystem().getSeparator(), "/"));
+            }
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+    
+    private static boolean isBinary(Path file) throws IOException {
+        byte[] probe = new byte[BINARY_PROBE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int length = 0;
+            int read;
+            while (length < probe.length && (read = in.read(probe, length, probe.length - length)) > 0) {
+                length += read;
+            }
+            for (int i = 0; i < length; i++) {
+                if (probe[i] == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Pair leftover old and new files by MinHash similarity, most similar first
+     */
+    private List<FileDiff> pairRenames(ExecutorService pool, Path oldRoot, List<String> oldFiles,
+                                       Path newRoot, List<String> newFiles) throws IOException, InterruptedException {
+        List<FileDiff> renames = new ArrayList<>();
+        if (oldFiles.isEmpty() || newFiles.isEmpty()) {
+            return renames;
+        }
+        
+        long[][] oldSignatures = signatures(pool, oldRoot, oldFiles);
+        long[][] newSignatures = signatures(pool, newRoot, newFiles);
+        
+        List<Candidate> candidates = new ArrayList<>();
+        for (int o = 0; o < oldFiles.size(); o++) {
+            for (int n = 0; n < newFiles.size(); n++) {
+                double similarity = similarity(oldSignatures[o], newSignatures[n]);
+                if (similarity >= renameThreshold) {
+                    boolean sameName = fileName(oldFiles.get(o)).equals(fileName(newFiles.get(n)));
+                    candidates.add(new Candidate(o, n, similarity, sameName));
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingDouble((Candidate c) -> -c.similarity)
+                                  .thenComparing(c -> !c.sameName)
+                                  .thenComparingInt(c -> c.oldIndex)
+                                  .thenComparingInt(c -> c.newIndex));
+        
+        boolean[] oldTaken = new boolean[oldFiles.size()];
+        boolean[] newTaken = new boolean[newFiles.size()];
+        for (Candidate candidate : candidates) {
+            if (!oldTaken[candidate.oldIndex] && !newTaken[candidate.newIndex]) {
+                oldTaken[candidate.oldIndex] = true;
+                newTaken[candidate.newIndex] = true;
+                renames.add(new FileDiff(Kind.RENAMED, oldFiles.get(candidate.oldIndex),
+                                         newFiles.get(candidate.newIndex), candidate.similarity));
+            }
+        }
+        return renames;
+    }
+    
+    private static String fileName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+    
+    private long[][] signatures(ExecutorService pool, Path root, List<String> files) throws IOException,
+                                                                                           InterruptedException {
+        List<Callable<long[]>> tasks = new ArrayList<>();
+        for (String file : files) {
+            tasks.add(() -> minHash(new String(Files.readAllBytes(root.resolve(file)), StandardCharsets.UTF_8)));
+        }
+        long[][] signatures = new long[files.size()][];
+        List<Future<long[]>> futures = pool.invokeAll(tasks);
+        for (int i = 0; i < signatures.length; i++) {
+            signatures[i] = getResult(futures.get(i));
+        }
+        return signatures;
+    }
+    
+    /**
+     * MinHash signature of the distinct words of a text: for each of the
+     * MIN_HASHES hash functions, the smallest hash over the words. Function k
+     * is h1 + k * h2 over two independent 64-bit hashes of the word.
+     * 
+     * @return null if the text has no words
+     */
+    static long[] minHash(String text) {
+        Set<String> words = new HashSet<>(SimHash.tokenize(text));
+        if (words.isEmpty()) {
+            return null;
+        }
+        
+        long[] signature = new long[MIN_HASHES];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (String word : words) {
+            long h1 = mix(word.hashCode());
+            long h2 = mix(h1) | 1;
+            long h = h1;
+            for (int k = 0; k < MIN_HASHES; k++) {
+                if (h < signature[k]) {
+                    signature[k] = h;
+                }
+                h += h2;
+            }
+        }
+        return signature;
+    }
+    
+    /**
+     * Estimated Jaccard similarity of the word sets: the share of MinHash
+     * functions on which both signatures agree
+     */
+    static double similarity(long[] a, long[] b) {
+        if (a == null || b == null) {
+            return 0.0;
+        }
+        int agree = 0;
+        for (int k = 0; k < MIN_HASHES; k++) {
+            if (a[k] == b[k]) {
+                agree++;
+            }
+        }
+        return (double) agree / MIN_HASHES;
+    }
+    
+    /** SplitMix64 finalizer */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    private FileDiff mapFile(FileDiff file, Path oldRoot, Path newRoot) throws IOException {
+        byte[] oldContent = Files.readAllBytes(oldRoot.resolve(file.oldPath));
+        byte[] newContent = Files.readAllBytes(newRoot.resolve(file.newPath));
+        
+        long start = System.nanoTime();
+        MappingResult result = lhdiff.mapLines(oldContent, newContent, false);
+        return new FileDiff(file.kind, file.oldPath, file.newPath, file.similarity,
+                            result, System.nanoTime() - start);
+    }
+    
+    private static <T> T getResult(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Directory diff failed", e.getCause());
+        }
+    }
+    
+    private static class Candidate {
+        final int oldIndex;
+        final int newIndex;
+        final double similarity;
+        final boolean sameName;
+        
+        Candidate(int oldIndex, int newIndex, double similarity, boolean sameName) {
+            this.oldIndex = oldIndex;
+            this.newIndex = newIndex;
+            this.similarity = similarity;
+            this.sameName = sameName;
+        }
+    }
+    
+    /**
+     * One file of the snapshots: a mapped pair, or an added or deleted file
+     */
+    public static class FileDiff {
+        public final Kind kind;
+        /** Relative paths; oldPath is null for an added file, newPath for a deleted one */
+        public final String oldPath;
+        public final String newPath;
+        /** Estimated word-set similarity for renames, 1 for identical paths */
+        public final double similarity;
+        /** Line mapping, null for added and deleted files */
+        public final MappingResult result;
+        public final long elapsedNanos;
+        
+        public FileDiff(Kind kind, String oldPath, String newPath, double similarity) {
+            this(kind, oldPath, newPath, similarity, null, 0);
+        }
+        
+        public FileDiff(Kind kind, String oldPath, String newPath, double similarity,
+                        MappingResult result, long elapsedNanos) {
+            this.kind = kind;
+            this.oldPath = oldPath;
+            this.newPath = newPath;
+            this.similarity = similarity;
+            this.result = result;
+            this.elapsedNanos = elapsedNanos;
+        }
+        
+        /**
+         * The path to report the file under: the new one unless it was deleted
+         */
+        public String path() {
+            return newPath != null ? newPath : oldPath;
+        }
+        
+        public int mappings() {
+            return result == null ? 0 : result.mappings.size();
+        }
+        
+        public int splits() {
+            return result == null ? 0 : result.splits.size();
+        }
+        
+        public int unmappedOld() {
+            return result == null ? 0 : result.unmappedOld.size();
+        }
+        
+        public int unmappedNew() {
+            return result == null ? 0 : result.unmappedNew.size();
+        }
+    }
+    
+    /**
+     * All files of a directory diff, sorted by path, with totals
+     */
+    public static class DirectoryResult {
+        public final List<FileDiff> files;
+        public final long wallNanos;
+        
+        public DirectoryResult(List<FileDiff> files, long wallNanos) {
+            this.files = files;
+            this.wallNanos = wallNanos;
+        }
+        
+        public int count(Kind kind) {
+            int count = 0;
+            for (FileDiff file : files) {
+                if (file.kind == kind) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        
+        public long totalMappings() {
+            return files.stream().mapToLong(FileDiff::mappings).sum();
+        }
+        
+        public long totalSplits() {
+            return files.stream().mapToLong(FileDiff::splits).sum();
+        }
+        
+        public long totalUnmappedOld() {
+            return files.stream().mapToLong(FileDiff::unmappedOld).sum();
+        }
+        
+        public long totalUnmappedNew() {
+            return files.stream().mapToLong(FileDiff::unmappedNew).sum();
+        }
+        
+        public void print(boolean perFile) {
+            if (perFile) {
+                System.out.println(String.format("%-9s %-50s %6s %8s %6s %8s %8s %9s",
+                                   "kind", "file", "sim", "mapped", "splits", "unm-old", "unm-new", "ms"));
+                for (FileDiff file : files) {
+                    String name = file.kind == Kind.RENAMED ? file.oldPath + " -> " + file.newPath : file.path();
+                    System.out.println(String.format("%-9s %-50s %6.2f %8d %6d %8d %8d %9.3f",
+                                       file.kind, name, file.similarity, file.mappings(), file.splits(),
+                                       file.unmappedOld(), file.unmappedNew(), file.elapsedNanos / 1e6));
+                }
+                System.out.println();
+            }
+            
+            System.out.println(String.format("Files:       %d modified, %d renamed, %d added, %d deleted",
+                                             count(Kind.MODIFIED), count(Kind.RENAMED),
+                                             count(Kind.ADDED), count(Kind.DELETED)));
+            System.out.println(String.format("Lines:       %d mapped, %d splits, %d unmapped old, %d unmapped new",
+                                             totalMappings(), totalSplits(),
+                                             totalUnmappedOld(), totalUnmappedNew()));
+            System.out.println(String.format("Wall time:   %.3f s", wallNanos / 1e9));
+        }
+    }
+    
+    /**
+     * Main method - Command line interface
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java DirectoryDiff <old_dir> <new_dir> [--threads N]"
+                               + " [--rename-threshold S] [--files]");
+            System.out.println("\nOptions:");
+            System.out.println("  --threads N            Files mapped in parallel (default: available processors)");
+            System.out.println("  --rename-threshold S   Minimum word-set similarity for a rename (default 0.5)");
+            System.out.println("  --files                Print a line of stats per file");
+            return;
+        }
+        
+        int threads = Runtime.getRuntime().availableProcessors();
+        double renameThreshold = 0.5;
+        boolean perFile = false;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--rename-threshold": renameThreshold = Double.parseDouble(args[++i]); break;
+                case "--files": perFile = true; break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+        
+        try {
+            DirectoryDiff directoryDiff = new DirectoryDiff(threads, renameThreshold, EngineConfig.defaults());
+            directoryDiff.diff(Paths.get(args[0]), Paths.get(args[1])).print(perFile);
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,245 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.DiffAnalyzer.Algorithm;
+import com.comp3110.lhdiff.SimHashGenerator.Search;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Immutable LHDiff engine configuration.
+ * Build with {@code EngineConfig.builder()...build()}; unset options keep the defaults
+ * used by {@code new LHDiff()}.
+ */
+public class EngineConfig {
+    
+    public final int kCandidates;
+    public final boolean adaptiveCandidates;
+    public final int minCandidates;
+    public final double candidateScoreGap;
+    public final double candidateMinScore;
+    public final double similarityThreshold;
+    public final double splitThreshold;
+    public final boolean exactMoves;
+    public final boolean exactMoveContextCheck;
+    public final boolean hunkPartitioning;
+    public final boolean globalPass;
+    public final Executor executor;
+    public final long memoryBudgetBytes;
+    public final long latencyTargetMillis;
+    public final boolean latencyMode;
+    public final Algorithm diffAlgorithm;
+    public final Search candidateSearch;
+    public final Boolean splitDetection;
+    
+    private EngineConfig(Builder builder) {
+        this.kCandidates = builder.kCandidates;
+        this.adaptiveCandidates = builder.adaptiveCandidates;
+        this.minCandidates = builder.minCandidates;
+        this.candidateScoreGap = builder.candidateScoreGap;
+        this.candidateMinScore = builder.candidateMinScore;
+        this.similarityThreshold = builder.similarityThreshold;
+        this.splitThreshold = builder.splitThreshold;
+        this.exactMoves = builder.exactMoves;
+        this.exactMoveContextCheck = builder.exactMoveContextCheck;
+        this.hunkPartitioning = builder.hunkPartitioning;
+        this.globalPass = builder.globalPass;
+        this.executor = builder.executor;
+        this.memoryBudgetBytes = builder.memoryBudgetBytes;
+        this.latencyTargetMillis = builder.latencyTargetMillis;
+        this.latencyMode = builder.latencyMode;
+        this.diffAlgorithm = builder.diffAlgorithm;
+        this.candidateSearch = builder.candidateSearch;
+        this.splitDetection = builder.splitDetection;
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    public static EngineConfig defaults() {
+        return new Builder().build();
+    }
+    
+    /**
+     * Builder for EngineConfig
+     */
+    public static class Builder {
+        private int kCandidates = 15;
+        private boolean adaptiveCandidates = false;
+        private int minCandidates = 2;
+        private double candidateScoreGap = 0.1;
+        private double candidateMinScore = 0.5;
+        private double similarityThreshold = 0.5;
+        private double splitThreshold = 0.05;
+        private boolean exactMoves = true;
+        private boolean exactMoveContextCheck = false;
+        private boolean hunkPartitioning = false;
+        private boolean globalPass = true;
+        private Executor executor = null;
+        private long memoryBudgetBytes = 256L << 20;
+        private long latencyTargetMillis = 1000;
+        private boolean latencyMode = false;
+        private Algorithm diffAlgorithm = null;
+        private Search candidateSearch = null;
+        private Boolean splitDetection = null;
+        
+        /**
+         * Number of SimHash candidates kept per changed old line (Step 3)
+         */
+        public Builder kCandidates(int kCandidates) {
+            this.kCandidates = kCandidates;
+            return this;
+        }
+        
+        /**
+         * Let the number of SimHash candidates per line vary between
+         * minCandidates and kCandidates, cut at candidateScoreGap and
+         * candidateMinScore (Step 3)
+         */
+        public Builder adaptiveCandidates(boolean adaptiveCandidates) {
+            this.adaptiveCandidates = adaptiveCandidates;
+            return this;
+        }
+        
+        /**
+         * Fewest candidates an adaptive list is cut to
+         */
+        public Builder minCandidates(int minCandidates) {
+            this.minCandidates = minCandidates;
+            return this;
+        }
+        
+        /**
+         * Largest SimHash similarity drop from a line's best candidate that an
+         * adaptive list still keeps
+         */
+        public Builder candidateScoreGap(double candidateScoreGap) {
+            this.candidateScoreGap = candidateScoreGap;
+            return this;
+        }
+        
+        /**
+         * Lowest SimHash similarity an adaptive list still keeps
+         */
+        public Builder candidateMinScore(double candidateMinScore) {
+            this.candidateMinScore = candidateMinScore;
+            return this;
+        }
+        
+        /**
+         * Minimum combined similarity for a resolved mapping (Step 4)
+         */
+        public Builder similarityThreshold(double similarityThreshold) {
+            this.similarityThreshold = similarityThreshold;
+            return this;
+        }
+        
+        /**
+         * Minimum improvement for extending a line split (Step 5)
+         */
+        public Builder splitThreshold(double splitThreshold) {
+            this.splitThreshold = splitThreshold;
+            return this;
+        }
+        
+        /**
+         * Map changed lines whose normalized text is unique on both sides
+         * directly, before SimHash candidate generation
+         */
+        public Builder exactMoves(boolean exactMoves) {
+            this.exactMoves = exactMoves;
+            return this;
+        }
+        
+        /**
+         * Only accept an exact move when a neighbouring line moved with it
+         */
+        public Builder exactMoveContextCheck(boolean exactMoveContextCheck) {
+            this.exactMoveContextCheck = exactMoveContextCheck;
+            return this;
+        }
+        
+        /**
+         * Run Steps 3-5 separately inside each region between unchanged
+         * blocks instead of over all changed lines of the file at once
+         */
+        public Builder hunkPartitioning(boolean hunkPartitioning) {
+            this.hunkPartitioning = hunkPartitioning;
+            return this;
+        }
+        
+        /**
+         * With hunk partitioning, give lines left unmapped by their hunks one
+         * more file-wide Steps 3-4 pass to catch long-distance moves
+         */
+        public Builder globalPass(boolean globalPass) {
+            this.globalPass = globalPass;
+            return this;
+        }
+        
+        /**
+         * Executor for parallel work inside one mapping
+         * (default: the common fork-join pool)
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+        
+        /**
+         * Largest data structure one mapping may allocate; bounds the Step 2
+         * LCS table
+         */
+        public Builder memoryBudgetBytes(long memoryBudgetBytes) {
+            this.memoryBudgetBytes = memoryBudgetBytes;
+            return this;
+        }
+        
+        /**
+         * Time one mapping should take; strategies whose estimated cost does
+         * not fit are swapped for cheaper ones
+         */
+        public Builder latencyTargetMillis(long latencyTargetMillis) {
+            this.latencyTargetMillis = latencyTargetMillis;
+            return this;
+        }
+        
+        /**
+         * Size Steps 3 and 5 to the time actually left of the latency target
+         * once Steps 1-2b have run (default false: to the whole target, so the
+         * same pair always gets the same strategies)
+         */
+        public Builder latencyMode(boolean latencyMode) {
+            this.latencyMode = latencyMode;
+            return this;
+        }
+        
+        /**
+         * Force the Step 2 algorithm (default null: chosen per pair)
+         */
+        public Builder diffAlgorithm(Algorithm diffAlgorithm) {
+            this.diffAlgorithm = diffAlgorithm;
+            return this;
+        }
+        
+        /**
+         * Force the Step 3 candidate search (default null: chosen per pair)
+         */
+        public Builder candidateSearch(Search candidateSearch) {
+            this.candidateSearch = candidateSearch;
+            return this;
+        }
+        
+        /**
+         * Force Step 5 on or off (default null: chosen per pair)
+         */
+        public Builder splitDetection(Boolean splitDetection) {
+            this.splitDetection = splitDetection;
+            return this;
+        }
+        
+        public EngineConfig build() {
+            return new EngineConfig(this);
+        }
+    }
+}
\ No newline at end of file
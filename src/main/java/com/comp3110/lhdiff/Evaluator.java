@@ -0,0 +1,442 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.LHDiff.MappingResult;
+import com.comp3110.lhdiff.StageStats.Stage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Evaluation Harness
+ * Maps every pair under a dataset directory in parallel and scores the result
+ * against its ground_truth.json, reporting accuracy and throughput together
+ */
+public class Evaluator {
+    
+    private final int threads;
+    private final int repeat;
+    private final LHDiff lhdiff;
+    
+    public Evaluator() {
+        this(Runtime.getRuntime().availableProcessors(), 1, EngineConfig.defaults());
+    }
+    
+    public Evaluator(int threads, int repeat, EngineConfig config) {
+        this.threads = Math.max(1, threads);
+        this.repeat = Math.max(1, repeat);
+        this.lhdiff = new LHDiff(config);
+    }
+    
+    /**
+     * Find all pair directories (those containing a ground_truth.json) below a root
+     */
+    public List<Pair> findPairs(Path root) throws IOException {
+        List<Path> truthFiles;
+        try (Stream<Path> walk = Files.walk(root)) {
+            truthFiles = walk.filter(p -> p.getFileName().toString().equals("ground_truth.json"))
+                             .sorted()
+                             .collect(Collectors.toList());
+        }
+        
+        List<Pair> pairs = new ArrayList<>();
+        for (Path truthFile : truthFiles) {
+            Path dir = truthFile.getParent();
+            Path oldFile = findVersion(dir, "old");
+            Path newFile = findVersion(dir, "new");
+            if (oldFile != null && newFile != null) {
+                pairs.add(new Pair(dir, oldFile, newFile, truthFile));
+            }
+        }
+        
+        return pairs;
+    }
+    
+    private static Path findVersion(Path dir, String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith(prefix + "."))
+                        .findFirst()
+                        .orElse(null);
+        }
+    }
+    
+    /**
+     * Map and score every pair
+     */
+    public Report evaluate(List<Pair> pairs) throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        
+        try {
+            List<Callable<PairScore>> tasks = new ArrayList<>();
+            for (int r = 0; r < repeat; r++) {
+                for (Pair pair : pairs) {
+                    tasks.add(() -> evaluatePair(pair));
+                }
+            }
+            
+            long start = System.nanoTime();
+            List<Future<PairScore>> futures = pool.invokeAll(tasks);
+            long wallNanos = System.nanoTime() - start;
+            
+            List<PairScore> scores = new ArrayList<>();
+            for (Future<PairScore> future : futures) {
+                scores.add(future.get());
+            }
+            
+            return new Report(scores, wallNanos);
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Map one pair and compare it with its ground truth
+     */
+    public PairScore evaluatePair(Pair pair) throws IOException {
+        GroundTruth truth = GroundTruth.load(pair.truthFile);
+        
+        long start = System.nanoTime();
+        MappingResult result = lhdiff.mapLines(pair.oldFile.toString(), pair.newFile.toString(), false);
+        long elapsed = System.nanoTime() - start;
+        
+        int lines = (int) (result.stats.getCounter("old lines") + result.stats.getCounter("new lines"));
+        
+        int mappingHits = 0;
+        for (Map.Entry<Integer, Integer> entry : result.mappings.entrySet()) {
+            if (entry.getValue().equals(truth.mappings.get(entry.getKey()))) {
+                mappingHits++;
+            }
+        }
+        
+        int splitHits = 0;
+        for (Map.Entry<Integer, List<Integer>> entry : result.splits.entrySet()) {
+            if (entry.getValue().equals(truth.splits.get(entry.getKey()))) {
+                splitHits++;
+            }
+        }
+        
+        return new PairScore(pair, lines, elapsed, result.stats,
+                             mappingHits, result.mappings.size(), truth.mappings.size(),
+                             splitHits, result.splits.size(), truth.splits.size());
+    }
+    
+    /**
+     * One old/new pair on disk
+     */
+    public static class Pair {
+        public final Path dir;
+        public final Path oldFile;
+        public final Path newFile;
+        public final Path truthFile;
+        
+        public Pair(Path dir, Path oldFile, Path newFile, Path truthFile) {
+            this.dir = dir;
+            this.oldFile = oldFile;
+            this.newFile = newFile;
+            this.truthFile = truthFile;
+        }
+    }
+    
+    /**
+     * Parsed ground_truth.json
+     */
+    public static class GroundTruth {
+        public final Map<Integer, Integer> mappings = new HashMap<>();
+        public final Map<Integer, List<Integer>> splits = new HashMap<>();
+        public final Set<Integer> unmappedOld = new HashSet<>();
+        public final Set<Integer> unmappedNew = new HashSet<>();
+        
+        @SuppressWarnings("unchecked")
+        public static GroundTruth load(Path file) throws IOException {
+            String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            Map<String, Object> json = (Map<String, Object>) Json.parse(text);
+            GroundTruth truth = new GroundTruth();
+            
+            Map<String, Object> mappings = (Map<String, Object>) json.get("mappings");
+            if (mappings != null) {
+                for (Map.Entry<String, Object> entry : mappings.entrySet()) {
+                    truth.mappings.put(Integer.parseInt(entry.getKey()), ((Number) entry.getValue()).intValue());
+                }
+            }
+            
+            Map<String, Object> splits = (Map<String, Object>) json.get("splits");
+            if (splits != null) {
+                for (Map.Entry<String, Object> entry : splits.entrySet()) {
+                    truth.splits.put(Integer.parseInt(entry.getKey()), toInts((List<Object>) entry.getValue()));
+                }
+            }
+            
+            if (json.get("unmapped_old") != null) {
+                truth.unmappedOld.addAll(toInts((List<Object>) json.get("unmapped_old")));
+            }
+            if (json.get("unmapped_new") != null) {
+                truth.unmappedNew.addAll(toInts((List<Object>) json.get("unmapped_new")));
+            }
+            
+            return truth;
+        }
+        
+        private static List<Integer> toInts(List<Object> values) {
+            List<Integer> ints = new ArrayList<>(values.size());
+            for (Object value : values) {
+                ints.add(((Number) value).intValue());
+            }
+            return ints;
+        }
+    }
+    
+    /**
+     * Accuracy counts and timings for one mapped pair
+     */
+    public static class PairScore {
+        public final Pair pair;
+        public final int lines;
+        public final long elapsedNanos;
+        public final StageStats stats;
+        public final int mappingHits;
+        public final int mappingsPredicted;
+        public final int mappingsExpected;
+        public final int splitHits;
+        public final int splitsPredicted;
+        public final int splitsExpected;
+        
+        public PairScore(Pair pair, int lines, long elapsedNanos, StageStats stats,
+                         int mappingHits, int mappingsPredicted, int mappingsExpected,
+                         int splitHits, int splitsPredicted, int splitsExpected) {
+            this.pair = pair;
+            this.lines = lines;
+            this.elapsedNanos = elapsedNanos;
+            this.stats = stats;
+            this.mappingHits = mappingHits;
+            this.mappingsPredicted = mappingsPredicted;
+            this.mappingsExpected = mappingsExpected;
+            this.splitHits = splitHits;
+            this.splitsPredicted = splitsPredicted;
+            this.splitsExpected = splitsExpected;
+        }
+    }
+    
+    /**
+     * Aggregated accuracy (micro-averaged) and throughput over all pairs
+     */
+    public static class Report {
+        public final List<PairScore> scores;
+        public final long wallNanos;
+        
+        public Report(List<PairScore> scores, long wallNanos) {
+            this.scores = scores;
+            this.wallNanos = wallNanos;
+        }
+        
+        public double mappingPrecision() {
+            return ratio(sum(s -> s.mappingHits), sum(s -> s.mappingsPredicted));
+        }
+        
+        public double mappingRecall() {
+            return ratio(sum(s -> s.mappingHits), sum(s -> s.mappingsExpected));
+        }
+        
+        public double splitPrecision() {
+            return ratio(sum(s -> s.splitHits), sum(s -> s.splitsPredicted));
+        }
+        
+        public double splitRecall() {
+            return ratio(sum(s -> s.splitHits), sum(s -> s.splitsExpected));
+        }
+        
+        /**
+         * Average number of Step 3 candidates per changed old line, i.e. the
+         * Step 4 comparisons each line costs
+         */
+        public double averageCandidates() {
+            return sum(s -> s.stats.getCounter("candidate lines")) == 0 ? 0.0
+                : (double) sum(s -> s.stats.getCounter("candidate pairs")) / sum(s -> s.stats.getCounter("candidate lines"));
+        }
+        
+        /**
+         * Share of the pairs counted by one stage counter that its filters
+         * rejected (counted as counter + " filtered")
+         */
+        public double filterRate(String counter) {
+            return filterRate(counter, "filtered");
+        }
+        
+        public double filterRate(String counter, String suffix) {
+            long pairs = sum(s -> s.stats.getCounter(counter));
+            return pairs == 0 ? 0.0 : (double) sum(s -> s.stats.getCounter(counter + " " + suffix)) / pairs;
+        }
+        
+        public double linesPerSecond() {
+            return wallNanos == 0 ? 0.0 : sum(s -> s.lines) / (wallNanos / 1e9);
+        }
+        
+        /**
+         * Latency percentile over all pairs for one stage, in milliseconds
+         */
+        public double stagePercentile(Stage stage, double percentile) {
+            long[] values = new long[scores.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = scores.get(i).stats.getNanos(stage);
+            }
+            return percentile(values, percentile) / 1e6;
+        }
+        
+        /**
+         * End-to-end latency percentile over all pairs, in milliseconds
+         */
+        public double totalPercentile(double percentile) {
+            long[] values = new long[scores.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = scores.get(i).elapsedNanos;
+            }
+            return percentile(values, percentile) / 1e6;
+        }
+        
+        private long sum(ToLongFunction<PairScore> field) {
+            long total = 0;
+            for (PairScore score : scores) {
+                total += field.applyAsLong(score);
+            }
+            return total;
+        }
+        
+        private static double ratio(long numerator, long denominator) {
+            // No predictions and nothing expected counts as perfect
+            return denominator == 0 ? 1.0 : (double) numerator / denominator;
+        }
+        
+        private static long percentile(long[] values, double percentile) {
+            if (values.length == 0) {
+                return 0;
+            }
+            Arrays.sort(values);
+            int index = (int) Math.ceil(percentile / 100.0 * values.length) - 1;
+            return values[Math.max(0, Math.min(values.length - 1, index))];
+        }
+        
+        public void print() {
+            System.out.println("============================================================");
+            System.out.println("EVALUATION REPORT");
+            System.out.println("============================================================");
+            
+            System.out.println("\nPer pair:");
+            System.out.println(String.format("  %-28s %8s %9s %9s %7s %7s",
+                               "pair", "lines", "ms", "map P", "map R", "splits"));
+            for (PairScore s : scores) {
+                System.out.println(String.format("  %-28s %8d %9.2f %9.3f %7.3f %3d/%-3d",
+                                   s.pair.dir.getFileName(), s.lines, s.elapsedNanos / 1e6,
+                                   ratio(s.mappingHits, s.mappingsPredicted),
+                                   ratio(s.mappingHits, s.mappingsExpected),
+                                   s.splitHits, s.splitsExpected));
+            }
+            
+            System.out.println("\nAccuracy:");
+            System.out.println(String.format("  1:1 mappings  precision %.4f  recall %.4f",
+                               mappingPrecision(), mappingRecall()));
+            System.out.println(String.format("  Line splits   precision %.4f  recall %.4f",
+                               splitPrecision(), splitRecall()));
+            
+            System.out.println(String.format("  Candidates    %.2f per line over %d lines",
+                               averageCandidates(), sum(s -> s.stats.getCounter("candidate lines"))));
+            System.out.println(String.format("  Filtered      %.1f%% of %d Step 4 pairs (%.1f%% by context signature),",
+                               100 * filterRate("resolve pairs"), sum(s -> s.stats.getCounter("resolve pairs")),
+                               100 * filterRate("resolve pairs", "filtered by signature")));
+            System.out.println(String.format("                %.1f%% of %d Step 5 extensions",
+                               100 * filterRate("split extensions"), sum(s -> s.stats.getCounter("split extensions"))));
+            
+            System.out.println("\nThroughput:");
+            System.out.println(String.format("  %d mappings, %d lines in %.2f ms wall = %.0f lines/s",
+                               scores.size(), sum(s -> s.lines), wallNanos / 1e6, linesPerSecond()));
+            
+            System.out.println("\nLatency (ms):");
+            System.out.println(String.format("  %-30s %9s %9s %9s %9s", "stage", "p50", "p90", "p99", "max"));
+            for (Stage stage : Stage.values()) {
+                System.out.println(String.format("  %-30s %9.3f %9.3f %9.3f %9.3f", stage.getLabel(),
+                                   stagePercentile(stage, 50), stagePercentile(stage, 90),
+                                   stagePercentile(stage, 99), stagePercentile(stage, 100)));
+            }
+            System.out.println(String.format("  %-30s %9.3f %9.3f %9.3f %9.3f", "Total",
+                               totalPercentile(50), totalPercentile(90),
+                               totalPercentile(99), totalPercentile(100)));
+        }
+    }
+    
+    /**
+     * Main method - Command line interface
+     */
+    public static void main(String[] args) {
+        String root = "datasets/new";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int repeat = 1;
+        double minPrecision = 0.0;
+        double minRecall = 0.0;
+        EngineConfig.Builder config = EngineConfig.builder();
+        
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--repeat": repeat = Integer.parseInt(args[++i]); break;
+                case "--min-precision": minPrecision = Double.parseDouble(args[++i]); break;
+                case "--min-recall": minRecall = Double.parseDouble(args[++i]); break;
+                case "--hunks": config.hunkPartitioning(true); break;
+                case "--no-global-pass": config.globalPass(false); break;
+                case "--no-exact-moves": config.exactMoves(false); break;
+                case "--exact-move-context": config.exactMoveContextCheck(true); break;
+                case "--latency-target": config.latencyTargetMillis(Long.parseLong(args[++i])); break;
+                case "--latency-mode": config.latencyMode(true); break;
+                case "--memory-budget": config.memoryBudgetBytes(Long.parseLong(args[++i]) << 20); break;
+                case "--diff": config.diffAlgorithm(DiffAnalyzer.Algorithm.valueOf(args[++i].toUpperCase(Locale.ROOT))); break;
+                case "--k": config.kCandidates(Integer.parseInt(args[++i])); break;
+                case "--adaptive-k": config.adaptiveCandidates(true); break;
+                case "--min-k": config.minCandidates(Integer.parseInt(args[++i])); break;
+                case "--k-gap": config.candidateScoreGap(Double.parseDouble(args[++i])); break;
+                case "--k-min-score": config.candidateMinScore(Double.parseDouble(args[++i])); break;
+                case "--search": config.candidateSearch(SimHashGenerator.Search.valueOf(args[++i].toUpperCase(Locale.ROOT))); break;
+                case "--splits": config.splitDetection(Boolean.valueOf(args[++i])); break;
+                case "--help":
+                    System.out.println("Usage: java Evaluator [dataset_dir] [--threads N] [--repeat N]");
+                    System.out.println("                      [--min-precision P] [--min-recall R]");
+                    System.out.println("                      [--hunks] [--no-global-pass]");
+                    System.out.println("                      [--no-exact-moves] [--exact-move-context]");
+                    System.out.println("                      [--latency-target MS] [--latency-mode]");
+                    System.out.println("                      [--memory-budget MB]");
+                    System.out.println("                      [--diff lcs_table|myers|patience]");
+                    System.out.println("                      [--search exhaustive|lsh] [--splits true|false]");
+                    System.out.println("                      [--k N] [--adaptive-k] [--min-k N]");
+                    System.out.println("                      [--k-gap G] [--k-min-score S]");
+                    System.out.println("\nExits with status 1 when 1:1 mapping precision or recall");
+                    System.out.println("falls below the given minimum.");
+                    return;
+                default: root = args[i];
+            }
+        }
+        
+        try {
+            Evaluator evaluator = new Evaluator(threads, repeat, config.build());
+            List<Pair> pairs = evaluator.findPairs(Paths.get(root));
+            if (pairs.isEmpty()) {
+                System.err.println("No pairs with ground_truth.json found under " + root);
+                System.exit(1);
+            }
+            
+            Report report = evaluator.evaluate(pairs);
+            report.print();
+            
+            if (report.mappingPrecision() < minPrecision || report.mappingRecall() < minRecall) {
+                System.err.println("\nAccuracy below required minimum");
+                System.exit(1);
+            }
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
\ No newline at end of file
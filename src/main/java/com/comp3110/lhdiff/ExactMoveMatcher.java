@@ -0,0 +1,128 @@
+package com.comp3110.lhdiff;
+
+import java.util.*;
+
+/**
+ * Step 2b: Exact Move Detection
+ * Maps changed lines whose normalized text occurs exactly once among the
+ * changed lines of each file, so pure moves skip the SimHash and
+ * Levenshtein stages entirely
+ */
+public class ExactMoveMatcher {
+    
+    private static final int DUPLICATE = -1;
+    
+    private final boolean contextCheck;
+    
+    public ExactMoveMatcher() {
+        this(false);
+    }
+    
+    /**
+     * @param contextCheck Require the previous or next line to match as well,
+     *                     so single lines that happen to be unique are not paired
+     */
+    public ExactMoveMatcher(boolean contextCheck) {
+        this.contextCheck = contextCheck;
+    }
+    
+    /**
+     * Find changed lines that moved without modification
+     * 
+     * @param oldLines Normalized lines from old file (0-indexed)
+     * @param newLines Normalized lines from new file (0-indexed)
+     * @param oldChanged Changed line numbers in old file (1-indexed)
+     * @param newChanged Changed line numbers in new file (1-indexed)
+     * @return Map of old_line_num -> new_line_num
+     */
+    public Map<Integer, Integer> findExactMoves(List<String> oldLines, List<String> newLines,
+                                                Set<Integer> oldChanged, Set<Integer> newChanged) {
+        Map<String, Integer> oldIndex = buildIndex(oldLines, oldChanged);
+        Map<String, Integer> newIndex = buildIndex(newLines, newChanged);
+        Map<Integer, Integer> moves = new HashMap<>();
+        
+        for (Map.Entry<String, Integer> entry : oldIndex.entrySet()) {
+            int oldLineNum = entry.getValue();
+            Integer newLineNum = newIndex.get(entry.getKey());
+            
+            if (oldLineNum == DUPLICATE || newLineNum == null || newLineNum == DUPLICATE) {
+                continue;
+            }
+            
+            if (contextCheck && !contextMatches(oldLines, newLines, oldLineNum - 1, newLineNum - 1)) {
+                continue;
+            }
+            
+            moves.put(oldLineNum, newLineNum);
+        }
+        
+        return moves;
+    }
+    
+    /**
+     * Index normalized text -> line number, marking text seen more than once
+     */
+    private Map<String, Integer> buildIndex(List<String> lines, Set<Integer> lineNumbers) {
+        Map<String, Integer> index = new HashMap<>(lineNumbers.size() * 2);
+        
+        for (int lineNum : lineNumbers) {
+            int lineIdx = lineNum - 1;
+            if (lineIdx < 0 || lineIdx >= lines.size()) {
+                continue;
+            }
+            
+            // Blank and comment-only lines carry no identity
+            String text = lines.get(lineIdx);
+            if (text.isEmpty()) {
+                continue;
+            }
+            
+            Integer previous = index.put(text, lineNum);
+            if (previous != null) {
+                index.put(text, DUPLICATE);
+            }
+        }
+        
+        return index;
+    }
+    
+    private boolean contextMatches(List<String> oldLines, List<String> newLines, int oldIdx, int newIdx) {
+        boolean previousMatches = oldIdx > 0 && newIdx > 0
+            && oldLines.get(oldIdx - 1).equals(newLines.get(newIdx - 1));
+        boolean nextMatches = oldIdx + 1 < oldLines.size() && newIdx + 1 < newLines.size()
+            && oldLines.get(oldIdx + 1).equals(newLines.get(newIdx + 1));
+        
+        return previousMatches || nextMatches;
+    }
+    
+    // Test method
+    public static void main(String[] args) {
+        ExactMoveMatcher matcher = new ExactMoveMatcher();
+        
+        List<String> oldLines = Arrays.asList(
+            "int a = 1;",
+            "int b = 2;",
+            "return a + b;",
+            "}"
+        );
+        
+        List<String> newLines = Arrays.asList(
+            "int b = 2;",
+            "int c = 3;",
+            "int a = 1;",
+            "}"
+        );
+        
+        Set<Integer> oldChanged = new HashSet<>(Arrays.asList(1, 2, 3));
+        Set<Integer> newChanged = new HashSet<>(Arrays.asList(1, 2, 3));
+        
+        Map<Integer, Integer> moves = matcher.findExactMoves(oldLines, newLines, oldChanged, newChanged);
+        
+        System.out.println("Exact moves:");
+        for (Map.Entry<Integer, Integer> entry : moves.entrySet()) {
+            System.out.println("  " + entry.getKey() + " -> " + entry.getValue());
+        }
+        System.out.println();
+        System.out.println("Line 1 should map to 3 and line 2 to 1; line 3 has no exact counterpart");
+    }
+}
\ No newline at end of file
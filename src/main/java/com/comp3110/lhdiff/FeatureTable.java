@@ -0,0 +1,134 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.SimHashGenerator.LineFeatures;
+
+import java.util.*;
+
+/**
+ * Step 3 features for a set of lines, stored as parallel arrays sorted by line
+ * number: no boxed keys and no object per line, so candidate scans walk two
+ * long[] arrays sequentially.
+ * 
+ * A table may also carry each line's context word signature for Step 4: the
+ * number of distinct words in the context window and a 128-bit mask with one
+ * bit set per word (TokenSet.signatureBit), two longs per row.
+ */
+public final class FeatureTable {
+    
+    public final int[] lineNo;
+    public final long[] contentHash;
+    public final long[] contextHash;
+    /** Distinct context words per row, or null without signatures */
+    public final int[] contextWords;
+    /** Context word masks, low and high long of row i at 2i and 2i + 1, or null */
+    public final long[] contextSignature;
+    
+    /**
+     * @param lineNo Line numbers (1-indexed), ascending
+     */
+    public FeatureTable(int[] lineNo, long[] contentHash, long[] contextHash) {
+        this(lineNo, contentHash, contextHash, null, null);
+    }
+    
+    public FeatureTable(int[] lineNo, long[] contentHash, long[] contextHash,
+                        int[] contextWords, long[] contextSignature) {
+        if (lineNo.length != contentHash.length || lineNo.length != contextHash.length) {
+            throw new IllegalArgumentException("Feature arrays differ in length");
+        }
+        if ((contextWords == null) != (contextSignature == null)
+            || (contextWords != null && (contextWords.length != lineNo.length
+                                         || contextSignature.length != 2 * lineNo.length))) {
+            throw new IllegalArgumentException("Signature arrays do not match the lines");
+        }
+        this.lineNo = lineNo;
+        this.contentHash = contentHash;
+        this.contextHash = contextHash;
+        this.contextWords = contextWords;
+        this.contextSignature = contextSignature;
+    }
+    
+    public int size() {
+        return lineNo.length;
+    }
+    
+    public boolean hasSignatures() {
+        return contextWords != null;
+    }
+    
+    /**
+     * Upper bound on the number of context words two rows (of this table and
+     * another) share. Colliding words make the AND of two masks unreliable,
+     * but every bit one mask has and the other lacks stands for at least one
+     * word that cannot be shared, so each side's size minus those bits bounds
+     * the intersection.
+     */
+    public int sharedWordsBound(int row, FeatureTable other, int otherRow) {
+        long low = contextSignature[2 * row];
+        long high = contextSignature[2 * row + 1];
+        long otherLow = other.contextSignature[2 * otherRow];
+        long otherHigh = other.contextSignature[2 * otherRow + 1];
+        int onlyHere = Long.bitCount(low & ~otherLow) + Long.bitCount(high & ~otherHigh);
+        int onlyThere = Long.bitCount(otherLow & ~low) + Long.bitCount(otherHigh & ~high);
+        return Math.min(contextWords[row] - onlyHere, other.contextWords[otherRow] - onlyThere);
+    }
+    
+    /**
+     * Row holding the given line, or a negative value if the table has none
+     */
+    public int indexOf(int lineNum) {
+        return Arrays.binarySearch(lineNo, lineNum);
+    }
+    
+    /**
+     * Rows for the given lines, in line order; lines not in the table are skipped
+     */
+    public FeatureTable select(Set<Integer> lines) {
+        int[] rows = new int[lines.size()];
+        int count = 0;
+        for (int lineNum : lines) {
+            int row = indexOf(lineNum);
+            if (row >= 0) {
+                rows[count++] = row;
+            }
+        }
+        Arrays.sort(rows, 0, count);
+        
+        int[] selectedLines = new int[count];
+        long[] selectedContent = new long[count];
+        long[] selectedContext = new long[count];
+        int[] selectedWords = hasSignatures() ? new int[count] : null;
+        long[] selectedSignature = hasSignatures() ? new long[2 * count] : null;
+        for (int i = 0; i < count; i++) {
+            selectedLines[i] = lineNo[rows[i]];
+            selectedContent[i] = contentHash[rows[i]];
+            selectedContext[i] = contextHash[rows[i]];
+            if (hasSignatures()) {
+                selectedWords[i] = contextWords[rows[i]];
+                selectedSignature[2 * i] = contextSignature[2 * rows[i]];
+                selectedSignature[2 * i + 1] = contextSignature[2 * rows[i] + 1];
+            }
+        }
+        return new FeatureTable(selectedLines, selectedContent, selectedContext, selectedWords, selectedSignature);
+    }
+    
+    /**
+     * Table holding the same features as a line_number -> LineFeatures map
+     */
+    public static FeatureTable of(Map<Integer, LineFeatures> features) {
+        int[] lines = new int[features.size()];
+        int i = 0;
+        for (int lineNum : features.keySet()) {
+            lines[i++] = lineNum;
+        }
+        Arrays.sort(lines);
+        
+        long[] content = new long[lines.length];
+        long[] context = new long[lines.length];
+        for (i = 0; i < lines.length; i++) {
+            LineFeatures lineFeatures = features.get(lines[i]);
+            content[i] = lineFeatures.contentHash;
+            context[i] = lineFeatures.contextHash;
+        }
+        return new FeatureTable(lines, content, context);
+    }
+}
\ No newline at end of file
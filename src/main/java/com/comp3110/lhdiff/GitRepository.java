@@ -0,0 +1,893 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.LHDiff.MappingResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Local git object reader
+ * Reads file versions straight from a repository's object database, loose
+ * objects and packfiles (index v1 and v2, offset and reference deltas), so
+ * revision pairs can be mapped through the in-memory LHDiff.mapLines(byte[],
+ * byte[], ...) without spawning git or writing temp files.
+ * 
+ * Revisions are full or abbreviated object ids, HEAD, branch, tag and other
+ * ref names (loose or in packed-refs), each optionally followed by ~N, ^ and
+ * ^N. In a linked worktree HEAD and the per-worktree refs are read from the
+ * worktree's own git directory, objects and the other refs from the common
+ * directory named by its commondir file. Decoded objects (blobs, and the commits and trees walked to reach
+ * them) are kept in one LRU cache bounded in bytes and shared by all
+ * threads, so walking history reads each unchanged file version only once.
+ */
+public class GitRepository {
+    
+    private static final int OBJ_COMMIT = 1;
+    private static final int OBJ_TREE = 2;
+    private static final int OBJ_BLOB = 3;
+    private static final int OBJ_TAG = 4;
+    private static final int OBJ_OFS_DELTA = 6;
+    private static final int OBJ_REF_DELTA = 7;
+    private static final String[] TYPE_NAMES = {null, "commit", "tree", "blob", "tag"};
+    
+    private static final int MAX_PEEL = 32;
+    
+    private final Path gitDir;
+    private final Path commonDir;
+    private final List<Pack> packs = new ArrayList<>();
+    private final ObjectCache cache;
+    
+    public GitRepository(Path repository) throws IOException {
+        this(repository, 64L << 20);
+    }
+    
+    /**
+     * @param repository Working tree (with a .git directory or file) or bare repository
+     * @param cacheBytes Total size of decoded objects kept in the cache
+     */
+    public GitRepository(Path repository, long cacheBytes) throws IOException {
+        this.gitDir = findGitDir(repository);
+        this.commonDir = findCommonDir(gitDir);
+        this.cache = new ObjectCache(cacheBytes);
+        
+        Path packDir = commonDir.resolve("objects").resolve("pack");
+        if (Files.isDirectory(packDir)) {
+            List<Path> indexes = new ArrayList<>();
+            try (Stream<Path> files = Files.list(packDir)) {
+                files.filter(p -> p.getFileName().toString().endsWith(".idx")).forEach(indexes::add);
+            }
+            Collections.sort(indexes);
+            for (Path index : indexes) {
+                String name = index.getFileName().toString();
+                Path pack = index.resolveSibling(name.substring(0, name.length() - 4) + ".pack");
+                if (Files.exists(pack)) {
+                    packs.add(new Pack(index, pack));
+                }
+            }
+        }
+    }
+    
+    private static Path findGitDir(Path repository) throws IOException {
+        Path dotGit = repository.resolve(".git");
+        if (Files.isDirectory(dotGit)) {
+            return dotGit;
+        }
+        if (Files.isRegularFile(dotGit)) {
+            // Linked worktrees and submodules: "gitdir: <path>"
+            String content = new String(Files.readAllBytes(dotGit), StandardCharsets.UTF_8).trim();
+            if (content.startsWith("gitdir:")) {
+                return repository.resolve(content.substring(7).trim());
+            }
+        }
+        if (Files.isDirectory(repository.resolve("objects")) && Files.exists(repository.resolve("HEAD"))) {
+            return repository;
+        }
+        throw new IOException("Not a git repository: " + repository);
+    }
+    
+    /**
+     * Directory holding objects and shared refs: the one a linked worktree's
+     * commondir file names (relative to its git directory), else gitDir itself
+     */
+    private static Path findCommonDir(Path gitDir) throws IOException {
+        Path commonDirFile = gitDir.resolve("commondir");
+        if (!Files.isRegularFile(commonDirFile)) {
+            return gitDir;
+        }
+        String content = new String(Files.readAllBytes(commonDirFile), StandardCharsets.UTF_8).trim();
+        Path commonDir = gitDir.resolve(content).normalize();
+        if (!Files.isDirectory(commonDir.resolve("objects"))) {
+            throw new IOException("Worktree " + gitDir + " points at " + commonDir + ", which has no objects");
+        }
+        return commonDir;
+    }
+    
+    /**
+     * Git directory a ref lives in: HEAD-like pseudo refs and refs/bisect,
+     * refs/worktree and refs/rewritten are per worktree, the rest are shared
+     */
+    private Path refDir(String ref) {
+        boolean perWorktree = !ref.startsWith("refs/") || ref.startsWith("refs/bisect/")
+            || ref.startsWith("refs/worktree/") || ref.startsWith("refs/rewritten/");
+        return perWorktree ? gitDir : commonDir;
+    }
+    
+    // ==================== Reading file versions ====================
+    
+    /**
+     * Content of a file at a revision
+     * 
+     * @param path Path inside the tree, with '/' separators
+     * @throws NoSuchFileException if the path is not a file at that revision
+     */
+    public byte[] readFile(String revision, String path) throws IOException {
+        return readBlob(blobId(resolve(revision), path));
+    }
+    
+    /**
+     * Map a file between two revisions through the in-memory pipeline
+     */
+    public MappingResult mapLines(LHDiff lhdiff, String oldRevision, String newRevision, String path)
+        throws IOException {
+        return lhdiff.mapLines(readFile(oldRevision, path), readFile(newRevision, path), false);
+    }
+    
+    /**
+     * Id of the blob at path in a commit's tree
+     */
+    public String blobId(String commitId, String path) throws IOException {
+        String id = treeOf(commitId);
+        for (String name : path.split("/")) {
+            if (name.isEmpty()) {
+                continue;
+            }
+            String entry = findTreeEntry(readObject(id, OBJ_TREE), name);
+            if (entry == null) {
+                throw new NoSuchFileException(path, null, "not found at " + commitId);
+            }
+            id = entry;
+        }
+        if (typeOf(id) != OBJ_BLOB) {
+            throw new NoSuchFileException(path, null, "not a file at " + commitId);
+        }
+        return id;
+    }
+    
+    public byte[] readBlob(String id) throws IOException {
+        return readObject(id, OBJ_BLOB);
+    }
+    
+    /**
+     * Parents of a commit, first parent first
+     */
+    public List<String> parents(String commitId) throws IOException {
+        List<String> parents = new ArrayList<>();
+        for (String line : headerLines(readObject(commitId, OBJ_COMMIT))) {
+            if (line.startsWith("parent ")) {
+                parents.add(line.substring(7));
+            }
+        }
+        return parents;
+    }
+    
+    private String treeOf(String commitId) throws IOException {
+        for (String line : headerLines(readObject(commitId, OBJ_COMMIT))) {
+            if (line.startsWith("tree ")) {
+                return line.substring(5);
+            }
+        }
+        throw new IOException("Commit " + commitId + " has no tree");
+    }
+    
+    private static List<String> headerLines(byte[] object) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < object.length; i++) {
+            if (object[i] == '\n') {
+                if (i == start) {
+                    break; // Blank line: the message follows
+                }
+                lines.add(new String(object, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return lines;
+    }
+    
+    /**
+     * Tree entries are "mode name\0" followed by the 20-byte id
+     */
+    private static String findTreeEntry(byte[] tree, String name) {
+        byte[] wanted = name.getBytes(StandardCharsets.UTF_8);
+        int i = 0;
+        while (i < tree.length) {
+            int nameStart = i;
+            while (tree[nameStart] != ' ') {
+                nameStart++;
+            }
+            nameStart++;
+            int nameEnd = nameStart;
+            while (tree[nameEnd] != 0) {
+                nameEnd++;
+            }
+            if (nameEnd - nameStart == wanted.length && regionEquals(tree, nameStart, wanted)) {
+                return hex(tree, nameEnd + 1);
+            }
+            i = nameEnd + 21;
+        }
+        return null;
+    }
+    
+    private static boolean regionEquals(byte[] array, int start, byte[] wanted) {
+        for (int i = 0; i < wanted.length; i++) {
+            if (array[start + i] != wanted[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // ==================== Revisions ====================
+    
+    /**
+     * Commit id a revision names
+     * 
+     * @throws IOException if it names nothing, or is ambiguous
+     */
+    public String resolve(String revision) throws IOException {
+        int suffix = revision.length();
+        for (int i = 0; i < revision.length(); i++) {
+            char c = revision.charAt(i);
+            if (c == '~' || c == '^') {
+                suffix = i;
+                break;
+            }
+        }
+        
+        String id = peelToCommit(resolveName(revision.substring(0, suffix)));
+        int i = suffix;
+        while (i < revision.length()) {
+            char op = revision.charAt(i++);
+            int numberStart = i;
+            while (i < revision.length() && Character.isDigit(revision.charAt(i))) {
+                i++;
+            }
+            if (op != '~' && op != '^') {
+                throw new IOException("Bad revision: " + revision);
+            }
+            int n = i > numberStart ? Integer.parseInt(revision.substring(numberStart, i)) : 1;
+            if (op == '~') {
+                for (int step = 0; step < n; step++) {
+                    id = nthParent(id, 1, revision);
+                }
+            } else if (n > 0) {
+                id = nthParent(id, n, revision);
+            }
+        }
+        return id;
+    }
+    
+    private String nthParent(String id, int n, String revision) throws IOException {
+        List<String> parents = parents(id);
+        if (parents.size() < n) {
+            throw new IOException("Bad revision " + revision + ": " + id + " has no parent " + n);
+        }
+        return parents.get(n - 1);
+    }
+    
+    private String resolveName(String name) throws IOException {
+        if (name.matches("[0-9a-fA-F]{40}")) {
+            return name.toLowerCase(Locale.ROOT);
+        }
+        
+        String[] candidates = name.equals("HEAD") || name.startsWith("refs/")
+            ? new String[] {name}
+            : new String[] {name, "refs/" + name, "refs/tags/" + name, "refs/heads/" + name,
+                            "refs/remotes/" + name, "refs/remotes/" + name + "/HEAD"};
+        for (String ref : candidates) {
+            String id = readRef(ref, 0);
+            if (id != null) {
+                return id;
+            }
+        }
+        
+        if (name.matches("[0-9a-fA-F]{4,39}")) {
+            return expandAbbreviation(name.toLowerCase(Locale.ROOT));
+        }
+        throw new IOException("Unknown revision: " + name);
+    }
+    
+    private String readRef(String ref, int depth) throws IOException {
+        if (depth > 5) {
+            throw new IOException("Symbolic ref loop at " + ref);
+        }
+        Path file = refDir(ref).resolve(ref);
+        if (Files.isRegularFile(file)) {
+            String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+            return content.startsWith("ref: ") ? readRef(content.substring(5).trim(), depth + 1) : content;
+        }
+        
+        Path packedRefs = commonDir.resolve("packed-refs");
+        if (Files.isRegularFile(packedRefs)) {
+            for (String line : Files.readAllLines(packedRefs, StandardCharsets.UTF_8)) {
+                if (line.length() > 41 && line.charAt(40) == ' ' && line.substring(41).equals(ref)) {
+                    return line.substring(0, 40);
+                }
+            }
+        }
+        return null;
+    }
+    
+    private String expandAbbreviation(String prefix) throws IOException {
+        Set<String> matches = new TreeSet<>();
+        Path dir = commonDir.resolve("objects").resolve(prefix.substring(0, 2));
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                files.map(p -> prefix.substring(0, 2) + p.getFileName())
+                     .filter(id -> id.startsWith(prefix))
+                     .forEach(matches::add);
+            }
+        }
+        for (Pack pack : packs) {
+            pack.addMatches(prefix, matches);
+        }
+        
+        if (matches.size() != 1) {
+            throw new IOException((matches.isEmpty() ? "Unknown" : "Ambiguous") + " revision: " + prefix);
+        }
+        return matches.iterator().next();
+    }
+    
+    private String peelToCommit(String id) throws IOException {
+        for (int depth = 0; depth < MAX_PEEL; depth++) {
+            RawObject object = load(id);
+            if (object.type == OBJ_COMMIT) {
+                return id;
+            }
+            if (object.type != OBJ_TAG) {
+                throw new IOException(id + " is a " + TYPE_NAMES[object.type] + ", not a commit");
+            }
+            id = headerLines(object.data).get(0).substring(7); // "object <id>"
+        }
+        throw new IOException("Tag chain too long at " + id);
+    }
+    
+    // ==================== Objects ====================
+    
+    private byte[] readObject(String id, int expectedType) throws IOException {
+        RawObject object = load(id);
+        if (object.type != expectedType) {
+            throw new IOException(id + " is a " + TYPE_NAMES[object.type] + ", not a " + TYPE_NAMES[expectedType]);
+        }
+        return object.data;
+    }
+    
+    private int typeOf(String id) throws IOException {
+        return load(id).type;
+    }
+    
+    private RawObject load(String id) throws IOException {
+        RawObject object = cache.get(id);
+        if (object != null) {
+            return object;
+        }
+        
+        object = readLoose(id);
+        if (object == null) {
+            for (Pack pack : packs) {
+                long offset = pack.offsetOf(id);
+                if (offset >= 0) {
+                    object = pack.read(offset, this);
+                    break;
+                }
+            }
+        }
+        if (object == null) {
+            throw new IOException("Object not found: " + id);
+        }
+        
+        cache.put(id, object);
+        return object;
+    }
+    
+    /**
+     * A loose object is zlib-compressed "type size\0content"
+     */
+    private RawObject readLoose(String id) throws IOException {
+        Path file = commonDir.resolve("objects").resolve(id.substring(0, 2)).resolve(id.substring(2));
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        
+        byte[] raw;
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(file))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            raw = out.toByteArray();
+        }
+        
+        int space = 0;
+        while (space < raw.length && raw[space] != ' ') {
+            space++;
+        }
+        int nul = space;
+        while (nul < raw.length && raw[nul] != 0) {
+            nul++;
+        }
+        if (nul == raw.length) {
+            throw new IOException("Corrupt loose object " + id);
+        }
+        
+        String typeName = new String(raw, 0, space, StandardCharsets.US_ASCII);
+        int type = Arrays.asList(TYPE_NAMES).indexOf(typeName);
+        if (type <= 0) {
+            throw new IOException("Unknown object type " + typeName + " for " + id);
+        }
+        return new RawObject(type, Arrays.copyOfRange(raw, nul + 1, raw.length));
+    }
+    
+    /**
+     * Cache hits and misses so far
+     */
+    public long cacheHits() {
+        return cache.hits.get();
+    }
+    
+    public long cacheMisses() {
+        return cache.misses.get();
+    }
+    
+    private static String hex(byte[] bytes, int offset) {
+        char[] chars = new char[40];
+        for (int i = 0; i < 20; i++) {
+            int b = bytes[offset + i] & 0xFF;
+            chars[2 * i] = Character.forDigit(b >>> 4, 16);
+            chars[2 * i + 1] = Character.forDigit(b & 0xF, 16);
+        }
+        return new String(chars);
+    }
+    
+    private static byte[] unhex(String id) {
+        byte[] bytes = new byte[20];
+        for (int i = 0; i < 20; i++) {
+            bytes[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+    
+    /**
+     * A decoded object: its type and content
+     */
+    private static class RawObject {
+        final int type;
+        final byte[] data;
+        
+        RawObject(int type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+    
+    /**
+     * LRU of decoded objects by id, bounded by their total size
+     */
+    private static class ObjectCache {
+        private final long maxBytes;
+        private final LinkedHashMap<String, RawObject> objects = new LinkedHashMap<>(256, 0.75f, true);
+        private long bytes;
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        
+        ObjectCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+        
+        synchronized RawObject get(String id) {
+            RawObject object = objects.get(id);
+            (object != null ? hits : misses).incrementAndGet();
+            return object;
+        }
+        
+        synchronized void put(String id, RawObject object) {
+            if (object.data.length > maxBytes || objects.containsKey(id)) {
+                return;
+            }
+            objects.put(id, object);
+            bytes += object.data.length;
+            Iterator<RawObject> eldest = objects.values().iterator();
+            while (bytes > maxBytes) {
+                bytes -= eldest.next().data.length;
+                eldest.remove();
+            }
+        }
+    }
+    
+    // ==================== Packfiles ====================
+    
+    /**
+     * One packfile and its index, both memory-mapped
+     */
+    private static class Pack {
+        private final Path packPath;
+        private final ByteBuffer index;
+        private final ByteBuffer pack;
+        private final int version;
+        private final int count;
+        // Index version 2 tables
+        private final int namesStart;
+        private final int offsetsStart;
+        private final int largeOffsetsStart;
+        // Entry offsets in ascending order with their index positions, built on
+        // first use, to find the id of an offset delta's base (offsets fit in
+        // 31 bits as the pack is mapped whole)
+        private volatile long[] sortedOffsets;
+        private volatile int[] sortedPositions;
+        
+        Pack(Path indexPath, Path packPath) throws IOException {
+            this.packPath = packPath;
+            this.index = map(indexPath);
+            this.pack = map(packPath);
+            
+            if (pack.limit() < 12 || pack.getInt(0) != 0x5041434B) { // "PACK"
+                throw new IOException("Not a packfile: " + packPath);
+            }
+            
+            if (index.limit() >= 8 && index.getInt(0) == 0xFF744F63) { // "\377tOc"
+                version = index.getInt(4);
+                if (version != 2) {
+                    throw new IOException("Unsupported pack index version " + version + ": " + indexPath);
+                }
+                count = index.getInt(8 + 255 * 4);
+                namesStart = 8 + 256 * 4;
+                offsetsStart = namesStart + 24 * count; // names, then CRC32s
+                largeOffsetsStart = offsetsStart + 4 * count;
+            } else {
+                version = 1;
+                count = index.getInt(255 * 4);
+                namesStart = 256 * 4;
+                offsetsStart = namesStart;
+                largeOffsetsStart = 0;
+            }
+            if (count < 0 || largeOffsetsStart > index.limit() || namesStart + 24L * count > index.limit()) {
+                throw new IOException("Corrupt pack index: " + indexPath);
+            }
+        }
+        
+        private static ByteBuffer map(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Pack files over 2 GB are not supported: " + path);
+                }
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        
+        private int fanout(int firstByte) {
+            int base = version == 2 ? 8 : 0;
+            return firstByte < 0 ? 0 : index.getInt(base + 4 * firstByte);
+        }
+        
+        private int nameAt(int position) {
+            return version == 2 ? namesStart + 20 * position : namesStart + 24 * position + 4;
+        }
+        
+        private int compareName(int position, byte[] id, int length) {
+            int at = nameAt(position);
+            for (int i = 0; i < length; i++) {
+                int difference = (index.get(at + i) & 0xFF) - (id[i] & 0xFF);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return 0;
+        }
+        
+        long offsetAt(int position) {
+            if (version == 1) {
+                return index.getInt(namesStart + 24 * position) & 0xFFFFFFFFL;
+            }
+            int offset = index.getInt(offsetsStart + 4 * position);
+            if (offset >= 0) {
+                return offset;
+            }
+            return index.getLong(largeOffsetsStart + 8 * (offset & 0x7FFFFFFF));
+        }
+        
+        /**
+         * Offset of an object in the pack, or -1
+         */
+        long offsetOf(String id) {
+            byte[] name = unhex(id);
+            int first = name[0] & 0xFF;
+            int low = fanout(first - 1);
+            int high = fanout(first) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int compare = compareName(mid, name, 20);
+                if (compare == 0) {
+                    return offsetAt(mid);
+                }
+                if (compare < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return -1;
+        }
+        
+        void addMatches(String prefix, Set<String> matches) {
+            byte[] name = unhex((prefix + "0000000000000000000000000000000000000000").substring(0, 40));
+            int first = name[0] & 0xFF;
+            for (int position = fanout(first - 1); position < fanout(first); position++) {
+                String id = idAt(position);
+                if (id.startsWith(prefix)) {
+                    matches.add(id);
+                }
+            }
+        }
+        
+        String idAt(int position) {
+            byte[] name = new byte[20];
+            ByteBuffer view = index.duplicate();
+            view.position(nameAt(position));
+            view.get(name);
+            return hex(name, 0);
+        }
+        
+        /**
+         * Id of the object at an offset, for offset deltas
+         */
+        String idAtOffset(long offset) throws IOException {
+            if (sortedOffsets == null) {
+                synchronized (this) {
+                    if (sortedOffsets == null) {
+                        long[] keyed = new long[count];
+                        for (int position = 0; position < count; position++) {
+                            keyed[position] = offsetAt(position) << 32 | position;
+                        }
+                        Arrays.sort(keyed);
+                        long[] offsets = new long[count];
+                        int[] positions = new int[count];
+                        for (int i = 0; i < count; i++) {
+                            offsets[i] = keyed[i] >>> 32;
+                            positions[i] = (int) keyed[i];
+                        }
+                        sortedPositions = positions;
+                        sortedOffsets = offsets;
+                    }
+                }
+            }
+            int i = Arrays.binarySearch(sortedOffsets, offset);
+            if (i < 0) {
+                throw new IOException("No object at offset " + offset + " in " + packPath);
+            }
+            return idAt(sortedPositions[i]);
+        }
+        
+        /**
+         * Read the object at an offset, applying deltas against their bases
+         */
+        RawObject read(long offset, GitRepository repository) throws IOException {
+            if (offset >= pack.limit()) {
+                throw new IOException("Offset " + offset + " out of range in " + packPath);
+            }
+            int at = (int) offset;
+            
+            // Type and inflated size: 3 type bits, then a little-endian varint
+            int c = pack.get(at++) & 0xFF;
+            int type = (c >>> 4) & 7;
+            long size = c & 0x0F;
+            for (int shift = 4; (c & 0x80) != 0; shift += 7) {
+                c = pack.get(at++) & 0xFF;
+                size |= (long) (c & 0x7F) << shift;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Object too large at offset " + offset + " in " + packPath);
+            }
+            
+            switch (type) {
+                case OBJ_COMMIT:
+                case OBJ_TREE:
+                case OBJ_BLOB:
+                case OBJ_TAG:
+                    return new RawObject(type, inflate(at, (int) size));
+                case OBJ_OFS_DELTA: {
+                    // Base offset, backwards: big-endian varint with an added 1 per continuation
+                    c = pack.get(at++) & 0xFF;
+                    long back = c & 0x7F;
+                    while ((c & 0x80) != 0) {
+                        c = pack.get(at++) & 0xFF;
+                        back = ((back + 1) << 7) | (c & 0x7F);
+                    }
+                    RawObject base = repository.load(idAtOffset(offset - back));
+                    return new RawObject(base.type, applyDelta(base.data, inflate(at, (int) size)));
+                }
+                case OBJ_REF_DELTA: {
+                    byte[] baseName = new byte[20];
+                    for (int i = 0; i < 20; i++) {
+                        baseName[i] = pack.get(at++);
+                    }
+                    RawObject base = repository.load(hex(baseName, 0));
+                    return new RawObject(base.type, applyDelta(base.data, inflate(at, (int) size)));
+                }
+                default:
+                    throw new IOException("Unknown pack object type " + type + " at offset " + offset);
+            }
+        }
+        
+        private byte[] inflate(int at, int size) throws IOException {
+            byte[] out = new byte[size];
+            byte[] input = new byte[8192];
+            ByteBuffer view = pack.duplicate();
+            view.position(at);
+            Inflater inflater = new Inflater();
+            try {
+                int produced = 0;
+                while (produced < size) {
+                    if (inflater.needsInput()) {
+                        int length = Math.min(input.length, view.remaining());
+                        if (length == 0) {
+                            throw new IOException("Truncated object in " + packPath);
+                        }
+                        view.get(input, 0, length);
+                        inflater.setInput(input, 0, length);
+                    }
+                    int n = inflater.inflate(out, produced, size - produced);
+                    if (n == 0 && (inflater.finished() || inflater.needsDictionary())) {
+                        throw new IOException("Object size mismatch in " + packPath);
+                    }
+                    produced += n;
+                }
+                return out;
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt object in " + packPath, e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+    
+    /**
+     * Apply a git delta: source and target sizes as varints, then copy
+     * (from the base) and insert (literal bytes) instructions
+     */
+    static byte[] applyDelta(byte[] base, byte[] delta) throws IOException {
+        int[] at = {0};
+        long sourceSize = deltaVarint(delta, at);
+        long targetSize = deltaVarint(delta, at);
+        if (sourceSize != base.length || targetSize > Integer.MAX_VALUE) {
+            throw new IOException("Delta does not fit its base");
+        }
+        
+        byte[] target = new byte[(int) targetSize];
+        int out = 0;
+        int i = at[0];
+        try {
+            while (i < delta.length) {
+                int command = delta[i++] & 0xFF;
+                if ((command & 0x80) != 0) {
+                    long copyOffset = 0;
+                    for (int b = 0; b < 4; b++) {
+                        if ((command & (1 << b)) != 0) {
+                            copyOffset |= (long) (delta[i++] & 0xFF) << (8 * b);
+                        }
+                    }
+                    int copySize = 0;
+                    for (int b = 0; b < 3; b++) {
+                        if ((command & (0x10 << b)) != 0) {
+                            copySize |= (delta[i++] & 0xFF) << (8 * b);
+                        }
+                    }
+                    if (copySize == 0) {
+                        copySize = 0x10000;
+                    }
+                    System.arraycopy(base, (int) copyOffset, target, out, copySize);
+                    out += copySize;
+                } else if (command != 0) {
+                    System.arraycopy(delta, i, target, out, command);
+                    i += command;
+                    out += command;
+                } else {
+                    throw new IOException("Reserved delta instruction");
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt delta", e);
+        }
+        if (out != target.length) {
+            throw new IOException("Delta produced " + out + " bytes, expected " + target.length);
+        }
+        return target;
+    }
+    
+    private static long deltaVarint(byte[] delta, int[] at) {
+        long value = 0;
+        int shift = 0;
+        int c;
+        do {
+            c = delta[at[0]++] & 0xFF;
+            value |= (long) (c & 0x7F) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return value;
+    }
+    
+    /**
+     * Main method - Command line interface
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java GitRepository <repo> <path> <old_rev> [new_rev]");
+            System.out.println("       java GitRepository <repo> <path> <rev> --history N");
+            System.out.println("\nWith two revisions, prints the mapping of path between them; with");
+            System.out.println("--history, maps path across the last N first-parent commits from rev");
+            return;
+        }
+        
+        try {
+            GitRepository repository = new GitRepository(Paths.get(args[0]));
+            LHDiff lhdiff = new LHDiff();
+            String path = args[1];
+            
+            if (args.length >= 5 && args[3].equals("--history")) {
+                int commits = Integer.parseInt(args[4]);
+                String id = repository.resolve(args[2]);
+                int pairs = 0;
+                long mappings = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < commits; i++) {
+                    List<String> parents = repository.parents(id);
+                    if (parents.isEmpty()) {
+                        break;
+                    }
+                    String parent = parents.get(0);
+                    try {
+                        String oldBlob = repository.blobId(parent, path);
+                        String newBlob = repository.blobId(id, path);
+                        if (!oldBlob.equals(newBlob)) {
+                            MappingResult result = lhdiff.mapLines(repository.readBlob(oldBlob),
+                                                                   repository.readBlob(newBlob), false);
+                            pairs++;
+                            mappings += result.mappings.size();
+                        }
+                    } catch (NoSuchFileException e) {
+                        break; // The file starts here
+                    }
+                    id = parent;
+                }
+                System.out.println(String.format("Mapped %d changed versions of %s (%d mappings) in %.1f ms",
+                                                 pairs, path, mappings, (System.nanoTime() - start) / 1e6));
+                System.out.println(String.format("Object cache: %d hits, %d misses",
+                                                 repository.cacheHits(), repository.cacheMisses()));
+                return;
+            }
+            
+            String newRevision = args.length > 3 ? args[3] : "HEAD";
+            MappingResult result = repository.mapLines(lhdiff, args[2], newRevision, path);
+            ResultWriter.write(result, ResultWriter.Format.TEXT, System.out);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.DiffAnalyzer.DiffResult;
+import com.comp3110.lhdiff.DiffAnalyzer.MatchBlock;
+
+import java.util.*;
+
+/**
+ * Splits a file pair into independent hunks using the unchanged blocks
+ * from Step 2 as anchors. Each hunk is the region between two consecutive
+ * anchors, so Steps 3-5 can run on it without looking at the rest of the file.
+ */
+public class HunkPartitioner {
+    
+    /**
+     * Partition the changed regions of a file pair
+     * 
+     * @param diffResult Result of Step 2 (blocks must be in file order)
+     * @param oldSize Number of lines in old file
+     * @param newSize Number of lines in new file
+     * @return Hunks in file order; every changed line belongs to exactly one hunk
+     */
+    public List<Hunk> partition(DiffResult diffResult, int oldSize, int newSize) {
+        List<Hunk> hunks = new ArrayList<>();
+        int oldPos = 0; // 0-indexed, first line not yet covered
+        int newPos = 0;
+        
+        List<MatchBlock> anchors = new ArrayList<>(diffResult.blocks);
+        anchors.add(new MatchBlock(oldSize, newSize, 0)); // End-of-file sentinel
+        
+        for (MatchBlock anchor : anchors) {
+            if (anchor.oldStart > oldPos || anchor.newStart > newPos) {
+                hunks.add(new Hunk(oldPos + 1, anchor.oldStart, newPos + 1, anchor.newStart));
+            }
+            oldPos = anchor.oldStart + anchor.size;
+            newPos = anchor.newStart + anchor.size;
+        }
+        
+        return hunks;
+    }
+    
+    /**
+     * A changed region between two anchors (1-indexed, inclusive; a side is
+     * empty when its end is before its start)
+     */
+    public static class Hunk {
+        public final int oldStart;
+        public final int oldEnd;
+        public final int newStart;
+        public final int newEnd;
+        
+        public Hunk(int oldStart, int oldEnd, int newStart, int newEnd) {
+            this.oldStart = oldStart;
+            this.oldEnd = oldEnd;
+            this.newStart = newStart;
+            this.newEnd = newEnd;
+        }
+        
+        public int oldSize() {
+            return Math.max(0, oldEnd - oldStart + 1);
+        }
+        
+        public int newSize() {
+            return Math.max(0, newEnd - newStart + 1);
+        }
+        
+        /**
+         * Lines of a pool that fall inside this hunk's old range
+         */
+        public Set<Integer> oldLines(Set<Integer> pool) {
+            return select(pool, oldStart, oldEnd);
+        }
+        
+        /**
+         * Lines of a pool that fall inside this hunk's new range
+         */
+        public Set<Integer> newLines(Set<Integer> pool) {
+            return select(pool, newStart, newEnd);
+        }
+        
+        private static Set<Integer> select(Set<Integer> pool, int start, int end) {
+            Set<Integer> selected = new HashSet<>();
+            for (int line = start; line <= end; line++) {
+                if (pool.contains(line)) {
+                    selected.add(line);
+                }
+            }
+            return selected;
+        }
+        
+        @Override
+        public String toString() {
+            return "old " + oldStart + "-" + oldEnd + ", new " + newStart + "-" + newEnd;
+        }
+    }
+    
+    // Test method
+    public static void main(String[] args) {
+        DiffAnalyzer analyzer = new DiffAnalyzer();
+        HunkPartitioner partitioner = new HunkPartitioner();
+        
+        List<String> oldLines = Arrays.asList("a", "b", "c", "d", "e", "f");
+        List<String> newLines = Arrays.asList("a", "x", "c", "d", "y", "z", "f");
+        
+        DiffResult diff = analyzer.findUnchangedLines(oldLines, newLines);
+        
+        System.out.println("Hunks:");
+        for (Hunk hunk : partitioner.partition(diff, oldLines.size(), newLines.size())) {
+            System.out.println("  " + hunk);
+        }
+        System.out.println();
+        System.out.println("Expected: old 2-2 / new 2-2 and old 5-5 / new 5-6");
+    }
+}
\ No newline at end of file
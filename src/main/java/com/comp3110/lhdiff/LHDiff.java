@@ -1,191 +1,791 @@
 package com.comp3110.lhdiff;
 
 import com.comp3110.lhdiff.DiffAnalyzer.DiffResult;
+import com.comp3110.lhdiff.HunkPartitioner.Hunk;
 import com.comp3110.lhdiff.Preprocessor.FileLines;
-import com.comp3110.lhdiff.SimHashGenerator.LineFeatures;
+import com.comp3110.lhdiff.SimHashGenerator.Search;
+import com.comp3110.lhdiff.StageStats.Stage;
+import com.comp3110.lhdiff.StrategySelector.Strategy;
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Main LHDiff Module
- * Integrates all 5 steps into a complete line mapping pipeline
+ * Integrates all 5 steps into a complete line mapping pipeline.
+ * 
+ * An LHDiff is thread-safe: its configuration and stage objects are fixed at
+ * construction and hold no per-mapping state, so one instance can serve any
+ * number of threads at once. Each mapping keeps its state on the stack and in
+ * its own MappingResult; reusable buffers (DP rows, token hashes, candidate
+ * keys) come from the calling thread's Scratch.
  */
 public class LHDiff {
     
+    private final EngineConfig config;
     private final Preprocessor preprocessor;
     private final DiffAnalyzer diffAnalyzer;
+    private final ExactMoveMatcher exactMoveMatcher;
     private final SimHashGenerator simHashGenerator;
     private final ConflictResolver conflictResolver;
     private final LineSplitDetector splitDetector;
+    private final HunkPartitioner hunkPartitioner;
+    private final StrategySelector strategySelector;
+    private final Executor executor;
     
     public LHDiff() {
-        this(15, 0.5, 0.05);
+        this(EngineConfig.defaults());
     }
     
     public LHDiff(int kCandidates, double similarityThreshold, double splitThreshold) {
+        this(EngineConfig.builder()
+                .kCandidates(kCandidates)
+                .similarityThreshold(similarityThreshold)
+                .splitThreshold(splitThreshold)
+                .build());
+    }
+    
+    public LHDiff(EngineConfig config) {
+        this.config = config;
         this.preprocessor = new Preprocessor();
         this.diffAnalyzer = new DiffAnalyzer();
-        this.simHashGenerator = new SimHashGenerator(kCandidates);
-        this.conflictResolver = new ConflictResolver(similarityThreshold);
-        this.splitDetector = new LineSplitDetector(splitThreshold);
+        this.exactMoveMatcher = new ExactMoveMatcher(config.exactMoveContextCheck);
+        this.simHashGenerator = config.adaptiveCandidates
+            ? new SimHashGenerator(config.kCandidates, config.minCandidates,
+                                   config.candidateScoreGap, config.candidateMinScore)
+            : new SimHashGenerator(config.kCandidates);
+        this.conflictResolver = new ConflictResolver(config.similarityThreshold);
+        this.splitDetector = new LineSplitDetector(config.splitThreshold);
+        this.hunkPartitioner = new HunkPartitioner();
+        this.strategySelector = new StrategySelector(config);
+        this.executor = config.executor != null ? config.executor : defaultExecutor();
+    }
+    
+    public EngineConfig getConfig() {
+        return config;
+    }
+    
+    /**
+     * The common pool, unless it has a single worker: CompletableFuture then
+     * spawns one thread per task, so running inline is cheaper
+     */
+    private static Executor defaultExecutor() {
+        if (ForkJoinPool.getCommonPoolParallelism() > 1) {
+            return ForkJoinPool.commonPool();
+        }
+        return Runnable::run;
     }
     
     /**
      * Main pipeline to map lines between two file versions
      */
     public MappingResult mapLines(String oldFile, String newFile, boolean verbose) throws IOException {
+        return mapLines(oldFile, newFile, verbose, CancellationToken.NONE);
+    }
+    
+    /**
+     * Main pipeline with cooperative cancellation: once the token is cancelled
+     * or its deadline passes, the stages still running stop early and the
+     * result holds whatever finished, marked partial
+     */
+    public MappingResult mapLines(String oldFile, String newFile, boolean verbose,
+                                  CancellationToken token) throws IOException {
+        long readStart = System.nanoTime();
+        List<String> oldLines = Files.readAllLines(Paths.get(oldFile));
+        List<String> newLines = Files.readAllLines(Paths.get(newFile));
+        
+        return preprocessAndMap(oldLines, newLines, null, verbose, System.nanoTime() - readStart, token,
+                                oldFile, newFile);
+    }
+    
+    /**
+     * Map lines between two versions held in memory as lists of lines
+     */
+    public MappingResult mapLines(List<String> oldLines, List<String> newLines, boolean verbose) {
+        return mapLines(oldLines, newLines, verbose, CancellationToken.NONE);
+    }
+    
+    public MappingResult mapLines(List<String> oldLines, List<String> newLines, boolean verbose,
+                                  CancellationToken token) {
+        return preprocessAndMap(oldLines, newLines, null, verbose, 0, token, null, null);
+    }
+    
+    /**
+     * Map lines between two versions held in memory as text
+     * (named differently from mapLines(String, String, ...), which takes file paths)
+     */
+    public MappingResult mapText(CharSequence oldText, CharSequence newText, boolean verbose) {
+        return mapText(oldText, newText, verbose, CancellationToken.NONE);
+    }
+    
+    public MappingResult mapText(CharSequence oldText, CharSequence newText, boolean verbose,
+                                 CancellationToken token) {
+        long splitStart = System.nanoTime();
+        List<String> oldLines = Preprocessor.splitLines(oldText);
+        List<String> newLines = Preprocessor.splitLines(newText);
+        
+        return preprocessAndMap(oldLines, newLines, null, verbose, System.nanoTime() - splitStart, token,
+                                null, null);
+    }
+    
+    /**
+     * Map lines between two UTF-8 encoded versions held in memory
+     */
+    public MappingResult mapLines(byte[] oldContent, byte[] newContent, boolean verbose) {
+        return mapLines(oldContent, newContent, verbose, CancellationToken.NONE);
+    }
+    
+    public MappingResult mapLines(byte[] oldContent, byte[] newContent, boolean verbose,
+                                  CancellationToken token) {
+        long decodeStart = System.nanoTime();
+        List<String> oldLines = Preprocessor.splitLines(new String(oldContent, StandardCharsets.UTF_8));
+        List<String> newLines = Preprocessor.splitLines(new String(newContent, StandardCharsets.UTF_8));
+        
+        return preprocessAndMap(oldLines, newLines, null, verbose, System.nanoTime() - decodeStart, token,
+                                null, null);
+    }
+    
+    /**
+     * Map lines between two UTF-8 encoded streams; the streams are not closed
+     */
+    public MappingResult mapLines(InputStream oldIn, InputStream newIn, boolean verbose) throws IOException {
+        return mapLines(oldIn, newIn, verbose, CancellationToken.NONE);
+    }
+    
+    public MappingResult mapLines(InputStream oldIn, InputStream newIn, boolean verbose,
+                                  CancellationToken token) throws IOException {
+        long readStart = System.nanoTime();
+        List<String> oldLines = Preprocessor.readLines(oldIn, StandardCharsets.UTF_8);
+        List<String> newLines = Preprocessor.readLines(newIn, StandardCharsets.UTF_8);
+        
+        return preprocessAndMap(oldLines, newLines, null, verbose, System.nanoTime() - readStart, token,
+                                null, null);
+    }
+    
+    /**
+     * Map two UTF-8 files whose lines are kept in off-heap storage (see
+     * OffHeapStore): Step 1 streams both files into the store, so only the
+     * changed lines' working data and the result live on the heap. The
+     * store must stay open until the mapping returns and may be closed
+     * right after; the result holds only line numbers.
+     */
+    public MappingResult mapLines(Path oldFile, Path newFile, OffHeapStore store, boolean verbose)
+            throws IOException {
+        return mapLines(oldFile, newFile, store, verbose, CancellationToken.NONE);
+    }
+    
+    public MappingResult mapLines(Path oldFile, Path newFile, OffHeapStore store, boolean verbose,
+                                  CancellationToken token) throws IOException {
         if (verbose) {
-            System.out.println("============================================================");
-            System.out.println("LHDiff: Line Mapping Pipeline");
-            System.out.println("============================================================");
+            printHeader();
+            System.out.println("\nStep 1: Preprocessing (off-heap)...");
+        }
+        
+        StageStats stats = StageStats.forPair(oldFile.toString(), newFile.toString());
+        long stageStart = System.nanoTime();
+        FileLines oldFileLines;
+        FileLines newFileLines;
+        try (InputStream oldIn = Files.newInputStream(oldFile);
+             InputStream newIn = Files.newInputStream(newFile)) {
+            oldFileLines = preprocessor.preprocessStream(oldIn, StandardCharsets.UTF_8, store);
+            newFileLines = preprocessor.preprocessStream(newIn, StandardCharsets.UTF_8, store);
+        }
+        stats.record(Stage.PREPROCESS, System.nanoTime() - stageStart);
+        
+        if (verbose) {
+            System.out.println("  Old file: " + oldFileLines.size() + " lines");
+            System.out.println("  New file: " + newFileLines.size() + " lines");
+            System.out.println(String.format("  Off-heap: %.1f MB", store.allocatedBytes() / 1048576.0));
+        }
+        
+        return mapPreprocessed(oldFileLines, newFileLines, null, verbose, stats, token);
+    }
+    
+    /**
+     * Map an old version to the version a unified diff turns it into. Step 2
+     * is taken from the diff's hunks instead of recomputed, so past Step 1
+     * the cost follows the size of the change.
+     * 
+     * @throws IllegalArgumentException if the diff is malformed or does not apply
+     */
+    public MappingResult mapPatch(List<String> oldLines, List<String> patch, boolean verbose) {
+        return mapPatch(oldLines, patch, verbose, CancellationToken.NONE);
+    }
+    
+    public MappingResult mapPatch(List<String> oldLines, List<String> patch, boolean verbose,
+                                  CancellationToken token) {
+        long parseStart = System.nanoTime();
+        UnifiedDiff diff = UnifiedDiff.parse(patch);
+        List<String> newLines = diff.applyTo(oldLines);
+        
+        return preprocessAndMap(oldLines, newLines, diff, verbose, System.nanoTime() - parseStart, token,
+                                null, null);
+    }
+    
+    public MappingResult mapPatch(String oldFile, String patchFile, boolean verbose) throws IOException {
+        return mapPatch(Files.readAllLines(Paths.get(oldFile)), Files.readAllLines(Paths.get(patchFile)), verbose);
+    }
+    
+    /**
+     * Step 1 on in-memory lines, then Steps 2-5
+     * 
+     * @param patch Unified diff Step 2 is taken from, or null to compute it
+     * @param loadNanos Time already spent reading or decoding the input, counted as Step 1
+     * @param oldSource File the old lines came from, or null; only for Flight Recorder events
+     */
+    private MappingResult preprocessAndMap(List<String> oldLines, List<String> newLines, UnifiedDiff patch,
+                                           boolean verbose, long loadNanos, CancellationToken token,
+                                           String oldSource, String newSource) {
+        if (verbose) {
+            printHeader();
         }
         
+        StageStats stats = StageStats.forPair(oldSource, newSource);
+        
         // Step 1: Preprocessing
         if (verbose) {
             System.out.println("\nStep 1: Preprocessing...");
         }
         
-        FileLines oldFileLines = preprocessor.preprocessFile(oldFile);
-        FileLines newFileLines = preprocessor.preprocessFile(newFile);
+        // The two sides are independent: the old side goes to the executor
+        // while this thread preprocesses the new side
+        long stageStart = System.nanoTime();
+        FileLines oldFileLines;
+        FileLines newFileLines;
+        try {
+            CompletableFuture<FileLines> oldFuture = CompletableFuture.supplyAsync(
+                () -> preprocessor.preprocessLines(oldLines, token), executor);
+            newFileLines = preprocessor.preprocessLines(newLines, token);
+            oldFileLines = join(oldFuture);
+        } catch (CancellationToken.Cancelled e) {
+            stats.record(Stage.PREPROCESS, loadNanos + System.nanoTime() - stageStart);
+            if (verbose) {
+                System.out.println("  Cancelled");
+            }
+            return unmappedResult(oldLines.size(), newLines.size(), stats,
+                                  new Strategy(null, null, false, Collections.singletonList("Cancelled during Step 1")));
+        }
+        stats.record(Stage.PREPROCESS, loadNanos + System.nanoTime() - stageStart);
         
         if (verbose) {
             System.out.println("  Old file: " + oldFileLines.size() + " lines");
             System.out.println("  New file: " + newFileLines.size() + " lines");
         }
         
+        return mapPreprocessed(oldFileLines, newFileLines, patch, verbose, stats, token);
+    }
+    
+    /**
+     * Map lines between two versions that are already preprocessed (Steps 2-5)
+     */
+    public MappingResult mapLines(FileLines oldFileLines, FileLines newFileLines, boolean verbose) {
+        return mapLines(oldFileLines, newFileLines, verbose, CancellationToken.NONE);
+    }
+    
+    public MappingResult mapLines(FileLines oldFileLines, FileLines newFileLines, boolean verbose,
+                                  CancellationToken token) {
+        if (verbose) {
+            printHeader();
+        }
+        
+        return mapPreprocessed(oldFileLines, newFileLines, null, verbose, StageStats.forPair(null, null), token);
+    }
+    
+    private void printHeader() {
+        System.out.println("============================================================");
+        System.out.println("LHDiff: Line Mapping Pipeline");
+        System.out.println("============================================================");
+    }
+    
+    private MappingResult mapPreprocessed(FileLines oldFileLines, FileLines newFileLines, UnifiedDiff patch,
+                                          boolean verbose, StageStats stats, CancellationToken token) {
         // Step 2: Detect unchanged lines
         if (verbose) {
             System.out.println("\nStep 2: Detecting unchanged lines...");
         }
         
-        DiffResult diffResult = diffAnalyzer.findUnchangedLines(
-            oldFileLines.getNormalizedLines(),
-            newFileLines.getNormalizedLines()
-        );
+        long stageStart = System.nanoTime();
+        List<String> reasons = new ArrayList<>();
+        DiffAnalyzer.Algorithm algorithm = null;
+        DiffResult diffResult;
+        if (patch != null) {
+            diffResult = patch.toDiffResult(oldFileLines.size(), newFileLines.size());
+            reasons.add("Step 2: from " + patch.hunks.size() + " unified diff hunks");
+        } else {
+            algorithm = strategySelector.chooseDiffAlgorithm(
+                oldFileLines.getNormalizedLines(),
+                newFileLines.getNormalizedLines(),
+                reasons
+            );
+            try {
+                diffResult = diffAnalyzer.findUnchangedLines(
+                    oldFileLines.getNormalizedLines(),
+                    newFileLines.getNormalizedLines(),
+                    algorithm,
+                    token
+                );
+            } catch (CancellationToken.Cancelled e) {
+                // Nothing usable before Step 2 finishes: every line is unmapped
+                stats.record(Stage.UNCHANGED, System.nanoTime() - stageStart);
+                reasons.add("Cancelled during Step 2");
+                if (verbose) {
+                    System.out.println("  Cancelled");
+                }
+                return unmappedResult(oldFileLines.size(), newFileLines.size(), stats,
+                                      new Strategy(algorithm, null, false, reasons));
+            }
+        }
+        stats.record(Stage.UNCHANGED, System.nanoTime() - stageStart);
         
         if (verbose) {
+            System.out.println("  Algorithm: " + (patch != null ? "unified diff" : algorithm));
             System.out.println("  Unchanged: " + diffResult.unchangedMappings.size() + " lines");
             System.out.println("  Changed in old: " + diffResult.oldChanged.size() + " lines");
             System.out.println("  Changed in new: " + diffResult.newChanged.size() + " lines");
         }
         
-        // Step 3: Generate candidates using SimHash
-        if (verbose) {
-            System.out.println("\nStep 3: Generating candidates with SimHash...");
-        }
-        
-        Map<Integer, LineFeatures> leftFeatures = simHashGenerator.computeLineFeatures(
-            oldFileLines.getOriginalLines(),
-            diffResult.oldChanged
-        );
+        // Step 3 hashing only needs the changed lines and their original text,
+        // so both sides start now and overlap Step 2b and strategy selection
+        CompletableFuture<FeatureTable> oldFeatures =
+            computeFeaturesAsync(oldFileLines, diffResult.oldChanged, stats, token);
+        CompletableFuture<FeatureTable> newFeatures =
+            computeFeaturesAsync(newFileLines, diffResult.newChanged, stats, token);
         
-        Map<Integer, LineFeatures> rightFeatures = simHashGenerator.computeLineFeatures(
-            newFileLines.getOriginalLines(),
-            diffResult.newChanged
-        );
+        // Step 2b: Map changed lines that moved without modification
+        Map<Integer, Integer> exactMoves = new HashMap<>();
+        Set<Integer> oldRemaining = diffResult.oldChanged;
+        Set<Integer> newRemaining = diffResult.newChanged;
         
-        Map<Integer, List<Integer>> candidates = simHashGenerator.generateCandidates(
-            leftFeatures, rightFeatures
-        );
+        if (config.exactMoves && !token.isCancelled()) {
+            if (verbose) {
+                System.out.println("\nStep 2b: Detecting exact moves...");
+            }
+            
+            stageStart = System.nanoTime();
+            exactMoves = exactMoveMatcher.findExactMoves(
+                oldFileLines.getNormalizedLines(),
+                newFileLines.getNormalizedLines(),
+                diffResult.oldChanged,
+                diffResult.newChanged
+            );
+            
+            oldRemaining = new HashSet<>(diffResult.oldChanged);
+            oldRemaining.removeAll(exactMoves.keySet());
+            newRemaining = new HashSet<>(diffResult.newChanged);
+            newRemaining.removeAll(exactMoves.values());
+            stats.record(Stage.EXACT_MOVES, System.nanoTime() - stageStart);
+            stats.increment("exact moves", exactMoves.size());
+            
+            if (verbose) {
+                System.out.println("  Moved unchanged: " + exactMoves.size() + " lines");
+            }
+        }
         
-        if (verbose) {
-            System.out.println("  Generated candidates for " + candidates.size() + " lines");
+        // Size Steps 3 and 5 to the latency target (or, in latency mode, what is left of it) and deadline
+        long budget = strategySelector.budgetNanos(stats.getTotalNanos(), token, reasons);
+        Search search = strategySelector.chooseCandidateSearch(
+            oldRemaining.size(), newRemaining.size(), budget, reasons);
+        boolean detectSplits = strategySelector.chooseSplitDetection(
+            oldRemaining.size(), newRemaining.size(), budget, reasons);
+        
+        // Steps 3-5, either on all changed lines at once or hunk by hunk
+        ChangeMatch match;
+        if (token.isCancelled()) {
+            match = new ChangeMatch(new HashMap<>(), new HashMap<>(), 0);
+        } else {
+            Features features = new Features(join(oldFeatures), join(newFeatures));
+            if (config.hunkPartitioning) {
+                match = matchHunks(oldFileLines, newFileLines, diffResult, oldRemaining, newRemaining,
+                                   features, search, detectSplits, verbose, stats, token);
+            } else {
+                match = matchChanged(oldFileLines, newFileLines, oldRemaining, newRemaining,
+                                     features, search, detectSplits, stats, token);
+            }
         }
         
-        // Step 4: Resolve conflicts
-        if (verbose) {
-            System.out.println("\nStep 4: Resolving conflicts...");
+        // Stages stop early on cancellation, so whatever they returned is partial
+        boolean partial = token.isCancelled();
+        if (partial) {
+            reasons.add("Cancelled before Steps 3-5 completed");
         }
+        Strategy strategy = new Strategy(algorithm, search, detectSplits, reasons);
         
-        Map<Integer, Integer> resolvedMappings = conflictResolver.resolveMappings(
-            oldFileLines.getOriginalLines(),
-            newFileLines.getOriginalLines(),
-            candidates
-        );
+        Map<Integer, Integer> resolvedMappings = new HashMap<>(exactMoves);
+        resolvedMappings.putAll(match.resolved);
+        Map<Integer, List<Integer>> splitMappings = match.splits;
         
         if (verbose) {
+            System.out.println("\nStep 3: Generating candidates with SimHash (" + search + ")...");
+            System.out.println("  Generated candidates for " + match.candidateLines + " lines");
+            System.out.println("\nStep 4: Resolving conflicts...");
             System.out.println("  Resolved: " + resolvedMappings.size() + " mappings");
+            System.out.println("\nStep 5: Detecting line splits...");
+            System.out.println(detectSplits
+                ? "  Detected: " + splitMappings.size() + " line splits"
+                : "  Skipped");
         }
         
         // Combine unchanged and resolved mappings
         Map<Integer, Integer> allMappings = new HashMap<>(diffResult.unchangedMappings);
         allMappings.putAll(resolvedMappings);
         
-        // Step 5: Detect line splits
-        if (verbose) {
-            System.out.println("\nStep 5: Detecting line splits...");
-        }
-        
-        // Find still unmapped lines
+        // Whatever is left is unmapped
         Set<Integer> unmappedOld = new HashSet<>(diffResult.oldChanged);
         unmappedOld.removeAll(resolvedMappings.keySet());
+        unmappedOld.removeAll(splitMappings.keySet());
         
         Set<Integer> unmappedNew = new HashSet<>(diffResult.newChanged);
         unmappedNew.removeAll(resolvedMappings.values());
-        
-        Map<Integer, List<Integer>> splitMappings = splitDetector.detectSplits(
-            oldFileLines.getOriginalLines(),
-            newFileLines.getOriginalLines(),
-            unmappedOld,
-            unmappedNew
-        );
-        
-        if (verbose) {
-            System.out.println("  Detected: " + splitMappings.size() + " line splits");
-        }
-        
-        // Update unmapped sets
-        unmappedOld.removeAll(splitMappings.keySet());
         for (List<Integer> splits : splitMappings.values()) {
             unmappedNew.removeAll(splits);
         }
         
         if (verbose) {
             System.out.println("\n============================================================");
-            System.out.println("Mapping Complete!");
+            System.out.println(partial ? "Mapping Cancelled (partial result)" : "Mapping Complete!");
             System.out.println("============================================================");
         }
         
+        stats.finish(oldFileLines.size(), newFileLines.size(), partial, config.latencyTargetMillis);
         return new MappingResult(
             allMappings,
             splitMappings,
             diffResult.unchangedMappings,
             resolvedMappings,
             unmappedOld,
-            unmappedNew
+            unmappedNew,
+            stats,
+            strategy,
+            partial
         );
     }
     
     /**
-     * Format results in required output format
+     * Partial result with every line unmapped, for a mapping cancelled before Step 2 finished
      */
-    public String formatOutput(MappingResult result) {
-        StringBuilder output = new StringBuilder();
+    private MappingResult unmappedResult(int oldSize, int newSize, StageStats stats, Strategy strategy) {
+        Set<Integer> unmappedOld = new HashSet<>();
+        for (int i = 1; i <= oldSize; i++) {
+            unmappedOld.add(i);
+        }
+        Set<Integer> unmappedNew = new HashSet<>();
+        for (int i = 1; i <= newSize; i++) {
+            unmappedNew.add(i);
+        }
+        
+        stats.finish(oldSize, newSize, true, config.latencyTargetMillis);
+        return new MappingResult(new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>(),
+                                 unmappedOld, unmappedNew, stats, strategy, true);
+    }
+    
+    /**
+     * Run Steps 3-5 independently inside each anchor-bounded hunk, in parallel,
+     * then optionally give the leftovers of all hunks one global Steps 3-4 pass
+     * so long-distance moves can still be found
+     */
+    private ChangeMatch matchHunks(FileLines oldFileLines, FileLines newFileLines, DiffResult diffResult,
+                                   Set<Integer> oldPool, Set<Integer> newPool, Features features,
+                                   Search search, boolean detectSplits,
+                                   boolean verbose, StageStats stats, CancellationToken token) {
+        List<Hunk> hunks = hunkPartitioner.partition(diffResult, oldFileLines.size(), newFileLines.size());
+        
+        List<CompletableFuture<ChangeMatch>> futures = new ArrayList<>();
+        for (Hunk hunk : hunks) {
+            Set<Integer> hunkOld = hunk.oldLines(oldPool);
+            Set<Integer> hunkNew = hunk.newLines(newPool);
+            
+            // One-sided hunks are pure inserts or deletes; only the global pass can match them
+            if (hunkOld.isEmpty() || hunkNew.isEmpty()) {
+                continue;
+            }
+            
+            futures.add(CompletableFuture.supplyAsync(
+                () -> matchChanged(oldFileLines, newFileLines, hunkOld, hunkNew,
+                                   features, search, detectSplits, stats, token),
+                executor
+            ));
+        }
+        
+        ChangeMatch merged = new ChangeMatch(new HashMap<>(), new HashMap<>(), 0);
+        for (CompletableFuture<ChangeMatch> future : futures) {
+            merged.addAll(future.join());
+        }
+        
+        stats.increment("hunks", hunks.size());
+        if (verbose) {
+            System.out.println("\nPartitioned into " + hunks.size() + " hunks (" + futures.size() + " two-sided)");
+        }
+        
+        if (config.globalPass && !token.isCancelled()) {
+            Set<Integer> leftoverOld = new HashSet<>(oldPool);
+            leftoverOld.removeAll(merged.resolved.keySet());
+            leftoverOld.removeAll(merged.splits.keySet());
+            
+            Set<Integer> leftoverNew = new HashSet<>(newPool);
+            leftoverNew.removeAll(merged.resolved.values());
+            for (List<Integer> splits : merged.splits.values()) {
+                leftoverNew.removeAll(splits);
+            }
+            
+            if (!leftoverOld.isEmpty() && !leftoverNew.isEmpty()) {
+                merged.addAll(matchChanged(oldFileLines, newFileLines, leftoverOld, leftoverNew,
+                                           features, search, false, stats, token));
+            }
+        }
         
-        // Sort by old line number and format 1-to-1 mappings
-        List<Integer> sortedKeys = new ArrayList<>(result.mappings.keySet());
-        Collections.sort(sortedKeys);
+        return merged;
+    }
+    
+    /**
+     * Steps 3-5 on one pool of changed lines
+     * 
+     * @param oldPool Changed old line numbers still to be mapped (1-indexed)
+     * @param newPool Changed new line numbers still to be mapped (1-indexed)
+     * @param features Step 3 features of (at least) every line in the pools
+     * @param search How Step 3 looks for candidates
+     * @param detectSplits Whether to run Step 5 on what Step 4 leaves unmapped
+     */
+    private ChangeMatch matchChanged(FileLines oldFileLines, FileLines newFileLines,
+                                     Set<Integer> oldPool, Set<Integer> newPool, Features features,
+                                     Search search, boolean detectSplits, StageStats stats,
+                                     CancellationToken token) {
+        // Step 3: Generate candidates using SimHash
+        long stageStart = System.nanoTime();
+        FeatureTable leftFeatures = features.oldSide.select(oldPool);
+        FeatureTable rightFeatures = features.newSide.select(newPool);
+        
+        Map<Integer, List<Integer>> candidates = search == Search.LSH
+            ? simHashGenerator.generateCandidatesLsh(leftFeatures, rightFeatures, token)
+            : simHashGenerator.generateCandidates(leftFeatures, rightFeatures, token);
+        stats.record(Stage.CANDIDATES, System.nanoTime() - stageStart);
+        long candidatePairs = 0;
+        for (List<Integer> lineCandidates : candidates.values()) {
+            candidatePairs += lineCandidates.size();
+        }
+        stats.increment("candidate lines", candidates.size());
+        stats.increment("candidate pairs", candidatePairs);
         
-        for (int oldLine : sortedKeys) {
-            int newLine = result.mappings.get(oldLine);
-            output.append(oldLine).append("-").append(newLine).append("\n");
+        // Step 4: Resolve conflicts
+        stageStart = System.nanoTime();
+        Map<Integer, Integer> resolvedMappings = conflictResolver.resolveMappings(
+            oldFileLines.getOriginalLines(),
+            newFileLines.getOriginalLines(),
+            candidates,
+            leftFeatures,
+            rightFeatures,
+            token,
+            stats
+        );
+        stats.record(Stage.RESOLVE, System.nanoTime() - stageStart);
+        
+        // Step 5: Detect line splits among still unmapped lines
+        Map<Integer, List<Integer>> splitMappings = new HashMap<>();
+        if (detectSplits && !token.isCancelled()) {
+            stageStart = System.nanoTime();
+            Set<Integer> unmappedOld = new HashSet<>(oldPool);
+            unmappedOld.removeAll(resolvedMappings.keySet());
+            
+            Set<Integer> unmappedNew = new HashSet<>(newPool);
+            unmappedNew.removeAll(resolvedMappings.values());
+            
+            splitMappings = splitDetector.detectSplits(
+                oldFileLines.getOriginalLines(),
+                newFileLines.getOriginalLines(),
+                unmappedOld,
+                unmappedNew,
+                token,
+                stats
+            );
+            stats.record(Stage.SPLITS, System.nanoTime() - stageStart);
+        }
+        
+        return new ChangeMatch(resolvedMappings, splitMappings, candidates.size());
+    }
+    
+    /**
+     * Hash Step 3 features for one side on the executor, counting the time
+     * towards Step 3
+     */
+    private CompletableFuture<FeatureTable> computeFeaturesAsync(FileLines fileLines, Set<Integer> lineNumbers,
+                                                              StageStats stats, CancellationToken token) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            FeatureTable features = simHashGenerator.computeFeatureTable(
+                fileLines.getOriginalLines(),
+                lineNumbers,
+                token
+            );
+            stats.record(Stage.CANDIDATES, System.nanoTime() - start);
+            return features;
+        }, executor);
+    }
+    
+    // ==================== Incremental remapping (MappingSession) ====================
+    
+    FileLines preprocess(List<String> lines) {
+        return preprocessor.preprocessLines(lines);
+    }
+    
+    FeatureTable computeFeatures(FileLines fileLines, Set<Integer> lineNumbers) {
+        return simHashGenerator.computeFeatureTable(fileLines.getOriginalLines(), lineNumbers, CancellationToken.NONE);
+    }
+    
+    /**
+     * Steps 2-5 confined to one region: Step 2 diffs only the region's lines,
+     * Steps 2b-5 see only the region's changed lines, hashed and compared in
+     * the context of the whole files
+     * 
+     * @param oldFeatures Step 3 features of (at least) every old line of the region
+     * @param oldFrom First old line of the region (1-indexed); oldTo is the last
+     * @return The region's mappings in whole-file line numbers, with its
+     *         lines left unmapped
+     */
+    MappingResult mapRegion(FileLines oldFileLines, FileLines newFileLines, FeatureTable oldFeatures,
+                            int oldFrom, int oldTo, int newFrom, int newTo) {
+        StageStats stats = new StageStats();
+        List<String> reasons = new ArrayList<>();
+        
+        // Step 2 on the region alone, shifted back to whole-file line numbers
+        long stageStart = System.nanoTime();
+        List<String> oldRegion = oldFileLines.getNormalizedLines().subList(oldFrom - 1, oldTo);
+        List<String> newRegion = newFileLines.getNormalizedLines().subList(newFrom - 1, newTo);
+        DiffAnalyzer.Algorithm algorithm = strategySelector.chooseDiffAlgorithm(oldRegion, newRegion, reasons);
+        DiffResult regionDiff = diffAnalyzer.findUnchangedLines(oldRegion, newRegion, algorithm,
+                                                                CancellationToken.NONE);
+        
+        Map<Integer, Integer> unchanged = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : regionDiff.unchangedMappings.entrySet()) {
+            unchanged.put(entry.getKey() + oldFrom - 1, entry.getValue() + newFrom - 1);
+        }
+        Set<Integer> oldChanged = new HashSet<>();
+        for (int line : regionDiff.oldChanged) {
+            oldChanged.add(line + oldFrom - 1);
         }
+        Set<Integer> newChanged = new HashSet<>();
+        for (int line : regionDiff.newChanged) {
+            newChanged.add(line + newFrom - 1);
+        }
+        stats.record(Stage.UNCHANGED, System.nanoTime() - stageStart);
+        
+        // Step 2b
+        Map<Integer, Integer> resolved = new HashMap<>();
+        if (config.exactMoves) {
+            stageStart = System.nanoTime();
+            resolved.putAll(exactMoveMatcher.findExactMoves(oldFileLines.getNormalizedLines(),
+                                                            newFileLines.getNormalizedLines(),
+                                                            oldChanged, newChanged));
+            stats.record(Stage.EXACT_MOVES, System.nanoTime() - stageStart);
+        }
+        Set<Integer> oldRemaining = new HashSet<>(oldChanged);
+        oldRemaining.removeAll(resolved.keySet());
+        Set<Integer> newRemaining = new HashSet<>(newChanged);
+        newRemaining.removeAll(resolved.values());
+        
+        // Steps 3-5
+        Map<Integer, List<Integer>> splits = new HashMap<>();
+        Search search = null;
+        boolean detectSplits = false;
+        if (!oldRemaining.isEmpty() && !newRemaining.isEmpty()) {
+            stageStart = System.nanoTime();
+            FeatureTable newFeatures = computeFeatures(newFileLines, newRemaining);
+            stats.record(Stage.CANDIDATES, System.nanoTime() - stageStart);
+            
+            long budget = strategySelector.budgetNanos(stats.getTotalNanos(), CancellationToken.NONE, reasons);
+            search = strategySelector.chooseCandidateSearch(
+                oldRemaining.size(), newRemaining.size(), budget, reasons);
+            detectSplits = strategySelector.chooseSplitDetection(
+                oldRemaining.size(), newRemaining.size(), budget, reasons);
+            
+            ChangeMatch match = matchChanged(oldFileLines, newFileLines, oldRemaining, newRemaining,
+                                             new Features(oldFeatures, newFeatures), search, detectSplits,
+                                             stats, CancellationToken.NONE);
+            resolved.putAll(match.resolved);
+            splits = match.splits;
+        }
+        
+        Map<Integer, Integer> mappings = new HashMap<>(unchanged);
+        mappings.putAll(resolved);
         
-        // Add split mappings
-        List<Integer> sortedSplitKeys = new ArrayList<>(result.splits.keySet());
-        Collections.sort(sortedSplitKeys);
+        Set<Integer> unmappedOld = new HashSet<>(oldChanged);
+        unmappedOld.removeAll(resolved.keySet());
+        unmappedOld.removeAll(splits.keySet());
+        Set<Integer> unmappedNew = new HashSet<>(newChanged);
+        unmappedNew.removeAll(resolved.values());
+        for (List<Integer> lines : splits.values()) {
+            unmappedNew.removeAll(lines);
+        }
         
-        for (int oldLine : sortedSplitKeys) {
-            List<Integer> newLines = result.splits.get(oldLine);
-            output.append(oldLine).append("-[");
-            for (int i = 0; i < newLines.size(); i++) {
-                if (i > 0) output.append(",");
-                output.append(newLines.get(i));
+        return new MappingResult(mappings, splits, unchanged, resolved, unmappedOld, unmappedNew, stats,
+                                 new Strategy(algorithm, search, detectSplits, reasons), false);
+    }
+    
+    /**
+     * Wait for a stage running on the executor, rethrowing what it threw
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-            output.append("]\n");
+            throw e;
         }
+    }
+    
+    /**
+     * Step 3 features of the changed lines on both sides
+     */
+    private static class Features {
+        final FeatureTable oldSide;
+        final FeatureTable newSide;
         
+        Features(FeatureTable oldSide, FeatureTable newSide) {
+            this.oldSide = oldSide;
+            this.newSide = newSide;
+        }
+    }
+    
+    /**
+     * Mappings found by Steps 3-5 for one pool of changed lines
+     */
+    private static class ChangeMatch {
+        final Map<Integer, Integer> resolved;
+        final Map<Integer, List<Integer>> splits;
+        int candidateLines;
+        
+        ChangeMatch(Map<Integer, Integer> resolved, Map<Integer, List<Integer>> splits, int candidateLines) {
+            this.resolved = resolved;
+            this.splits = splits;
+            this.candidateLines = candidateLines;
+        }
+        
+        void addAll(ChangeMatch other) {
+            resolved.putAll(other.resolved);
+            splits.putAll(other.splits);
+            candidateLines += other.candidateLines;
+        }
+    }
+    
+    /**
+     * Format results in required output format
+     * (for large results, stream them with ResultWriter instead)
+     */
+    public String formatOutput(MappingResult result) {
+        StringWriter output = new StringWriter();
+        try {
+            ResultWriter.writeText(PackedMapping.of(result), output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringWriter does not throw
+        }
         return output.toString();
     }
     
@@ -193,45 +793,66 @@ public class LHDiff {
      * Print detailed results
      */
     public void printDetailedResults(MappingResult result) {
-        System.out.println("\n============================================================");
-        System.out.println("DETAILED RESULTS");
-        System.out.println("============================================================");
-        
-        System.out.println("\n1-to-1 Mappings:");
-        List<Integer> sortedMappings = new ArrayList<>(result.mappings.keySet());
-        Collections.sort(sortedMappings);
-        for (int oldLine : sortedMappings) {
-            System.out.println("  " + oldLine + " -> " + result.mappings.get(oldLine));
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        printDetailedResults(result, out);
+        out.flush();
+    }
+    
+    /**
+     * Print detailed results to a writer, in old line order from the packed arrays
+     */
+    public void printDetailedResults(MappingResult result, PrintWriter out) {
+        PackedMapping packed = PackedMapping.of(result);
+        
+        out.println("\n============================================================");
+        out.println("DETAILED RESULTS");
+        out.println("============================================================");
+        
+        out.println("\n1-to-1 Mappings:");
+        for (int i = 0; i < packed.mappedOld.length; i++) {
+            out.print("  ");
+            out.print(packed.mappedOld[i]);
+            out.print(" -> ");
+            out.println(packed.mappedNew[i]);
         }
         
-        if (!result.splits.isEmpty()) {
-            System.out.println("\n1-to-Many Mappings (Line Splits):");
-            List<Integer> sortedSplits = new ArrayList<>(result.splits.keySet());
-            Collections.sort(sortedSplits);
-            for (int oldLine : sortedSplits) {
-                System.out.println("  " + oldLine + " -> " + result.splits.get(oldLine));
+        if (packed.splitOld.length > 0) {
+            out.println("\n1-to-Many Mappings (Line Splits):");
+            for (int i = 0; i < packed.splitOld.length; i++) {
+                out.print("  ");
+                out.print(packed.splitOld[i]);
+                out.print(" -> ");
+                out.println(Arrays.toString(Arrays.copyOfRange(packed.splitNew, packed.splitStart[i],
+                                                               packed.splitStart[i + 1])));
             }
         }
         
-        if (!result.unmappedOld.isEmpty()) {
-            System.out.println("\nUnmapped Old Lines:");
-            List<Integer> sortedUnmappedOld = new ArrayList<>(result.unmappedOld);
-            Collections.sort(sortedUnmappedOld);
-            System.out.println("  " + sortedUnmappedOld);
+        if (packed.unmappedOld.length > 0) {
+            out.println("\nUnmapped Old Lines:");
+            out.println("  " + Arrays.toString(packed.unmappedOld));
+        }
+        
+        if (packed.unmappedNew.length > 0) {
+            out.println("\nUnmapped New Lines:");
+            out.println("  " + Arrays.toString(packed.unmappedNew));
         }
         
-        if (!result.unmappedNew.isEmpty()) {
-            System.out.println("\nUnmapped New Lines:");
-            List<Integer> sortedUnmappedNew = new ArrayList<>(result.unmappedNew);
-            Collections.sort(sortedUnmappedNew);
-            System.out.println("  " + sortedUnmappedNew);
+        out.println("\nSummary:");
+        out.println("  Total mappings: " + result.mappings.size());
+        out.println("  Split mappings: " + result.splits.size());
+        out.println("  Unmapped old: " + result.unmappedOld.size());
+        out.println("  Unmapped new: " + result.unmappedNew.size());
+        if (result.partial) {
+            out.println("  Partial result: cancelled before all stages finished");
         }
         
-        System.out.println("\nSummary:");
-        System.out.println("  Total mappings: " + result.mappings.size());
-        System.out.println("  Split mappings: " + result.splits.size());
-        System.out.println("  Unmapped old: " + result.unmappedOld.size());
-        System.out.println("  Unmapped new: " + result.unmappedNew.size());
+        out.println("\nStage Timings:");
+        out.print(result.stats);
+        
+        if (result.strategy != null) {
+            out.println("\nStrategy:");
+            out.print(result.strategy);
+        }
     }
     
     /**
@@ -244,6 +865,9 @@ public class LHDiff {
         public final Map<Integer, Integer> resolved;
         public final Set<Integer> unmappedOld;
         public final Set<Integer> unmappedNew;
+        public final StageStats stats;
+        public final Strategy strategy;
+        public final boolean partial;
         
         public MappingResult(Map<Integer, Integer> mappings,
                            Map<Integer, List<Integer>> splits,
@@ -251,12 +875,27 @@ public class LHDiff {
                            Map<Integer, Integer> resolved,
                            Set<Integer> unmappedOld,
                            Set<Integer> unmappedNew) {
+            this(mappings, splits, unchanged, resolved, unmappedOld, unmappedNew, new StageStats(), null, false);
+        }
+        
+        public MappingResult(Map<Integer, Integer> mappings,
+                           Map<Integer, List<Integer>> splits,
+                           Map<Integer, Integer> unchanged,
+                           Map<Integer, Integer> resolved,
+                           Set<Integer> unmappedOld,
+                           Set<Integer> unmappedNew,
+                           StageStats stats,
+                           Strategy strategy,
+                           boolean partial) {
             this.mappings = mappings;
             this.splits = splits;
             this.unchanged = unchanged;
             this.resolved = resolved;
             this.unmappedOld = unmappedOld;
             this.unmappedNew = unmappedNew;
+            this.stats = stats;
+            this.strategy = strategy;
+            this.partial = partial;
         }
     }
     
@@ -265,31 +904,89 @@ public class LHDiff {
      */
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.out.println("Usage: java LHDiff <old_file> <new_file> [--verbose]");
+            System.out.println("Usage: java LHDiff <old_file> <new_file> [--verbose] [--format F] [--output FILE] [--patch]");
+            System.out.println("                                          [--off-heap DIR]");
+            System.out.println("\nOptions:");
+            System.out.println("  --verbose, -v   Print detailed results and stage timings");
+            System.out.println("  --format F      text (default), json (ground_truth.json layout) or binary");
+            System.out.println("  --output FILE   Write the mapping to FILE instead of standard output");
+            System.out.println("  --patch         new_file is a unified diff of old_file; Step 2 comes from its hunks");
+            System.out.println("  --off-heap DIR  Keep the lines in a memory-mapped scratch file in DIR (not with --patch)");
             System.out.println("\nExample:");
             System.out.println("  java LHDiff version1.java version2.java");
             System.out.println("  java LHDiff version1.java version2.java --verbose");
+            System.out.println("  java LHDiff version1.java version2.java --format json --output mapping.json");
+            System.out.println("  git diff HEAD~1 -- Foo.java > change.diff && java LHDiff Foo.java.orig change.diff --patch");
             return;
         }
         
         String oldFile = args[0];
         String newFile = args[1];
-        boolean verbose = args.length > 2 && (args[2].equals("--verbose") || args[2].equals("-v"));
+        boolean verbose = false;
+        boolean patch = false;
+        ResultWriter.Format format = ResultWriter.Format.TEXT;
+        String outputFile = null;
+        String offHeapDir = null;
+        
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--verbose":
+                case "-v":
+                    verbose = true;
+                    break;
+                case "--format":
+                    format = ResultWriter.Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    break;
+                case "--output":
+                    outputFile = args[++i];
+                    break;
+                case "--patch":
+                    patch = true;
+                    break;
+                case "--off-heap":
+                    offHeapDir = args[++i];
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+        if (patch && offHeapDir != null) {
+            System.err.println("--off-heap cannot be combined with --patch");
+            return;
+        }
         
         try {
             LHDiff lhdiff = new LHDiff();
-            MappingResult result = lhdiff.mapLines(oldFile, newFile, verbose);
+            MappingResult result;
+            if (offHeapDir != null) {
+                try (OffHeapStore store = OffHeapStore.mapped(Paths.get(offHeapDir))) {
+                    result = lhdiff.mapLines(Paths.get(oldFile), Paths.get(newFile), store, verbose);
+                }
+            } else {
+                result = patch
+                    ? lhdiff.mapPatch(oldFile, newFile, verbose)
+                    : lhdiff.mapLines(oldFile, newFile, verbose);
+            }
             
-            System.out.println("\n============================================================");
-            System.out.println("LINE MAPPINGS");
-            System.out.println("============================================================");
-            System.out.print(lhdiff.formatOutput(result));
+            if (outputFile != null) {
+                try (OutputStream out = Files.newOutputStream(Paths.get(outputFile))) {
+                    ResultWriter.write(result, format, out);
+                }
+            } else {
+                if (format == ResultWriter.Format.TEXT) {
+                    System.out.println("\n============================================================");
+                    System.out.println("LINE MAPPINGS");
+                    System.out.println("============================================================");
+                }
+                ResultWriter.write(result, format, System.out);
+            }
             
             if (verbose) {
                 lhdiff.printDetailedResults(result);
             }
             
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
             System.err.println("Error: " + e.getMessage());
             e.printStackTrace();
         }
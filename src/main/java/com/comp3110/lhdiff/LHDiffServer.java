@@ -0,0 +1,339 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.LHDiff.MappingResult;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Daemon Mode
+ * Keeps one warmed-up LHDiff engine resident and serves mapping requests over
+ * a local HTTP endpoint, running each request as its own task on a worker pool
+ * 
+ * POST /map with {"old": text, "new": text} returns the mapping in the
+ * ground_truth.json layout. An optional "timeout_ms" bounds the mapping; a
+ * result cut short by it has "partial": true. Requests naming files instead,
+ * {"old_file": path, "new_file": path}, are only served when the server was
+ * given a file root, and only for files under it. Bodies over the configured
+ * size are refused with 413.
+ * GET /health returns "ok".
+ */
+public class LHDiffServer {
+    
+    public static final int DEFAULT_MAX_BODY_BYTES = 16 * 1024 * 1024;
+    
+    private final LHDiff lhdiff;
+    private final ExecutorService workers;
+    private final long defaultTimeoutMillis;
+    private final Path fileRoot;
+    private final int maxBodyBytes;
+    private HttpServer server;
+    
+    public LHDiffServer(LHDiff lhdiff, int workerThreads) {
+        this(lhdiff, workerThreads, 0);
+    }
+    
+    /**
+     * @param defaultTimeoutMillis Timeout for requests without "timeout_ms" (0 = none)
+     */
+    public LHDiffServer(LHDiff lhdiff, int workerThreads, long defaultTimeoutMillis) {
+        this(lhdiff, workerThreads, defaultTimeoutMillis, null, DEFAULT_MAX_BODY_BYTES);
+    }
+    
+    /**
+     * @param defaultTimeoutMillis Timeout for requests without "timeout_ms" (0 = none)
+     * @param fileRoot Directory "old_file"/"new_file" paths must lie under (null = no file requests)
+     * @param maxBodyBytes Largest request body accepted
+     */
+    public LHDiffServer(LHDiff lhdiff, int workerThreads, long defaultTimeoutMillis, Path fileRoot,
+                        int maxBodyBytes) {
+        this.lhdiff = lhdiff;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.fileRoot = fileRoot;
+        this.maxBodyBytes = maxBodyBytes;
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+    }
+    
+    /**
+     * Run the engine on synthetic pairs so the JIT has compiled the hot paths
+     * before the first real request arrives
+     */
+    public void warmUp(int iterations) {
+        List<String> seed = Arrays.asList(
+            "public class Account {",
+            "    private int balance = 0;",
+            "    public void deposit(int amount) {",
+            "        if (amount > 0) { balance += amount; }",
+            "    }",
+            "    public int getBalance() { return balance; }",
+            "}"
+        );
+        
+        for (int i = 0; i < iterations; i++) {
+            WorkloadGenerator generator = new WorkloadGenerator(new WorkloadGenerator.EditMix(), i);
+            WorkloadGenerator.GeneratedPair pair = generator.generate(generator.expandSeed(seed, 200));
+            lhdiff.mapLines(pair.oldLines, pair.newLines, false);
+        }
+    }
+    
+    /**
+     * Bind to the loopback interface and start serving
+     * 
+     * The JDK HTTP server only sets TCP_NODELAY when the JVM-wide property
+     * sun.net.httpserver.nodelay is true, read once when its first server is
+     * created. Without it each response body waits behind the client's
+     * delayed ACK of the headers, about 40 ms per request. main() sets the
+     * property; a process embedding the server should set it at startup if
+     * that suits its other HTTP servers too.
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/map", this::handleMap);
+        server.createContext("/health", exchange -> respond(exchange, 200, "ok"));
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+    
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+        }
+        workers.shutdownNow();
+    }
+    
+    private void handleMap(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "{\"error\":\"POST required\"}");
+            return;
+        }
+        
+        byte[] body = readAll(exchange.getRequestBody(), maxBodyBytes);
+        if (body == null) {
+            respond(exchange, 413, "{\"error\":\"Request body exceeds " + maxBodyBytes + " bytes\"}");
+            return;
+        }
+        
+        Job job;
+        try {
+            job = parseJob(new String(body, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "{\"error\":" + Json.quote(String.valueOf(e.getMessage())) + "}");
+            return;
+        } catch (Throwable t) {
+            // Anything else still gets an answer, or the client waits until its own timeout
+            respond(exchange, 500, "{\"error\":" + Json.quote(String.valueOf(t)) + "}");
+            return;
+        }
+        
+        try {
+            workers.execute(job::run);
+        } catch (RejectedExecutionException e) {
+            respond(exchange, 503, "{\"error\":\"server is shutting down\"}");
+            return;
+        }
+        
+        try {
+            respond(exchange, 200, job.response.get());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            String message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+            respond(exchange, 500, "{\"error\":" + Json.quote(message) + "}");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "{\"error\":\"interrupted\"}");
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Job parseJob(String body) {
+        Object parsed = Json.parse(body);
+        if (!(parsed instanceof Map)) {
+            throw new IllegalArgumentException("Request body must be a JSON object");
+        }
+        
+        Map<String, Object> request = (Map<String, Object>) parsed;
+        Object timeout = request.get("timeout_ms");
+        if (timeout != null && !(timeout instanceof Number)) {
+            throw new IllegalArgumentException("timeout_ms must be a number");
+        }
+        long timeoutMillis = timeout != null ? ((Number) timeout).longValue() : defaultTimeoutMillis;
+        
+        if (request.get("old") != null && request.get("new") != null) {
+            return new Job(null, null, stringField(request, "old"), stringField(request, "new"), timeoutMillis);
+        }
+        if (request.get("old_file") != null && request.get("new_file") != null) {
+            return new Job(underRoot(stringField(request, "old_file")), underRoot(stringField(request, "new_file")),
+                           null, null, timeoutMillis);
+        }
+        throw new IllegalArgumentException("Expected \"old\"/\"new\" content or \"old_file\"/\"new_file\" paths");
+    }
+    
+    private static String stringField(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(name + " must be a string");
+        }
+        return (String) value;
+    }
+    
+    /**
+     * Resolve a requested path against the file root, refusing anything that
+     * (after following links) lies outside it
+     */
+    private String underRoot(String file) {
+        if (fileRoot == null) {
+            throw new IllegalArgumentException("File paths are not accepted; start the server with --file-root");
+        }
+        try {
+            Path root = fileRoot.toRealPath();
+            Path path = root.resolve(file).toRealPath();
+            if (!path.startsWith(root)) {
+                throw new IllegalArgumentException("Path is outside the file root: " + file);
+            }
+            return path.toString();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read " + file);
+        }
+    }
+    
+    /**
+     * Read the whole stream, or return null once it exceeds maxBytes
+     */
+    private static byte[] readAll(InputStream in, int maxBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (out.size() + read > maxBytes) {
+                return null;
+            }
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+    
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+            body.startsWith("{") ? "application/json" : "text/plain");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+    
+    /**
+     * Render a mapping result in the ground_truth.json layout, plus whether it
+     * was cut short and how long it took
+     */
+    static String toJson(MappingResult result, long elapsedNanos) throws IOException {
+        StringWriter json = new StringWriter();
+        ResultWriter.writeJsonFields(PackedMapping.of(result), json);
+        json.write(",\n  \"partial\": " + result.partial);
+        json.write(",\n  \"elapsed_ms\": " + String.format(Locale.ROOT, "%.3f", elapsedNanos / 1e6));
+        json.write("\n}");
+        return json.toString();
+    }
+    
+    /**
+     * One mapping request
+     */
+    private class Job {
+        final String oldFile;
+        final String newFile;
+        final String oldText;
+        final String newText;
+        final long timeoutMillis;
+        final CompletableFuture<String> response = new CompletableFuture<>();
+        
+        Job(String oldFile, String newFile, String oldText, String newText, long timeoutMillis) {
+            this.oldFile = oldFile;
+            this.newFile = newFile;
+            this.oldText = oldText;
+            this.newText = newText;
+            this.timeoutMillis = timeoutMillis;
+        }
+        
+        void run() {
+            try {
+                long start = System.nanoTime();
+                // The deadline counts from when the job starts, not from when it was queued
+                CancellationToken token = timeoutMillis > 0
+                    ? CancellationToken.withTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                    : CancellationToken.NONE;
+                
+                MappingResult result;
+                if (oldText != null) {
+                    result = lhdiff.mapText(oldText, newText, false, token);
+                } else {
+                    result = lhdiff.mapLines(oldFile, newFile, false, token);
+                }
+                response.complete(toJson(result, System.nanoTime() - start));
+            } catch (Throwable t) {
+                response.completeExceptionally(t);
+            }
+        }
+    }
+    
+    /**
+     * Main method - Command line interface
+     */
+    public static void main(String[] args) {
+        int port = 8765;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int warmup = 200;
+        long timeout = 0;
+        Path fileRoot = null;
+        int maxBody = DEFAULT_MAX_BODY_BYTES;
+        
+        for (int i = 0; i < args.length; i += 2) {
+            switch (i + 1 < args.length ? args[i] : "--help") {
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+                case "--timeout": timeout = Long.parseLong(args[i + 1]); break;
+                case "--file-root": fileRoot = Paths.get(args[i + 1]); break;
+                case "--max-body": maxBody = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.out.println("Usage: java LHDiffServer [--port N] [--threads N] [--warmup N]");
+                    System.out.println("                         [--timeout MS] [--file-root DIR] [--max-body BYTES]");
+                    return;
+            }
+        }
+        
+        // See start(): applies to every JDK HTTP server in this JVM, of which this is the only one
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        
+        try {
+            LHDiffServer server = new LHDiffServer(new LHDiff(), threads, timeout, fileRoot, maxBody);
+            
+            long start = System.nanoTime();
+            server.warmUp(warmup);
+            System.out.println(String.format("Warm-up: %d mappings in %.0f ms",
+                               warmup, (System.nanoTime() - start) / 1e6));
+            
+            server.start(port);
+            System.out.println("LHDiff server listening on http://127.0.0.1:" + server.getPort() + "/map");
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,48 @@
+package com.comp3110.lhdiff;
+
+/**
+ * Levenshtein edit distance with a single DP row taken from the calling
+ * thread's scratch buffers, so repeated calls do not allocate
+ */
+final class Levenshtein {
+    
+    private Levenshtein() {
+    }
+    
+    /**
+     * Number of single-character insertions, deletions and substitutions
+     * turning one text into the other
+     */
+    static int distance(CharSequence left, CharSequence right) {
+        // Keep the row along the shorter text
+        if (left.length() > right.length()) {
+            CharSequence swap = left;
+            left = right;
+            right = swap;
+        }
+        int n = left.length();
+        int m = right.length();
+        if (n == 0) {
+            return m;
+        }
+        
+        int[] row = Scratch.get().ints(Scratch.LEVENSHTEIN_ROW, n + 1);
+        for (int i = 0; i <= n; i++) {
+            row[i] = i;
+        }
+        
+        for (int j = 1; j <= m; j++) {
+            char rightChar = right.charAt(j - 1);
+            int upperLeft = row[0];
+            row[0] = j;
+            for (int i = 1; i <= n; i++) {
+                int upper = row[i];
+                int cost = left.charAt(i - 1) == rightChar ? 0 : 1;
+                row[i] = Math.min(Math.min(row[i - 1], upper) + 1, upperLeft + cost);
+                upperLeft = upper;
+            }
+        }
+        
+        return row[n];
+    }
+}
\ No newline at end of file
@@ -1,6 +1,5 @@
 package com.comp3110.lhdiff;
 
-import org.apache.commons.text.similarity.LevenshteinDistance;
 import java.util.*;
 
 /**
@@ -10,7 +9,6 @@ import java.util.*;
 public class LineSplitDetector {
     
     private final double improvementThreshold;
-    private final LevenshteinDistance levenshtein;
     
     public LineSplitDetector() {
         this(0.05); // Default: require 5% improvement to add another line
@@ -18,24 +16,23 @@ public class LineSplitDetector {
     
     public LineSplitDetector(double improvementThreshold) {
         this.improvementThreshold = improvementThreshold;
-        this.levenshtein = new LevenshteinDistance();
     }
     
     /**
      * Calculate normalized Levenshtein distance [0, 1]
      * 0 = identical, 1 = completely different
      */
-    public double normalizedLevenshteinDistance(String str1, String str2) {
-        if (str1.isEmpty() && str2.isEmpty()) {
+    public double normalizedLevenshteinDistance(CharSequence str1, CharSequence str2) {
+        if (str1.length() == 0 && str2.length() == 0) {
             return 0.0;
         }
         
-        if (str1.isEmpty() || str2.isEmpty()) {
+        if (str1.length() == 0 || str2.length() == 0) {
             return 1.0;
         }
         
         int maxLen = Math.max(str1.length(), str2.length());
-        int distance = levenshtein.apply(str1, str2);
+        int distance = Levenshtein.distance(str1, str2);
         
         return (double) distance / maxLen;
     }
@@ -70,7 +67,30 @@ public class LineSplitDetector {
      */
     public Map<Integer, List<Integer>> detectSplits(List<String> oldLines, List<String> newLines,
                                                     Set<Integer> unmappedOld, Set<Integer> unmappedNew) {
+        return detectSplits(oldLines, newLines, unmappedOld, unmappedNew, CancellationToken.NONE);
+    }
+    
+    /**
+     * Detect line splits, stopping early once the token is cancelled and
+     * returning the splits found for the old lines already processed
+     */
+    public Map<Integer, List<Integer>> detectSplits(List<String> oldLines, List<String> newLines,
+                                                    Set<Integer> unmappedOld, Set<Integer> unmappedNew,
+                                                    CancellationToken token) {
+        return detectSplits(oldLines, newLines, unmappedOld, unmappedNew, token, new StageStats());
+    }
+    
+    /**
+     * Detect line splits, counting in stats how many extensions of a sequence
+     * were tried and how many of those the q-gram filter rejected without
+     * running Levenshtein. The filter only rejects extensions that could not
+     * reach the improvement threshold, so the splits are the same as without it.
+     */
+    public Map<Integer, List<Integer>> detectSplits(List<String> oldLines, List<String> newLines,
+                                                    Set<Integer> unmappedOld, Set<Integer> unmappedNew,
+                                                    CancellationToken token, StageStats stats) {
         Map<Integer, List<Integer>> splitMappings = new HashMap<>();
+        SplitSearch search = new SplitSearch(newLines);
         Set<Integer> usedNewLines = new HashSet<>();
         
         // Convert to sorted lists
@@ -90,68 +110,110 @@ public class LineSplitDetector {
             
             // Try to find consecutive new lines that combine to match old line
             List<Integer> bestSplit = findBestSplit(
-                oldLine, newLines, unmappedNewList, usedNewLines
+                oldLine, newLines, unmappedNewList, usedNewLines, search, token
             );
             
+            // Search cut short by cancellation
+            if (bestSplit == null) {
+                break;
+            }
+            
             // Only record actual splits (2+ lines)
-            if (bestSplit != null && bestSplit.size() > 1) {
+            if (bestSplit.size() > 1) {
                 splitMappings.put(oldLineNum, bestSplit);
                 usedNewLines.addAll(bestSplit);
             }
         }
         
+        stats.increment("split extensions", search.extensions);
+        stats.increment("split extensions filtered", search.filtered);
         return splitMappings;
     }
     
     /**
      * Find the best sequence of new lines that matches an old line
+     * (null if the token was cancelled before the search finished).
+     * A sequence is always a run of consecutive new lines, so its text is
+     * grown in the thread's scratch builder one line at a time.
+     * 
+     * The q-gram count of the sequence is bounded by its lines' counts plus
+     * the q-grams spanning each joining space, which bounds its distance to
+     * the old line from below; an extension whose bound already misses the
+     * threshold is rejected before any Levenshtein runs.
      */
     private List<Integer> findBestSplit(String oldLine, List<String> newLines,
-                                       List<Integer> unmappedNew, Set<Integer> usedNewLines) {
-        List<Integer> bestSplit = new ArrayList<>();
+                                       List<Integer> unmappedNew, Set<Integer> usedNewLines,
+                                       SplitSearch search, CancellationToken token) {
+        StringBuilder combinedText = Scratch.get().text;
+        int[] oldFingerprint = QGrams.fingerprint(oldLine);
+        int bestStart = 0;
+        int bestLength = 0;
         
-        // Try starting from each unmapped new line
+        // Try starting from each unmapped new line; line numbers stay boxed
+        // so the usedNewLines lookups, once per pair of lines, do not allocate
         for (int startIdx = 0; startIdx < unmappedNew.size(); startIdx++) {
-            int startLineNum = unmappedNew.get(startIdx);
+            Integer startLineNum = unmappedNew.get(startIdx);
+            
+            if (token.isCancelled()) {
+                return null;
+            }
             
             if (usedNewLines.contains(startLineNum)) {
                 continue;
             }
             
             // Build sequence starting from this line
-            List<Integer> sequence = new ArrayList<>();
-            sequence.add(startLineNum);
+            int length = 1;
+            combinedText.setLength(0);
+            appendLine(newLines, startLineNum, combinedText);
             
-            double prevDistance = normalizedLevenshteinDistance(
-                oldLine,
-                concatenateLines(newLines, sequence)
-            );
+            // Exact distance of the sequence so far, computed once an extension needs it
+            double prevDistance = Double.NaN;
+            int sharedBound = QGrams.common(oldFingerprint, search.fingerprint(startLineNum));
             
             // Keep adding consecutive lines while similarity improves
             for (int nextIdx = startIdx + 1; nextIdx < unmappedNew.size(); nextIdx++) {
-                int nextLineNum = unmappedNew.get(nextIdx);
+                Integer nextLineNum = unmappedNew.get(nextIdx);
                 
                 if (usedNewLines.contains(nextLineNum)) {
                     break;
                 }
                 
                 // Check if this line is consecutive
-                if (nextLineNum != sequence.get(sequence.size() - 1) + 1) {
+                if (nextLineNum != startLineNum + length) {
                     break;
                 }
                 
-                // Try adding this line
-                List<Integer> testSequence = new ArrayList<>(sequence);
-                testSequence.add(nextLineNum);
+                // q-gram filter on the sequence with this line added; the
+                // distance so far is at most 1.0, so first try without it
+                int nextShared = sharedBound + QGrams.common(oldFingerprint, search.fingerprint(nextLineNum)) + QGrams.Q;
+                int nextLength = combinedText.length() + 1 + newLines.get(nextLineNum - 1).length();
+                search.extensions++;
+                double lowestDistance = oldLine.isEmpty() ? 0.0
+                    : (double) QGrams.distanceLowerBound(oldLine.length(), nextLength, nextShared)
+                      / Math.max(oldLine.length(), nextLength);
+                if (1.0 - lowestDistance < improvementThreshold) {
+                    search.filtered++;
+                    break;
+                }
+                if (Double.isNaN(prevDistance)) {
+                    prevDistance = normalizedLevenshteinDistance(oldLine, combinedText);
+                }
+                if (prevDistance - lowestDistance < improvementThreshold) {
+                    search.filtered++;
+                    break;
+                }
                 
-                String combinedText = concatenateLines(newLines, testSequence);
+                // Try adding this line
+                appendLine(newLines, nextLineNum, combinedText);
+                sharedBound = nextShared;
                 double newDistance = normalizedLevenshteinDistance(oldLine, combinedText);
                 
                 // Check if similarity improved
                 double improvement = prevDistance - newDistance;
                 
                 if (improvement >= improvementThreshold) {
-                    sequence.add(nextLineNum);
+                    length++;
                     prevDistance = newDistance;
                 } else {
                     break; // Stop if no improvement
@@ -159,14 +221,56 @@ public class LineSplitDetector {
             }
             
             // Keep track of best split found
-            if (sequence.size() > bestSplit.size()) {
-                bestSplit = new ArrayList<>(sequence);
+            if (length > bestLength) {
+                bestStart = startLineNum;
+                bestLength = length;
             }
         }
         
+        List<Integer> bestSplit = new ArrayList<>(bestLength);
+        for (int i = 0; i < bestLength; i++) {
+            bestSplit.add(bestStart + i);
+        }
         return bestSplit;
     }
     
+    /**
+     * Per-call state of the split search: q-gram fingerprints of new lines,
+     * each computed once, and the filter's counts
+     */
+    private static class SplitSearch {
+        private final List<String> newLines;
+        private final Map<Integer, int[]> fingerprints = new HashMap<>();
+        long extensions;
+        long filtered;
+        
+        SplitSearch(List<String> newLines) {
+            this.newLines = newLines;
+        }
+        
+        int[] fingerprint(Integer lineNum) {
+            int[] fingerprint = fingerprints.get(lineNum);
+            if (fingerprint == null) {
+                fingerprint = QGrams.fingerprint(newLines.get(lineNum - 1));
+                fingerprints.put(lineNum, fingerprint);
+            }
+            return fingerprint;
+        }
+    }
+    
+    /**
+     * Append a line as concatenateLines joins them (1-indexed; out of range lines are skipped)
+     */
+    private static void appendLine(List<String> lines, int lineNum, StringBuilder text) {
+        int lineIdx = lineNum - 1;
+        if (lineIdx >= 0 && lineIdx < lines.size()) {
+            if (text.length() > 0) {
+                text.append(" ");
+            }
+            text.append(lines.get(lineIdx));
+        }
+    }
+    
     // Test method
     public static void main(String[] args) {
         LineSplitDetector detector = new LineSplitDetector();
@@ -0,0 +1,248 @@
+package com.comp3110.lhdiff;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load-test client for LHDiffServer
+ * Sends the same mapping request from several threads over keep-alive
+ * connections and reports p50/p99 request latency and throughput
+ */
+public class LoadTestClient {
+    
+    private final URL endpoint;
+    private final byte[] request;
+    
+    public LoadTestClient(URL endpoint, String body) {
+        this.endpoint = endpoint;
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        byte[] head = ("POST " + endpoint.getPath() + " HTTP/1.1\r\n"
+                     + "Host: " + endpoint.getHost() + ":" + port(endpoint) + "\r\n"
+                     + "Content-Type: application/json\r\n"
+                     + "Content-Length: " + bodyBytes.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        
+        // Headers and body go out in one write so Nagle's algorithm cannot
+        // hold the body back behind a delayed ACK
+        this.request = new byte[head.length + bodyBytes.length];
+        System.arraycopy(head, 0, request, 0, head.length);
+        System.arraycopy(bodyBytes, 0, request, head.length, bodyBytes.length);
+    }
+    
+    /**
+     * Port of the endpoint, or the scheme's default when the URL has none
+     */
+    private static int port(URL endpoint) {
+        return endpoint.getPort() == -1 ? endpoint.getDefaultPort() : endpoint.getPort();
+    }
+    
+    /**
+     * Keep-alive connection owned by one client thread
+     */
+    private class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+        
+        Connection() throws IOException {
+            socket = new Socket(endpoint.getHost(), port(endpoint));
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = socket.getOutputStream();
+        }
+        
+        /**
+         * Send one request and return its latency in nanoseconds
+         */
+        long send() throws IOException {
+            long start = System.nanoTime();
+            out.write(request);
+            out.flush();
+            
+            String statusLine = readLine();
+            int contentLength = 0;
+            String header;
+            while (!(header = readLine()).isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                    contentLength = Integer.parseInt(header.substring(colon + 1).trim());
+                }
+            }
+            
+            byte[] response = new byte[contentLength];
+            in.readFully(response);
+            
+            if (!statusLine.contains(" 200 ")) {
+                throw new IOException(statusLine + ": " + new String(response, StandardCharsets.UTF_8));
+            }
+            return System.nanoTime() - start;
+        }
+        
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1 && c != '\n') {
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            if (c == -1 && line.length() == 0) {
+                throw new EOFException("Connection closed by server");
+            }
+            return line.toString();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+    
+    /**
+     * Run a fixed number of requests at the given concurrency
+     * 
+     * @return Sorted latencies of the successful requests, in nanoseconds
+     */
+    public long[] run(int requests, int concurrency) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        
+        for (int t = 0; t < concurrency; t++) {
+            pool.execute(() -> {
+                Connection connection = null;
+                int i;
+                while ((i = next.getAndIncrement()) < requests) {
+                    try {
+                        if (connection == null) {
+                            connection = new Connection();
+                        }
+                        latencies[i] = connection.send();
+                    } catch (IOException e) {
+                        latencies[i] = -1;
+                        closeQuietly(connection);
+                        connection = null;
+                        if (failures.getAndIncrement() == 0) {
+                            System.err.println("Request failed: " + e.getMessage());
+                        }
+                    }
+                }
+                closeQuietly(connection);
+            });
+        }
+        
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        
+        if (failures.get() > 0) {
+            System.err.println(failures.get() + " of " + requests + " requests failed");
+        }
+        
+        long[] succeeded = Arrays.stream(latencies).filter(latency -> latency >= 0).toArray();
+        Arrays.sort(succeeded);
+        return succeeded;
+    }
+    
+    private static void closeQuietly(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Nothing left to do with a broken connection
+            }
+        }
+    }
+    
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+    
+    /**
+     * Main method - Command line interface
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java LoadTestClient <old_file> <new_file> [options]");
+            System.out.println("\nOptions:");
+            System.out.println("  --url URL          Server endpoint (default http://127.0.0.1:8765/map)");
+            System.out.println("  --requests N       Requests to send (default 1000)");
+            System.out.println("  --concurrency N    Parallel clients (default 8)");
+            System.out.println("  --warmup N         Requests sent before measuring (default 100)");
+            System.out.println("  --file-root DIR    Send paths relative to DIR instead of file contents; the");
+            System.out.println("                     server must be started with the same --file-root");
+            return;
+        }
+        
+        String url = "http://127.0.0.1:8765/map";
+        int requests = 1000;
+        int concurrency = 8;
+        int warmup = 100;
+        Path fileRoot = null;
+        
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--url": url = args[++i]; break;
+                case "--requests": requests = Integer.parseInt(args[++i]); break;
+                case "--concurrency": concurrency = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--file-root": fileRoot = Paths.get(args[++i]); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+        
+        try {
+            String body;
+            if (fileRoot == null) {
+                String oldText = new String(Files.readAllBytes(Paths.get(args[0])), StandardCharsets.UTF_8);
+                String newText = new String(Files.readAllBytes(Paths.get(args[1])), StandardCharsets.UTF_8);
+                body = "{\"old\":" + Json.quote(oldText) + ",\"new\":" + Json.quote(newText) + "}";
+            } else {
+                Path root = fileRoot.toAbsolutePath();
+                body = "{\"old_file\":" + Json.quote(root.relativize(Paths.get(args[0]).toAbsolutePath()).toString())
+                     + ",\"new_file\":" + Json.quote(root.relativize(Paths.get(args[1]).toAbsolutePath()).toString())
+                     + "}";
+            }
+            
+            LoadTestClient client = new LoadTestClient(new URL(url), body);
+            if (warmup > 0) {
+                client.run(warmup, concurrency);
+            }
+            
+            long start = System.nanoTime();
+            long[] latencies = client.run(requests, concurrency);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (latencies.length == 0) {
+                System.err.println("Error: every request failed");
+                System.exit(1);
+            }
+            
+            System.out.println(String.format("Requests:    %d at concurrency %d, %d succeeded", requests, concurrency,
+                                             latencies.length));
+            System.out.println(String.format("Throughput:  %.0f req/s", latencies.length / seconds));
+            System.out.println(String.format("Latency p50: %.3f ms", percentileMillis(latencies, 50)));
+            System.out.println(String.format("Latency p99: %.3f ms", percentileMillis(latencies, 99)));
+            System.out.println(String.format("Latency max: %.3f ms", percentileMillis(latencies, 100)));
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,689 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.LHDiff.MappingResult;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Indexed mapping file
+ * A versioned binary form of a MappingResult for storing mappings at scale
+ * and answering point queries straight from a memory-mapped file: a lookup
+ * reads one block of at most BLOCK_SIZE entries, never the whole mapping.
+ * 
+ * 1:1 mappings are stored as runs (oldStart, newStart, length) of lines that
+ * advance together on both sides, so an unchanged LCS block is one run and
+ * costs a few bytes however long it is. Unmapped lines are stored as runs of
+ * consecutive lines.
+ * 
+ * Layout, big-endian (version 1):
+ *   header    "LHDM", short version, short flags (0), int counts of 1:1
+ *             mapped, unmapped old and unmapped new lines, then six sections
+ *             as (int offset, int length): RUNS, RUNS_BY_NEW, SPLITS,
+ *             SPLITS_BY_NEW, UNMAPPED_OLD, UNMAPPED_NEW
+ *   blocked   RUNS, SPLITS and UNMAPPED_*: int entries, int blockCount, then
+ *             (int firstKey, int offset) per block, then the blocks. Within
+ *             a block values are varint deltas from the previous entry,
+ *             starting from 0, so every block decodes on its own:
+ *               RUNS      oldStart - previous old end, zigzag(newStart -
+ *                         previous new end), length - 1
+ *               SPLITS    old - previous old, line count, zigzag deltas of
+ *                         the new lines starting from old
+ *               UNMAPPED  start - previous end, length - 1
+ *   by new    int entries, then for RUNS_BY_NEW (int newStart, int runIndex)
+ *             sorted by newStart, for SPLITS_BY_NEW (int newLine, int oldLine)
+ *             sorted by newLine
+ */
+public final class MappingFile {
+    
+    static final int MAGIC = 0x4C48444D; // "LHDM"
+    static final int VERSION = 1;
+    static final int BLOCK_SIZE = 64;
+    
+    private static final int RUNS = 0;
+    private static final int RUNS_BY_NEW = 1;
+    private static final int SPLITS = 2;
+    private static final int SPLITS_BY_NEW = 3;
+    private static final int UNMAPPED_OLD = 4;
+    private static final int UNMAPPED_NEW = 5;
+    private static final int SECTIONS = 6;
+    private static final int HEADER_SIZE = 20 + 8 * SECTIONS;
+    
+    private final ByteBuffer buffer;
+    private final int mappedLines;
+    private final int unmappedOldLines;
+    private final int unmappedNewLines;
+    private final int[] sectionOffset = new int[SECTIONS];
+    private final int[] sectionLength = new int[SECTIONS];
+    
+    /**
+     * Read a mapping file held in a buffer; absolute reads only, so the
+     * buffer's position and limit are left alone
+     * 
+     * @throws IOException if the buffer is not a mapping file this version reads
+     */
+    public MappingFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an LHDiff mapping file");
+        }
+        int version = buffer.getShort(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported LHDiff mapping file version " + version);
+        }
+        
+        mappedLines = buffer.getInt(8);
+        unmappedOldLines = buffer.getInt(12);
+        unmappedNewLines = buffer.getInt(16);
+        if (mappedLines < 0 || unmappedOldLines < 0 || unmappedNewLines < 0) {
+            throw new IOException("Corrupt LHDiff mapping file: negative line count");
+        }
+        for (int s = 0; s < SECTIONS; s++) {
+            sectionOffset[s] = buffer.getInt(20 + 8 * s);
+            sectionLength[s] = buffer.getInt(24 + 8 * s);
+            if (sectionOffset[s] < HEADER_SIZE || sectionLength[s] < 4
+                || sectionLength[s] > buffer.limit() - sectionOffset[s]) {
+                throw new IOException("Corrupt LHDiff mapping file: section " + s + " out of bounds");
+            }
+        }
+        for (int s : new int[] {RUNS, SPLITS, UNMAPPED_OLD, UNMAPPED_NEW}) {
+            if (sectionLength[s] < 8 || 8L + 8L * blockCount(s) > sectionLength[s]) {
+                throw new IOException("Corrupt LHDiff mapping file: block index " + s + " out of bounds");
+            }
+        }
+        for (int s : new int[] {RUNS_BY_NEW, SPLITS_BY_NEW}) {
+            if (4L + 8L * count(s) > sectionLength[s]) {
+                throw new IOException("Corrupt LHDiff mapping file: section " + s + " out of bounds");
+            }
+        }
+    }
+    
+    /**
+     * Memory-map a mapping file; the mapping stays valid after the channel
+     * is closed, so nothing needs closing
+     */
+    public static MappingFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("LHDiff mapping file too large: " + path);
+            }
+            return new MappingFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+    
+    // ==================== Point queries ====================
+    
+    /**
+     * Number of 1:1 mappings, of the runs holding them, of splits and of
+     * unmapped lines
+     */
+    public int mappingCount() {
+        return mappedLines;
+    }
+    
+    public int runCount() {
+        return count(RUNS);
+    }
+    
+    public int splitCount() {
+        return count(SPLITS);
+    }
+    
+    public int unmappedOldCount() {
+        return unmappedOldLines;
+    }
+    
+    public int unmappedNewCount() {
+        return unmappedNewLines;
+    }
+    
+    /**
+     * New line an old line is mapped to 1:1
+     * 
+     * @return -1 if the old line has no 1:1 mapping
+     */
+    public int newLine(int oldLine) {
+        Cursor cursor = block(RUNS, oldLine);
+        if (cursor == null) {
+            return -1;
+        }
+        int oldEnd = 0;
+        int newEnd = 0;
+        for (int i = 0; i < cursor.entries; i++) {
+            int oldStart = oldEnd + cursor.varint();
+            int newStart = newEnd + zigzagDecode(cursor.varint());
+            int length = cursor.varint() + 1;
+            if (oldLine < oldStart) {
+                return -1;
+            }
+            if (oldLine < oldStart + length) {
+                return newStart + (oldLine - oldStart);
+            }
+            oldEnd = oldStart + length;
+            newEnd = newStart + length;
+        }
+        return -1;
+    }
+    
+    /**
+     * New lines an old line was split into
+     * 
+     * @return null if the old line is not split
+     */
+    public int[] splitLines(int oldLine) {
+        Cursor cursor = block(SPLITS, oldLine);
+        if (cursor == null) {
+            return null;
+        }
+        int old = 0;
+        for (int i = 0; i < cursor.entries; i++) {
+            old += cursor.varint();
+            int[] lines = new int[cursor.varint()];
+            int previous = old;
+            for (int j = 0; j < lines.length; j++) {
+                lines[j] = previous += zigzagDecode(cursor.varint());
+            }
+            if (old == oldLine) {
+                return lines;
+            }
+            if (old > oldLine) {
+                return null;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Old line a new line comes from, through a 1:1 mapping or a split
+     * 
+     * @return -1 if the new line is not mapped
+     */
+    public int oldLine(int newLine) {
+        int at = floorPair(RUNS_BY_NEW, newLine);
+        if (at >= 0) {
+            int newStart = pairKey(RUNS_BY_NEW, at);
+            int[] run = run(pairValue(RUNS_BY_NEW, at));
+            if (newLine < newStart + run[2]) {
+                return run[0] + (newLine - newStart);
+            }
+        }
+        
+        at = floorPair(SPLITS_BY_NEW, newLine);
+        if (at >= 0 && pairKey(SPLITS_BY_NEW, at) == newLine) {
+            return pairValue(SPLITS_BY_NEW, at);
+        }
+        return -1;
+    }
+    
+    public boolean isUnmappedOld(int oldLine) {
+        return inRuns(UNMAPPED_OLD, oldLine);
+    }
+    
+    public boolean isUnmappedNew(int newLine) {
+        return inRuns(UNMAPPED_NEW, newLine);
+    }
+    
+    /**
+     * Decode the whole file
+     */
+    public PackedMapping decodeAll() {
+        int[] mappedOld = new int[mappedLines];
+        int[] mappedNew = new int[mappedLines];
+        int at = 0;
+        for (int b = 0; b < blockCount(RUNS); b++) {
+            Cursor cursor = cursor(RUNS, b);
+            int oldEnd = 0;
+            int newEnd = 0;
+            for (int i = 0; i < cursor.entries; i++) {
+                int oldStart = oldEnd + cursor.varint();
+                int newStart = newEnd + zigzagDecode(cursor.varint());
+                int length = cursor.varint() + 1;
+                for (int k = 0; k < length; k++, at++) {
+                    mappedOld[at] = oldStart + k;
+                    mappedNew[at] = newStart + k;
+                }
+                oldEnd = oldStart + length;
+                newEnd = newStart + length;
+            }
+        }
+        
+        int splits = count(SPLITS);
+        int[] splitOld = new int[splits];
+        int[] splitStart = new int[splits + 1];
+        int[] splitNew = new int[count(SPLITS_BY_NEW)];
+        int s = 0;
+        for (int b = 0; b < blockCount(SPLITS); b++) {
+            Cursor cursor = cursor(SPLITS, b);
+            int old = 0;
+            for (int i = 0; i < cursor.entries; i++, s++) {
+                splitOld[s] = old += cursor.varint();
+                int lines = cursor.varint();
+                splitStart[s + 1] = splitStart[s] + lines;
+                int previous = old;
+                for (int j = splitStart[s]; j < splitStart[s + 1]; j++) {
+                    splitNew[j] = previous += zigzagDecode(cursor.varint());
+                }
+            }
+        }
+        
+        return new PackedMapping(mappedOld, mappedNew, splitOld, splitStart, splitNew,
+                                 decodeRuns(UNMAPPED_OLD, unmappedOldLines),
+                                 decodeRuns(UNMAPPED_NEW, unmappedNewLines));
+    }
+    
+    private boolean inRuns(int section, int line) {
+        Cursor cursor = block(section, line);
+        if (cursor == null) {
+            return false;
+        }
+        int end = 0;
+        for (int i = 0; i < cursor.entries; i++) {
+            int start = end + cursor.varint();
+            end = start + cursor.varint() + 1;
+            if (line < start) {
+                return false;
+            }
+            if (line < end) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private int[] decodeRuns(int section, int count) {
+        int[] lines = new int[count];
+        int at = 0;
+        for (int b = 0; b < blockCount(section); b++) {
+            Cursor cursor = cursor(section, b);
+            int end = 0;
+            for (int i = 0; i < cursor.entries; i++) {
+                int start = end + cursor.varint();
+                end = start + cursor.varint() + 1;
+                for (int line = start; line < end; line++) {
+                    lines[at++] = line;
+                }
+            }
+        }
+        return lines;
+    }
+    
+    /**
+     * Run (oldStart, newStart, length) by its index in RUNS
+     */
+    private int[] run(int index) {
+        Cursor cursor = cursor(RUNS, index / BLOCK_SIZE);
+        int oldEnd = 0;
+        int newEnd = 0;
+        for (int i = 0; ; i++) {
+            int oldStart = oldEnd + cursor.varint();
+            int newStart = newEnd + zigzagDecode(cursor.varint());
+            int length = cursor.varint() + 1;
+            if (i == index % BLOCK_SIZE) {
+                return new int[] {oldStart, newStart, length};
+            }
+            oldEnd = oldStart + length;
+            newEnd = newStart + length;
+        }
+    }
+    
+    // ==================== Section access ====================
+    
+    private int count(int section) {
+        return buffer.getInt(sectionOffset[section]);
+    }
+    
+    private int blockCount(int section) {
+        return buffer.getInt(sectionOffset[section] + 4);
+    }
+    
+    private int blockKey(int section, int block) {
+        return buffer.getInt(sectionOffset[section] + 8 + 8 * block);
+    }
+    
+    /**
+     * The block that would hold key: the last one starting at or before it
+     */
+    private Cursor block(int section, int key) {
+        int low = 0;
+        int high = blockCount(section) - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blockKey(section, mid) <= key) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found < 0 ? null : cursor(section, found);
+    }
+    
+    private Cursor cursor(int section, int block) {
+        int base = sectionOffset[section];
+        int blocks = blockCount(section);
+        int data = base + 8 + 8 * blocks;
+        int entries = Math.min(BLOCK_SIZE, count(section) - block * BLOCK_SIZE);
+        return new Cursor(buffer, data + buffer.getInt(base + 12 + 8 * block), entries);
+    }
+    
+    private int pairKey(int section, int index) {
+        return buffer.getInt(sectionOffset[section] + 4 + 8 * index);
+    }
+    
+    private int pairValue(int section, int index) {
+        return buffer.getInt(sectionOffset[section] + 8 + 8 * index);
+    }
+    
+    /**
+     * Index of the last (key, value) pair with key at or before the given one, or -1
+     */
+    private int floorPair(int section, int key) {
+        int low = 0;
+        int high = count(section) - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (pairKey(section, mid) <= key) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * Varint reader over one block, by absolute position
+     */
+    private static final class Cursor {
+        final ByteBuffer buffer;
+        final int entries;
+        int position;
+        
+        Cursor(ByteBuffer buffer, int position, int entries) {
+            this.buffer = buffer;
+            this.position = position;
+            this.entries = entries;
+        }
+        
+        int varint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get(position++);
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+    
+    // ==================== Writing ====================
+    
+    public static void write(MappingResult result, Path path) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+            write(PackedMapping.of(result), out);
+        }
+    }
+    
+    /**
+     * Write a mapping in the current version of the format; out is not closed
+     */
+    public static void write(PackedMapping mapping, OutputStream out) throws IOException {
+        // Runs of 1:1 mappings advancing together on both sides
+        List<int[]> runs = new ArrayList<>();
+        for (int i = 0; i < mapping.mappedOld.length; i++) {
+            int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && mapping.mappedOld[i] == last[0] + last[2]
+                && mapping.mappedNew[i] == last[1] + last[2]) {
+                last[2]++;
+            } else {
+                runs.add(new int[] {mapping.mappedOld[i], mapping.mappedNew[i], 1});
+            }
+        }
+        
+        Section[] sections = new Section[SECTIONS];
+        
+        sections[RUNS] = new Section(true);
+        int oldEnd = 0;
+        int newEnd = 0;
+        for (int i = 0; i < runs.size(); i++) {
+            int[] run = runs.get(i);
+            if (sections[RUNS].startEntry(run[0])) {
+                oldEnd = 0;
+                newEnd = 0;
+            }
+            sections[RUNS].varint(run[0] - oldEnd);
+            sections[RUNS].varint(zigzagEncode(run[1] - newEnd));
+            sections[RUNS].varint(run[2] - 1);
+            oldEnd = run[0] + run[2];
+            newEnd = run[1] + run[2];
+        }
+        
+        long[] byNew = new long[runs.size()];
+        for (int i = 0; i < byNew.length; i++) {
+            byNew[i] = ((long) runs.get(i)[1] << 32) | i;
+        }
+        sections[RUNS_BY_NEW] = pairs(byNew);
+        
+        int splitCount = mapping.splitOld.length;
+        sections[SPLITS] = new Section(true);
+        int previousOld = 0;
+        for (int i = 0; i < splitCount; i++) {
+            if (sections[SPLITS].startEntry(mapping.splitOld[i])) {
+                previousOld = 0;
+            }
+            sections[SPLITS].varint(mapping.splitOld[i] - previousOld);
+            previousOld = mapping.splitOld[i];
+            sections[SPLITS].varint(mapping.splitStart[i + 1] - mapping.splitStart[i]);
+            int previous = mapping.splitOld[i];
+            for (int j = mapping.splitStart[i]; j < mapping.splitStart[i + 1]; j++) {
+                sections[SPLITS].varint(zigzagEncode(mapping.splitNew[j] - previous));
+                previous = mapping.splitNew[j];
+            }
+        }
+        
+        long[] splitsByNew = new long[mapping.splitNew.length];
+        for (int i = 0; i < splitCount; i++) {
+            for (int j = mapping.splitStart[i]; j < mapping.splitStart[i + 1]; j++) {
+                splitsByNew[j] = ((long) mapping.splitNew[j] << 32) | mapping.splitOld[i];
+            }
+        }
+        sections[SPLITS_BY_NEW] = pairs(splitsByNew);
+        
+        sections[UNMAPPED_OLD] = lineRuns(mapping.unmappedOld);
+        sections[UNMAPPED_NEW] = lineRuns(mapping.unmappedNew);
+        
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeShort(0);
+        data.writeInt(mapping.mappedOld.length);
+        data.writeInt(mapping.unmappedOld.length);
+        data.writeInt(mapping.unmappedNew.length);
+        int offset = HEADER_SIZE;
+        for (Section section : sections) {
+            data.writeInt(offset);
+            data.writeInt(section.size());
+            offset += section.size();
+        }
+        for (Section section : sections) {
+            section.writeTo(data);
+        }
+        data.flush();
+    }
+    
+    /**
+     * Sorted (key << 32 | value) pairs as a fixed-width section
+     */
+    private static Section pairs(long[] pairs) {
+        Arrays.sort(pairs);
+        Section section = new Section(false);
+        for (long pair : pairs) {
+            section.pair((int) (pair >>> 32), (int) pair);
+        }
+        return section;
+    }
+    
+    /**
+     * Ascending lines as runs of consecutive lines
+     */
+    private static Section lineRuns(int[] lines) {
+        Section section = new Section(true);
+        int end = 0;
+        int i = 0;
+        while (i < lines.length) {
+            int start = lines[i];
+            int length = 1;
+            while (i + length < lines.length && lines[i + length] == start + length) {
+                length++;
+            }
+            if (section.startEntry(start)) {
+                end = 0;
+            }
+            section.varint(start - end);
+            section.varint(length - 1);
+            end = start + length;
+            i += length;
+        }
+        return section;
+    }
+    
+    /**
+     * One section being written: an entry count, then either fixed-width
+     * pairs or a block index and varint blocks
+     */
+    private static final class Section {
+        final boolean blocked;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int entries;
+        int[] blockKeys = new int[16];
+        int[] blockOffsets = new int[16];
+        int blocks;
+        
+        Section(boolean blocked) {
+            this.blocked = blocked;
+        }
+        
+        /**
+         * Note the start of an entry
+         * 
+         * @return true if it starts a new block, which decodes from 0
+         */
+        boolean startEntry(int key) {
+            boolean first = entries++ % BLOCK_SIZE == 0;
+            if (first) {
+                if (blocks == blockKeys.length) {
+                    blockKeys = Arrays.copyOf(blockKeys, 2 * blocks);
+                    blockOffsets = Arrays.copyOf(blockOffsets, blockKeys.length);
+                }
+                blockKeys[blocks] = key;
+                blockOffsets[blocks] = bytes.size();
+                blocks++;
+            }
+            return first;
+        }
+        
+        void varint(int value) {
+            while ((value & ~0x7F) != 0) {
+                bytes.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes.write(value);
+        }
+        
+        void pair(int key, int value) {
+            entries++;
+            fixed(key);
+            fixed(value);
+        }
+        
+        private void fixed(int value) {
+            bytes.write(value >>> 24);
+            bytes.write(value >>> 16);
+            bytes.write(value >>> 8);
+            bytes.write(value);
+        }
+        
+        int size() {
+            return 4 + (blocked ? 4 + 8 * blocks : 0) + bytes.size();
+        }
+        
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(entries);
+            if (blocked) {
+                out.writeInt(blocks);
+                for (int b = 0; b < blocks; b++) {
+                    out.writeInt(blockKeys[b]);
+                    out.writeInt(blockOffsets[b]);
+                }
+            }
+            bytes.writeTo(out);
+        }
+    }
+    
+    private static int zigzagEncode(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+    
+    private static int zigzagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    /**
+     * Main method - Command line interface
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || !(args[0].equals("write") && args.length == 4 || args[0].equals("query"))) {
+            System.out.println("Usage: java MappingFile write <old_file> <new_file> <mapping_file>");
+            System.out.println("       java MappingFile query <mapping_file> [--old N] [--new N]");
+            return;
+        }
+        
+        try {
+            if (args[0].equals("write")) {
+                MappingResult result = new LHDiff().mapLines(args[1], args[2], false);
+                Path path = Paths.get(args[3]);
+                write(result, path);
+                MappingFile file = open(path);
+                System.out.println(String.format("Wrote %s: %d bytes, %d mappings in %d runs, %d splits",
+                                                 path, Files.size(path), file.mappingCount(),
+                                                 file.runCount(), file.splitCount()));
+                return;
+            }
+            
+            MappingFile file = open(Paths.get(args[1]));
+            if (args.length == 2) {
+                System.out.println(String.format("Mappings:     %d in %d runs", file.mappingCount(), file.runCount()));
+                System.out.println(String.format("Splits:       %d", file.splitCount()));
+                System.out.println(String.format("Unmapped:     %d old, %d new",
+                                                 file.unmappedOldCount(), file.unmappedNewCount()));
+            }
+            for (int i = 2; i + 1 < args.length; i += 2) {
+                int line = Integer.parseInt(args[i + 1]);
+                if (args[i].equals("--old")) {
+                    int[] split = file.splitLines(line);
+                    int mapped = file.newLine(line);
+                    System.out.println("old " + line + " -> " + (split != null ? Arrays.toString(split)
+                                                                 : mapped > 0 ? String.valueOf(mapped) : "unmapped"));
+                } else {
+                    int mapped = file.oldLine(line);
+                    System.out.println("new " + line + " <- " + (mapped > 0 ? String.valueOf(mapped) : "unmapped"));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,349 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.LHDiff.MappingResult;
+import com.comp3110.lhdiff.Preprocessor.FileLines;
+
+import java.util.*;
+
+/**
+ * Incremental mapping session
+ * Keeps a mapping between a fixed old version and a new version that is
+ * edited in place, as in an editor. The old side is preprocessed and its
+ * Step 3 features are hashed once; each edit then re-runs Steps 2-5 only on
+ * the region between the unchanged lines (anchors) on either side of it, so
+ * an update costs time in proportion to the edit and the changed lines
+ * around it rather than to the file.
+ * 
+ * Within a region the result is what hunk partitioning would find. A line
+ * outside the region whose partner was inside it is left unmapped, and a
+ * long-distance move an edit creates is not searched for across regions;
+ * remapAll() runs the full pipeline again when that matters (on save, say).
+ * 
+ * A session is not thread-safe.
+ */
+public class MappingSession {
+    
+    private static final byte UNMAPPED = 0;
+    private static final byte UNCHANGED = 1;
+    private static final byte RESOLVED = 2;
+    private static final byte SPLIT = 3;
+    
+    private final LHDiff lhdiff;
+    private final FileLines oldFileLines;
+    private final FeatureTable oldFeatures;
+    private final int oldCount;
+    
+    // The new version, edited in place (the FileLines views these lists)
+    private final List<String> newOriginal;
+    private final List<String> newNormalized;
+    private final FileLines newFileLines;
+    
+    // Mapping state by line, 1-indexed: the partner line and how it was found
+    private final int[] oldTarget;
+    private final byte[] oldKind;
+    private final Map<Integer, int[]> splitTargets = new HashMap<>();
+    private int[] newSource;
+    private byte[] newKind;
+    
+    private long lastUpdateNanos;
+    private int lastRegionOld;
+    private int lastRegionNew;
+    
+    public MappingSession(LHDiff lhdiff, List<String> oldLines, List<String> newLines) {
+        this.lhdiff = lhdiff;
+        this.oldFileLines = lhdiff.preprocess(oldLines);
+        this.oldCount = oldLines.size();
+        
+        Set<Integer> allOld = new HashSet<>();
+        for (int i = 1; i <= oldCount; i++) {
+            allOld.add(i);
+        }
+        this.oldFeatures = lhdiff.computeFeatures(oldFileLines, allOld);
+        
+        FileLines preprocessed = lhdiff.preprocess(newLines);
+        this.newOriginal = preprocessed.getOriginalLines();
+        this.newNormalized = preprocessed.getNormalizedLines();
+        this.newFileLines = preprocessed;
+        
+        this.oldTarget = new int[oldCount + 2];
+        this.oldKind = new byte[oldCount + 2];
+        this.newSource = new int[newLines.size() + 16];
+        this.newKind = new byte[newSource.length];
+        remapAll();
+    }
+    
+    /**
+     * Number of lines in the new version
+     */
+    public int newSize() {
+        return newOriginal.size();
+    }
+    
+    public List<String> newLines() {
+        return Collections.unmodifiableList(newOriginal);
+    }
+    
+    /**
+     * Time and region size (old lines, new lines) of the last edit
+     */
+    public long lastUpdateNanos() {
+        return lastUpdateNanos;
+    }
+    
+    public int lastRegionOld() {
+        return lastRegionOld;
+    }
+    
+    public int lastRegionNew() {
+        return lastRegionNew;
+    }
+    
+    /**
+     * Map the whole files again from scratch
+     */
+    public void remapAll() {
+        long start = System.nanoTime();
+        Arrays.fill(oldTarget, 0);
+        Arrays.fill(oldKind, UNMAPPED);
+        Arrays.fill(newSource, 0);
+        Arrays.fill(newKind, UNMAPPED);
+        splitTargets.clear();
+        
+        MappingResult result = lhdiff.mapLines(oldFileLines, newFileLines, false);
+        apply(result);
+        
+        lastUpdateNanos = System.nanoTime() - start;
+        lastRegionOld = oldCount;
+        lastRegionNew = newSize();
+    }
+    
+    /**
+     * Replace lines of the new version with text
+     * 
+     * @param startLine First line replaced (1-indexed); newSize() + 1 appends
+     * @param removedLines Number of lines replaced, 0 for a pure insertion
+     * @param text Replacement, split into lines like a file; "" inserts nothing
+     */
+    public void edit(int startLine, int removedLines, String text) {
+        edit(startLine, removedLines, Preprocessor.splitLines(text));
+    }
+    
+    public void edit(int startLine, int removedLines, List<String> lines) {
+        int size = newSize();
+        if (startLine < 1 || removedLines < 0 || startLine + removedLines - 1 > size) {
+            throw new IndexOutOfBoundsException("Lines " + startLine + "+" + removedLines + " of " + size);
+        }
+        long start = System.nanoTime();
+        int end = startLine + removedLines; // First line after the replaced ones
+        
+        // The anchors: nearest unchanged lines outside the edit
+        int newLow = startLine - 1;
+        while (newLow > 0 && newKind[newLow] != UNCHANGED) {
+            newLow--;
+        }
+        int newHigh = end;
+        while (newHigh <= size && newKind[newHigh] != UNCHANGED) {
+            newHigh++;
+        }
+        int oldLow = newLow == 0 ? 0 : newSource[newLow];
+        int oldHigh = newHigh > size ? oldCount + 1 : newSource[newHigh];
+        
+        // Forget every mapping touching the region, on either side
+        for (int j = newLow + 1; j < newHigh; j++) {
+            if (newKind[j] != UNMAPPED) {
+                unmapOld(newSource[j]);
+            }
+        }
+        for (int i = oldLow + 1; i < oldHigh; i++) {
+            unmapOld(i);
+        }
+        
+        // Apply the edit and shift what follows it
+        FileLines inserted = lhdiff.preprocess(lines);
+        newOriginal.subList(startLine - 1, end - 1).clear();
+        newOriginal.addAll(startLine - 1, inserted.getOriginalLines());
+        newNormalized.subList(startLine - 1, end - 1).clear();
+        newNormalized.addAll(startLine - 1, inserted.getNormalizedLines());
+        int delta = lines.size() - removedLines;
+        shiftNewLines(end, delta, size);
+        
+        // Steps 2-5 on the region between the anchors
+        int oldFrom = oldLow + 1;
+        int oldTo = oldHigh - 1;
+        int newFrom = newLow + 1;
+        int newTo = newHigh - 1 + delta;
+        if (oldFrom <= oldTo && newFrom <= newTo) {
+            apply(lhdiff.mapRegion(oldFileLines, newFileLines, oldFeatures, oldFrom, oldTo, newFrom, newTo));
+        }
+        
+        lastUpdateNanos = System.nanoTime() - start;
+        lastRegionOld = Math.max(0, oldTo - oldFrom + 1);
+        lastRegionNew = Math.max(0, newTo - newFrom + 1);
+    }
+    
+    /**
+     * Clear an old line's mapping and the new lines it points to
+     */
+    private void unmapOld(int oldLine) {
+        if (oldKind[oldLine] == SPLIT) {
+            for (int newLine : splitTargets.remove(oldLine)) {
+                newKind[newLine] = UNMAPPED;
+                newSource[newLine] = 0;
+            }
+        } else if (oldKind[oldLine] != UNMAPPED) {
+            newKind[oldTarget[oldLine]] = UNMAPPED;
+            newSource[oldTarget[oldLine]] = 0;
+        }
+        oldKind[oldLine] = UNMAPPED;
+        oldTarget[oldLine] = 0;
+    }
+    
+    /**
+     * Move new lines from..size by delta, in the per-line arrays and in every
+     * reference to them from the old side
+     */
+    private void shiftNewLines(int from, int delta, int size) {
+        if (delta == 0) {
+            return;
+        }
+        int newSize = size + delta;
+        if (newSize + 2 > newSource.length) {
+            newSource = Arrays.copyOf(newSource, Math.max(newSize + 2, 2 * newSource.length));
+            newKind = Arrays.copyOf(newKind, newSource.length);
+        }
+        System.arraycopy(newSource, from, newSource, from + delta, size + 1 - from);
+        System.arraycopy(newKind, from, newKind, from + delta, size + 1 - from);
+        // Clear the inserted lines, or the stale tail after a removal
+        int clearFrom = delta > 0 ? from : newSize + 1;
+        int clearTo = delta > 0 ? from + delta : size + 1;
+        Arrays.fill(newSource, clearFrom, clearTo, 0);
+        Arrays.fill(newKind, clearFrom, clearTo, UNMAPPED);
+        
+        for (int i = 1; i <= oldCount; i++) {
+            if (oldTarget[i] >= from) {
+                oldTarget[i] += delta;
+            }
+        }
+        for (int[] targets : splitTargets.values()) {
+            for (int k = 0; k < targets.length; k++) {
+                if (targets[k] >= from) {
+                    targets[k] += delta;
+                }
+            }
+        }
+    }
+    
+    private void apply(MappingResult result) {
+        if (newSize() + 2 > newSource.length) {
+            newSource = Arrays.copyOf(newSource, newSize() + 16);
+            newKind = Arrays.copyOf(newKind, newSource.length);
+        }
+        for (Map.Entry<Integer, Integer> entry : result.mappings.entrySet()) {
+            byte kind = result.unchanged.containsKey(entry.getKey()) ? UNCHANGED : RESOLVED;
+            oldTarget[entry.getKey()] = entry.getValue();
+            oldKind[entry.getKey()] = kind;
+            newSource[entry.getValue()] = entry.getKey();
+            newKind[entry.getValue()] = kind;
+        }
+        for (Map.Entry<Integer, List<Integer>> entry : result.splits.entrySet()) {
+            int[] targets = new int[entry.getValue().size()];
+            for (int k = 0; k < targets.length; k++) {
+                targets[k] = entry.getValue().get(k);
+                newSource[targets[k]] = entry.getKey();
+                newKind[targets[k]] = SPLIT;
+            }
+            oldKind[entry.getKey()] = SPLIT;
+            splitTargets.put(entry.getKey(), targets);
+        }
+    }
+    
+    // ==================== Queries ====================
+    
+    /**
+     * New line an old line maps to 1:1, or -1
+     */
+    public int newLineOf(int oldLine) {
+        byte kind = oldKind[oldLine];
+        return kind == UNCHANGED || kind == RESOLVED ? oldTarget[oldLine] : -1;
+    }
+    
+    /**
+     * Old line a new line comes from (1:1 or as part of a split), or -1
+     */
+    public int oldLineOf(int newLine) {
+        return newKind[newLine] == UNMAPPED ? -1 : newSource[newLine];
+    }
+    
+    /**
+     * The current mapping as a MappingResult
+     */
+    public MappingResult result() {
+        Map<Integer, Integer> mappings = new HashMap<>();
+        Map<Integer, Integer> unchanged = new HashMap<>();
+        Map<Integer, Integer> resolved = new HashMap<>();
+        Map<Integer, List<Integer>> splits = new HashMap<>();
+        Set<Integer> unmappedOld = new HashSet<>();
+        Set<Integer> unmappedNew = new HashSet<>();
+        
+        for (int i = 1; i <= oldCount; i++) {
+            switch (oldKind[i]) {
+                case UNCHANGED:
+                    unchanged.put(i, oldTarget[i]);
+                    mappings.put(i, oldTarget[i]);
+                    break;
+                case RESOLVED:
+                    resolved.put(i, oldTarget[i]);
+                    mappings.put(i, oldTarget[i]);
+                    break;
+                case SPLIT:
+                    List<Integer> lines = new ArrayList<>();
+                    for (int newLine : splitTargets.get(i)) {
+                        lines.add(newLine);
+                    }
+                    splits.put(i, lines);
+                    break;
+                default:
+                    unmappedOld.add(i);
+            }
+        }
+        for (int j = 1; j <= newSize(); j++) {
+            if (newKind[j] == UNMAPPED) {
+                unmappedNew.add(j);
+            }
+        }
+        
+        return new MappingResult(mappings, splits, unchanged, resolved, unmappedOld, unmappedNew);
+    }
+    
+    // Test method
+    public static void main(String[] args) {
+        List<String> oldLines = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            oldLines.add("    int value" + i + " = compute(" + i + ", \"item " + i + "\");");
+        }
+        List<String> newLines = new ArrayList<>(oldLines);
+        newLines.set(100, "    int value100 = compute(100, \"renamed item\");");
+        
+        LHDiff lhdiff = new LHDiff();
+        MappingSession session = new MappingSession(lhdiff, oldLines, newLines);
+        System.out.println(String.format("Initial mapping: %.3f ms, %d lines mapped",
+                                         session.lastUpdateNanos() / 1e6, session.result().mappings.size()));
+        
+        // Type a few keystrokes into line 5000, then insert a line after it
+        String line = newLines.get(4999);
+        for (int k = 1; k <= 5; k++) {
+            session.edit(5000, 1, line.replace("compute", "compute" + "Slow".substring(0, k - 1)));
+        }
+        session.edit(5001, 0, "    log(value4999);");
+        System.out.println(String.format("Last edit: %.3f ms over a region of %d old x %d new lines",
+                                         session.lastUpdateNanos() / 1e6,
+                                         session.lastRegionOld(), session.lastRegionNew()));
+        System.out.println("Old 5000 -> new " + session.newLineOf(5000));
+        System.out.println("Old 5001 -> new " + session.newLineOf(5001));
+        System.out.println("New 5001 <- old " + session.oldLineOf(5001));
+        
+        session.remapAll();
+        System.out.println(String.format("Full remap: %.3f ms", session.lastUpdateNanos() / 1e6));
+        System.out.println("Old 5000 -> new " + session.newLineOf(5000));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,206 @@
+package com.comp3110.lhdiff;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Off-heap storage arena
+ * Hands out buffers outside the Java heap to the views in this package,
+ * either direct buffers or regions of a memory-mapped scratch file, for data that would otherwise sit in the
+ * old generation for the length of a big mapping (see OffHeapLines). Closing
+ * the store frees every buffer at once instead of whenever the collector gets
+ * to them, and deletes the scratch file.
+ * 
+ * Allocation is synchronized. Views bracket every access to their buffers
+ * with beginAccess()/endAccess(), and close() waits for accesses in flight
+ * before freeing anything, so a read racing with close() either finishes
+ * first or fails with IllegalStateException; it never touches freed memory.
+ */
+public final class OffHeapStore implements AutoCloseable {
+    
+    private static final Method UNSAFE_INVOKE_CLEANER;
+    private static final Object UNSAFE;
+    
+    static {
+        // Java 9+: sun.misc.Unsafe.invokeCleaner; on Java 8 freeBuffer uses the buffer's own cleaner
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        UNSAFE_INVOKE_CLEANER = invokeCleaner;
+    }
+    
+    private final FileChannel scratch;
+    private final Path scratchFile;
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private final StampedLock access = new StampedLock();
+    private long scratchSize;
+    private long allocatedBytes;
+    private volatile boolean closed;
+    
+    private OffHeapStore(FileChannel scratch, Path scratchFile) {
+        this.scratch = scratch;
+        this.scratchFile = scratchFile;
+    }
+    
+    /**
+     * Store backed by direct buffers (native memory)
+     */
+    public static OffHeapStore direct() {
+        return new OffHeapStore(null, null);
+    }
+    
+    /**
+     * Store backed by a scratch file in dir, mapped into memory region by
+     * region; the OS pages it out under memory pressure
+     */
+    public static OffHeapStore mapped(Path dir) throws IOException {
+        Path file = Files.createTempFile(dir, "lhdiff-", ".scratch");
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new OffHeapStore(channel, file);
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+    
+    /**
+     * Zeroed little-endian buffer of the given size. Package-private: the
+     * buffer is freed by close(), so only views that bracket their accesses
+     * with beginAccess/endAccess may hold it.
+     * 
+     * @throws IllegalStateException if the store is closed
+     * @throws UncheckedIOException if the scratch file cannot grow
+     */
+    synchronized ByteBuffer allocate(int bytes) {
+        checkOpen();
+        ByteBuffer buffer;
+        if (scratch == null) {
+            buffer = ByteBuffer.allocateDirect(bytes);
+        } else {
+            try {
+                buffer = scratch.map(FileChannel.MapMode.READ_WRITE, scratchSize, bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            scratchSize += bytes;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffers.add(buffer);
+        allocatedBytes += bytes;
+        return buffer;
+    }
+    
+    /**
+     * Bytes handed out so far
+     */
+    public synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+    
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Off-heap store is closed");
+        }
+    }
+    
+    /**
+     * Start reading or writing the store's buffers; close() waits until the
+     * matching endAccess. Holders must not call close() themselves.
+     * 
+     * @return Stamp to pass to endAccess
+     * @throws IllegalStateException if the store is closed
+     */
+    long beginAccess() {
+        long stamp = access.readLock();
+        if (closed) {
+            access.unlockRead(stamp);
+            checkOpen();
+        }
+        return stamp;
+    }
+    
+    void endAccess(long stamp) {
+        access.unlockRead(stamp);
+    }
+    
+    /**
+     * Wait for accesses in flight, then free every buffer and delete the
+     * scratch file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        long stamp = access.writeLock();
+        try {
+            closed = true;
+            for (ByteBuffer buffer : buffers) {
+                freeBuffer(buffer);
+            }
+            buffers.clear();
+        } finally {
+            access.unlockWrite(stamp);
+        }
+        if (scratch != null) {
+            try {
+                scratch.close();
+            } finally {
+                Files.deleteIfExists(scratchFile);
+            }
+        }
+    }
+    
+    /**
+     * Release a direct or mapped buffer now; if the JVM allows neither way,
+     * the collector releases it later
+     */
+    private static void freeBuffer(ByteBuffer buffer) {
+        try {
+            if (UNSAFE_INVOKE_CLEANER != null) {
+                UNSAFE_INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                return;
+            }
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Left to the collector
+        }
+    }
+    
+    /**
+     * Scratch file of a mapped store, null for a direct one
+     */
+    public Path scratchFile() {
+        return scratchFile;
+    }
+}
\ No newline at end of file
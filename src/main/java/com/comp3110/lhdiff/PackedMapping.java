@@ -0,0 +1,195 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.LHDiff.MappingResult;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * A mapping result as sorted primitive arrays, the form the result writers
+ * stream from: no boxed keys, no per-entry objects, already in output order
+ */
+public final class PackedMapping {
+    
+    /** 1:1 mappings: mappedOld[i] -> mappedNew[i], ascending by old line */
+    public final int[] mappedOld;
+    public final int[] mappedNew;
+    /** Splits: splitOld[i] -> splitNew[splitStart[i]..splitStart[i + 1]), ascending by old line */
+    public final int[] splitOld;
+    public final int[] splitStart;
+    public final int[] splitNew;
+    /** Unmapped lines, ascending */
+    public final int[] unmappedOld;
+    public final int[] unmappedNew;
+    
+    public PackedMapping(int[] mappedOld, int[] mappedNew, int[] splitOld, int[] splitStart, int[] splitNew,
+                         int[] unmappedOld, int[] unmappedNew) {
+        if (mappedOld.length != mappedNew.length || splitStart.length != splitOld.length + 1
+            || splitStart[splitOld.length] != splitNew.length) {
+            throw new IllegalArgumentException("Mapping arrays differ in length");
+        }
+        this.mappedOld = mappedOld;
+        this.mappedNew = mappedNew;
+        this.splitOld = splitOld;
+        this.splitStart = splitStart;
+        this.splitNew = splitNew;
+        this.unmappedOld = unmappedOld;
+        this.unmappedNew = unmappedNew;
+    }
+    
+    public static PackedMapping of(MappingResult result) {
+        return of(result.mappings, result.splits, result.unmappedOld, result.unmappedNew);
+    }
+    
+    /**
+     * Pack mappings held in collections (1-indexed line numbers)
+     */
+    public static PackedMapping of(Map<Integer, Integer> mappings, Map<Integer, List<Integer>> splits,
+                                   Collection<Integer> unmappedOld, Collection<Integer> unmappedNew) {
+        // Line numbers are positive, so (old << 32 | new) sorts by old line
+        long[] pairs = new long[mappings.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : mappings.entrySet()) {
+            pairs[i++] = ((long) entry.getKey() << 32) | (entry.getValue() & 0xFFFFFFFFL);
+        }
+        Arrays.sort(pairs);
+        int[] mappedOld = new int[pairs.length];
+        int[] mappedNew = new int[pairs.length];
+        for (i = 0; i < pairs.length; i++) {
+            mappedOld[i] = (int) (pairs[i] >>> 32);
+            mappedNew[i] = (int) pairs[i];
+        }
+        
+        int[] splitOld = sorted(splits.keySet());
+        int[] splitStart = new int[splitOld.length + 1];
+        for (i = 0; i < splitOld.length; i++) {
+            splitStart[i + 1] = splitStart[i] + splits.get(splitOld[i]).size();
+        }
+        int[] splitNew = new int[splitStart[splitOld.length]];
+        for (i = 0; i < splitOld.length; i++) {
+            int at = splitStart[i];
+            for (int newLine : splits.get(splitOld[i])) {
+                splitNew[at++] = newLine;
+            }
+        }
+        
+        return new PackedMapping(mappedOld, mappedNew, splitOld, splitStart, splitNew,
+                                 sorted(unmappedOld), sorted(unmappedNew));
+    }
+    
+    private static int[] sorted(Collection<Integer> values) {
+        int[] array = new int[values.size()];
+        int i = 0;
+        for (int value : values) {
+            array[i++] = value;
+        }
+        Arrays.sort(array);
+        return array;
+    }
+    
+    /**
+     * Read a mapping written by ResultWriter.writeBinary; the stream is not closed
+     * 
+     * @throws IOException if the stream is not in that format or ends early
+     */
+    public static PackedMapping readBinary(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != ResultWriter.BINARY_MAGIC) {
+            throw new IOException("Not an LHDiff binary mapping");
+        }
+        
+        int count = readCount(data);
+        int[] mappedOld = new int[count];
+        int[] mappedNew = new int[count];
+        int previousOld = 0;
+        int previousNew = 0;
+        for (int i = 0; i < count; i++) {
+            mappedOld[i] = previousOld += readVarint(data);
+            mappedNew[i] = previousNew += zigzagDecode(readVarint(data));
+        }
+        
+        count = readCount(data);
+        int[] splitOld = new int[count];
+        int[] splitStart = new int[count + 1];
+        int[][] splitLines = new int[count][];
+        previousOld = 0;
+        for (int i = 0; i < count; i++) {
+            splitOld[i] = previousOld += readVarint(data);
+            int[] lines = splitLines[i] = new int[readCount(data)];
+            int previous = splitOld[i];
+            for (int j = 0; j < lines.length; j++) {
+                lines[j] = previous += zigzagDecode(readVarint(data));
+            }
+            splitStart[i + 1] = splitStart[i] + lines.length;
+        }
+        int[] splitNew = new int[splitStart[count]];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(splitLines[i], 0, splitNew, splitStart[i], splitLines[i].length);
+        }
+        
+        return new PackedMapping(mappedOld, mappedNew, splitOld, splitStart, splitNew,
+                                 readAscending(data), readAscending(data));
+    }
+    
+    private static int[] readAscending(DataInputStream data) throws IOException {
+        int[] values = new int[readCount(data)];
+        int previous = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = previous += readVarint(data);
+        }
+        return values;
+    }
+    
+    private static int readCount(DataInputStream data) throws IOException {
+        int count = readVarint(data);
+        if (count < 0) {
+            throw new IOException("Corrupt LHDiff binary mapping: negative count");
+        }
+        return count;
+    }
+    
+    private static int readVarint(DataInputStream data) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = data.read();
+            if (b < 0) {
+                throw new EOFException("LHDiff binary mapping ends early");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt LHDiff binary mapping: varint too long");
+    }
+    
+    private static int zigzagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    /**
+     * Back to the collection form of MappingResult
+     */
+    public Map<Integer, Integer> mappings() {
+        Map<Integer, Integer> mappings = new HashMap<>();
+        for (int i = 0; i < mappedOld.length; i++) {
+            mappings.put(mappedOld[i], mappedNew[i]);
+        }
+        return mappings;
+    }
+    
+    public Map<Integer, List<Integer>> splits() {
+        Map<Integer, List<Integer>> splits = new HashMap<>();
+        for (int i = 0; i < splitOld.length; i++) {
+            List<Integer> lines = new ArrayList<>();
+            for (int j = splitStart[i]; j < splitStart[i + 1]; j++) {
+                lines.add(splitNew[j]);
+            }
+            splits.put(splitOld[i], lines);
+        }
+        return splits;
+    }
+}
\ No newline at end of file
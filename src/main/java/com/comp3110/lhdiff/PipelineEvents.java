@@ -0,0 +1,40 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.StageStats.Stage;
+
+/**
+ * Publishes one pair's mapping to JDK Flight Recorder.
+ * This is the Java 8 version, which records nothing; the multi-release JAR
+ * replaces this class on Java 11+ with one that commits jdk.jfr events
+ * (src/main/java11).
+ */
+final class PipelineEvents {
+    
+    static final PipelineEvents NONE = new PipelineEvents();
+    
+    private PipelineEvents() {
+    }
+    
+    /**
+     * Start timing a pair; sources are file names, or null for text held in memory
+     */
+    static PipelineEvents begin(String oldSource, String newSource) {
+        return NONE;
+    }
+    
+    void stage(Stage stage, long elapsedNanos) {
+    }
+    
+    /**
+     * The pair is mapped; stats holds its stage timings and counters
+     */
+    void end(StageStats stats, int oldLines, int newLines, boolean partial, long latencyTargetMillis) {
+    }
+    
+    /**
+     * Name of the implementation in use, for diagnostics
+     */
+    static String implementation() {
+        return "none";
+    }
+}
\ No newline at end of file
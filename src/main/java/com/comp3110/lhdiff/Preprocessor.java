@@ -1,10 +1,15 @@
 package com.comp3110.lhdiff;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * Step 1: Preprocessor
@@ -12,6 +17,10 @@ import java.util.List;
  */
 public class Preprocessor {
     
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern SLASH_COMMENT = Pattern.compile("//.*$");
+    private static final Pattern HASH_COMMENT = Pattern.compile("#.*$");
+    
     /**
      * Normalize a single line:
      * - Remove leading/trailing spaces
@@ -22,27 +31,148 @@ public class Preprocessor {
         // Remove leading and trailing whitespace
         String normalized = line.trim();
         
+        if (!hasUnicodeLineTerminator(normalized)) {
+            return normalizeTrimmed(normalized);
+        }
+        
         // Replace multiple spaces with single space
-        normalized = normalized.replaceAll("\\s+", " ");
+        normalized = WHITESPACE.matcher(normalized).replaceAll(" ");
         
         // Remove common single-line comments
-        normalized = normalized.replaceAll("//.*$", ""); // Remove // comments
-        normalized = normalized.replaceAll("#.*$", "");  // Remove # comments
+        normalized = SLASH_COMMENT.matcher(normalized).replaceAll(""); // Remove // comments
+        normalized = HASH_COMMENT.matcher(normalized).replaceAll("");  // Remove # comments
         normalized = normalized.trim();
         
         return normalized;
     }
     
+    /**
+     * The regular expressions above in one pass over the thread's scratch
+     * builder. Without U+0085, U+2028 or U+2029 (which '.' does not match)
+     * each comment pattern simply cuts the line at its first "//" or '#'.
+     * Lines that need no change are returned as they are.
+     */
+    private static String normalizeTrimmed(String line) {
+        StringBuilder normalized = Scratch.get().normalized;
+        normalized.setLength(0);
+        boolean changed = false;
+        boolean inSpace = false;
+        
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r') {
+                if (inSpace || c != ' ') {
+                    changed = true;
+                }
+                if (!inSpace) {
+                    normalized.append(' ');
+                    inSpace = true;
+                }
+            } else {
+                normalized.append(c);
+                inSpace = false;
+            }
+        }
+        
+        int end = normalized.indexOf("//");
+        if (end < 0) {
+            end = normalized.length();
+        }
+        int hash = normalized.indexOf("#");
+        if (hash >= 0 && hash < end) {
+            end = hash;
+        }
+        
+        // trim(): drop characters up to ' ' at both ends
+        int start = 0;
+        while (start < end && normalized.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && normalized.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        
+        if (!changed && start == 0 && end == normalized.length()) {
+            return line;
+        }
+        return normalized.substring(start, end);
+    }
+    
+    private static boolean hasUnicodeLineTerminator(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == 0x85 || c == 0x2028 || c == 0x2029) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
     /**
      * Read a file and return both original and normalized lines
      */
     public FileLines preprocessFile(String filepath) throws IOException {
-        List<String> allLines = Files.readAllLines(Paths.get(filepath));
-        
-        List<String> originalLines = new ArrayList<>();
-        List<String> normalizedLines = new ArrayList<>();
+        return preprocessLines(Files.readAllLines(Paths.get(filepath)));
+    }
+    
+    /**
+     * Preprocess text held in memory (lines end at \n, \r or \r\n)
+     */
+    public FileLines preprocessText(CharSequence text) {
+        return preprocessLines(splitLines(text));
+    }
+    
+    /**
+     * Preprocess encoded file content held in memory
+     */
+    public FileLines preprocessBytes(byte[] content, Charset charset) {
+        return preprocessText(new String(content, charset));
+    }
+    
+    /**
+     * Preprocess content read from a stream; the stream is not closed
+     */
+    public FileLines preprocessStream(InputStream in, Charset charset) throws IOException {
+        return preprocessLines(readLines(in, charset));
+    }
+    
+    /**
+     * Preprocess content read from a stream into off-heap storage: original
+     * and normalized lines go straight into the store as they are read, so
+     * the heap never holds the file; the stream is not closed
+     */
+    public FileLines preprocessStream(InputStream in, Charset charset, OffHeapStore store) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, charset));
+        OffHeapLines.Builder original = new OffHeapLines.Builder(store);
+        OffHeapLines.Builder normalized = new OffHeapLines.Builder(store);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            original.add(line);
+            normalized.add(normalizeLine(line));
+        }
+        return new FileLines(original.build(), normalized.build());
+    }
+    
+    /**
+     * Normalize lines that are already in memory
+     */
+    public FileLines preprocessLines(List<String> allLines) {
+        return preprocessLines(allLines, CancellationToken.NONE);
+    }
+    
+    /**
+     * Normalize lines, polling the token every 1024 lines
+     * 
+     * @throws CancellationToken.Cancelled if the token is cancelled first
+     */
+    public FileLines preprocessLines(List<String> allLines, CancellationToken token) {
+        List<String> originalLines = new ArrayList<>(allLines.size());
+        List<String> normalizedLines = new ArrayList<>(allLines.size());
         
         for (String line : allLines) {
+            if ((originalLines.size() & 1023) == 0) {
+                token.throwIfCancelled();
+            }
             originalLines.add(line);
             normalizedLines.add(normalizeLine(line));
         }
@@ -50,6 +180,46 @@ public class Preprocessor {
         return new FileLines(originalLines, normalizedLines);
     }
     
+    /**
+     * Split text into lines the same way Files.readAllLines does:
+     * \n, \r and \r\n all end a line and a trailing terminator adds no empty line
+     */
+    public static List<String> splitLines(CharSequence text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        int length = text.length();
+        
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                lines.add(text.subSequence(start, i).toString());
+                if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        
+        if (start < length) {
+            lines.add(text.subSequence(start, length).toString());
+        }
+        
+        return lines;
+    }
+    
+    /**
+     * Read all lines from a stream; the stream is not closed
+     */
+    public static List<String> readLines(InputStream in, Charset charset) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, charset));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+    
     /**
      * Container class to hold both original and normalized lines
      */
@@ -0,0 +1,74 @@
+package com.comp3110.lhdiff;
+
+import java.util.Arrays;
+
+/**
+ * q-gram count filter for edit distance.
+ * By the q-gram lemma, two texts within edit distance d share at least
+ * max(|a|, |b|) - q + 1 - q * d of their q-grams (counted as multisets), so
+ * the number they do share bounds the distance from below. A fingerprint is
+ * the sorted hashes of a text's q-grams; hash collisions can only raise the
+ * shared count and so only loosen the bound, never break it.
+ */
+final class QGrams {
+    
+    static final int Q = 3;
+    
+    private static final int[] NONE = new int[0];
+    
+    private QGrams() {
+    }
+    
+    /**
+     * Sorted hashes of every q-gram of text
+     */
+    static int[] fingerprint(CharSequence text) {
+        int count = text.length() - Q + 1;
+        if (count <= 0) {
+            return NONE;
+        }
+        
+        int[] grams = new int[count];
+        for (int i = 0; i < count; i++) {
+            int hash = 0;
+            for (int k = 0; k < Q; k++) {
+                hash = (hash << 16 | hash >>> 16) * 0x9E3779B1 + text.charAt(i + k);
+            }
+            grams[i] = hash;
+        }
+        Arrays.sort(grams);
+        return grams;
+    }
+    
+    /**
+     * Size of the multiset intersection of two fingerprints
+     */
+    static int common(int[] left, int[] right) {
+        int i = 0;
+        int j = 0;
+        int shared = 0;
+        while (i < left.length && j < right.length) {
+            if (left[i] < right[j]) {
+                i++;
+            } else if (left[i] > right[j]) {
+                j++;
+            } else {
+                shared++;
+                i++;
+                j++;
+            }
+        }
+        return shared;
+    }
+    
+    /**
+     * Smallest edit distance two texts of these lengths sharing at most
+     * shared q-grams can have
+     */
+    static int distanceLowerBound(int leftLength, int rightLength, int shared) {
+        int byLength = Math.abs(leftLength - rightLength);
+        int missing = Math.max(leftLength, rightLength) - Q + 1 - shared;
+        int byGrams = missing <= 0 ? 0 : (missing + Q - 1) / Q;
+        return Math.max(byLength, byGrams);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,213 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.LHDiff.MappingResult;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming result writers
+ * Write a mapping straight to a Writer or OutputStream, in order, from the
+ * primitive arrays of a PackedMapping: numbers are formatted into a small
+ * char buffer, so no string of the whole result is ever built.
+ * 
+ * Formats:
+ *   TEXT   - the LHDiff output format, "old-new" and "old-[new,new,...]" lines
+ *   JSON   - the ground_truth.json layout
+ *   BINARY - "LHDB", then varint counts and deltas: ascending line numbers as
+ *            unsigned deltas, new lines of 1:1 mappings as zigzag deltas from
+ *            the previous one, new lines of a split as zigzag deltas starting
+ *            from its old line
+ */
+public class ResultWriter {
+    
+    /**
+     * Output formats
+     */
+    public enum Format {
+        TEXT, JSON, BINARY
+    }
+    
+    /** "LHDB" */
+    static final int BINARY_MAGIC = 0x4C484442;
+    
+    private final char[] digits = new char[11];
+    
+    private ResultWriter() {
+    }
+    
+    /**
+     * Write a result in the given format; out is flushed but not closed
+     */
+    public static void write(MappingResult result, Format format, OutputStream out) throws IOException {
+        write(PackedMapping.of(result), format, out);
+    }
+    
+    public static void write(PackedMapping mapping, Format format, OutputStream out) throws IOException {
+        if (format == Format.BINARY) {
+            BufferedOutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+            writeBinary(mapping, buffered);
+            buffered.flush();
+            return;
+        }
+        
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        if (format == Format.JSON) {
+            writeJson(mapping, writer);
+        } else {
+            writeText(mapping, writer);
+        }
+        writer.flush();
+    }
+    
+    /**
+     * The LHDiff output format: 1:1 mappings as "old-new", then splits as
+     * "old-[new,new,...]", one per line in old line order
+     */
+    public static void writeText(PackedMapping mapping, Writer out) throws IOException {
+        ResultWriter writer = new ResultWriter();
+        
+        for (int i = 0; i < mapping.mappedOld.length; i++) {
+            writer.writeInt(out, mapping.mappedOld[i]);
+            out.write('-');
+            writer.writeInt(out, mapping.mappedNew[i]);
+            out.write('\n');
+        }
+        
+        for (int i = 0; i < mapping.splitOld.length; i++) {
+            writer.writeInt(out, mapping.splitOld[i]);
+            out.write("-[");
+            for (int j = mapping.splitStart[i]; j < mapping.splitStart[i + 1]; j++) {
+                if (j > mapping.splitStart[i]) {
+                    out.write(',');
+                }
+                writer.writeInt(out, mapping.splitNew[j]);
+            }
+            out.write("]\n");
+        }
+    }
+    
+    /**
+     * The ground_truth.json layout, as written for the datasets
+     */
+    public static void writeJson(PackedMapping mapping, Writer out) throws IOException {
+        writeJsonFields(mapping, out);
+        out.write("\n}");
+    }
+    
+    /**
+     * The ground_truth.json layout without its closing brace, so callers can
+     * append fields of their own
+     */
+    static void writeJsonFields(PackedMapping mapping, Writer out) throws IOException {
+        ResultWriter writer = new ResultWriter();
+        
+        out.write("{\n  \"mappings\": {");
+        for (int i = 0; i < mapping.mappedOld.length; i++) {
+            out.write(i == 0 ? "\n    \"" : ",\n    \"");
+            writer.writeInt(out, mapping.mappedOld[i]);
+            out.write("\": ");
+            writer.writeInt(out, mapping.mappedNew[i]);
+        }
+        out.write(mapping.mappedOld.length == 0 ? "},\n" : "\n  },\n");
+        
+        out.write("  \"splits\": {");
+        for (int i = 0; i < mapping.splitOld.length; i++) {
+            out.write(i == 0 ? "\n    \"" : ",\n    \"");
+            writer.writeInt(out, mapping.splitOld[i]);
+            out.write("\": ");
+            writer.writeArray(out, mapping.splitNew, mapping.splitStart[i], mapping.splitStart[i + 1]);
+        }
+        out.write(mapping.splitOld.length == 0 ? "},\n" : "\n  },\n");
+        
+        out.write("  \"unmapped_old\": ");
+        writer.writeArray(out, mapping.unmappedOld, 0, mapping.unmappedOld.length);
+        out.write(",\n  \"unmapped_new\": ");
+        writer.writeArray(out, mapping.unmappedNew, 0, mapping.unmappedNew.length);
+    }
+    
+    /**
+     * The compact binary format (see the class comment); read it back with
+     * PackedMapping.readBinary
+     */
+    public static void writeBinary(PackedMapping mapping, OutputStream out) throws IOException {
+        out.write(BINARY_MAGIC >>> 24);
+        out.write(BINARY_MAGIC >>> 16);
+        out.write(BINARY_MAGIC >>> 8);
+        out.write(BINARY_MAGIC);
+        
+        writeVarint(out, mapping.mappedOld.length);
+        int previousOld = 0;
+        int previousNew = 0;
+        for (int i = 0; i < mapping.mappedOld.length; i++) {
+            writeVarint(out, mapping.mappedOld[i] - previousOld);
+            writeVarint(out, zigzagEncode(mapping.mappedNew[i] - previousNew));
+            previousOld = mapping.mappedOld[i];
+            previousNew = mapping.mappedNew[i];
+        }
+        
+        writeVarint(out, mapping.splitOld.length);
+        previousOld = 0;
+        for (int i = 0; i < mapping.splitOld.length; i++) {
+            writeVarint(out, mapping.splitOld[i] - previousOld);
+            previousOld = mapping.splitOld[i];
+            writeVarint(out, mapping.splitStart[i + 1] - mapping.splitStart[i]);
+            int previous = mapping.splitOld[i];
+            for (int j = mapping.splitStart[i]; j < mapping.splitStart[i + 1]; j++) {
+                writeVarint(out, zigzagEncode(mapping.splitNew[j] - previous));
+                previous = mapping.splitNew[j];
+            }
+        }
+        
+        writeAscending(out, mapping.unmappedOld);
+        writeAscending(out, mapping.unmappedNew);
+    }
+    
+    private static void writeAscending(OutputStream out, int[] values) throws IOException {
+        writeVarint(out, values.length);
+        int previous = 0;
+        for (int value : values) {
+            writeVarint(out, value - previous);
+            previous = value;
+        }
+    }
+    
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+    
+    private static int zigzagEncode(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+    
+    private void writeArray(Writer out, int[] values, int from, int to) throws IOException {
+        out.write('[');
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                out.write(", ");
+            }
+            writeInt(out, values[i]);
+        }
+        out.write(']');
+    }
+    
+    /**
+     * Decimal digits of value, formatted right to left into the digit buffer
+     */
+    private void writeInt(Writer out, int value) throws IOException {
+        long remaining = Math.abs((long) value);
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (value < 0) {
+            out.write('-');
+        }
+        out.write(digits, pos, digits.length - pos);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,106 @@
+package com.comp3110.lhdiff;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Per-thread scratch buffers for the mapping stages.
+ * 
+ * An LHDiff is shared by every thread that maps with it, so the stages keep
+ * nothing per call in their fields. Buffers worth reusing from one call to
+ * the next (DP rows, token hashes, candidate keys, text builders, ...) live
+ * here instead, one set per thread, and grow to the largest input seen.
+ * Arrays over MAX_RETAINED elements are handed out fresh and not kept, so one
+ * huge mapping does not pin its buffers for the life of the thread.
+ * 
+ * Each buffer has a single user; a stage must not call another stage that
+ * uses the same buffer while it holds one.
+ */
+final class Scratch {
+    
+    /** Largest array kept between calls (4 MB of ints, a 1000 x 1000 LCS table) */
+    static final int MAX_RETAINED = 1 << 20;
+    
+    private static final ThreadLocal<Scratch> CURRENT = ThreadLocal.withInitial(Scratch::new);
+    
+    /** MD5 for token hashing, or null if the JVM has none */
+    final MessageDigest md5;
+    final byte[] digest = new byte[16];
+    
+    /** Text of one line or context window being built up, and a second one to compare it with */
+    final StringBuilder text = new StringBuilder();
+    final StringBuilder otherText = new StringBuilder();
+    /** Normalized line being built by the preprocessor */
+    final StringBuilder normalized = new StringBuilder();
+    /** Distinct context words for cosine similarity */
+    final TokenSet words = new TokenSet();
+    final TokenSet otherWords = new TokenSet();
+    
+    // Slots of the array buffers
+    static final int LCS_TABLE = 0;
+    static final int LEVENSHTEIN_ROW = 1;
+    static final int CANDIDATE_KEYS = 2;
+    static final int TOKEN_HASHES = 0;
+    static final int PICKED_CANDIDATES = 1;
+    
+    private final int[][] ints = {new int[0], new int[0], new int[0]};
+    private final long[][] longs = {new long[0], new long[0]};
+    private byte[] bytes = new byte[0];
+    
+    private Scratch() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            digest = null;
+        }
+        this.md5 = digest;
+    }
+    
+    /**
+     * The calling thread's scratch buffers
+     */
+    static Scratch get() {
+        return CURRENT.get();
+    }
+    
+    /**
+     * Int buffer of at least length elements, holding whatever the last user
+     * of the slot left in it
+     */
+    int[] ints(int slot, int length) {
+        int[] buffer = ints[slot];
+        if (length <= buffer.length) {
+            return buffer;
+        }
+        if (length > MAX_RETAINED) {
+            return new int[length];
+        }
+        // Doubled, so a slowly growing input does not reallocate on every call
+        return ints[slot] = new int[Math.min(Math.max(length, 2 * buffer.length), MAX_RETAINED)];
+    }
+    
+    long[] longs(int slot, int length) {
+        long[] buffer = longs[slot];
+        if (length <= buffer.length) {
+            return buffer;
+        }
+        if (length > MAX_RETAINED) {
+            return new long[length];
+        }
+        return longs[slot] = new long[Math.min(Math.max(length, 2 * buffer.length), MAX_RETAINED)];
+    }
+    
+    /**
+     * Buffer for the bytes of one token
+     */
+    byte[] bytes(int length) {
+        if (length <= bytes.length) {
+            return bytes;
+        }
+        if (length > MAX_RETAINED) {
+            return new byte[length];
+        }
+        return bytes = new byte[Math.min(Math.max(length, 2 * bytes.length), MAX_RETAINED)];
+    }
+}
\ No newline at end of file
@@ -1,7 +1,9 @@
 package com.comp3110.lhdiff;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -12,6 +14,13 @@ public class SimHash {
     
     private static final int HASH_BITS = 64;
     
+    // tokenize lower-cases with the default locale and hashes the default
+    // encoding; the ASCII scans below agree with that wherever 'I' lower-cases
+    // to 'i' and ASCII encodes as itself, i.e. everywhere but Turkish locales
+    private static final boolean ASCII_SCAN =
+        "I".toLowerCase().equals("i")
+        && Arrays.equals("Az09_".getBytes(), new byte[] {'A', 'z', '0', '9', '_'});
+    
     /**
      * Compute SimHash value for a list of tokens (words)
      * 
@@ -23,52 +32,121 @@ public class SimHash {
             return 0L;
         }
         
-        int[] vector = new int[HASH_BITS];
-        
-        // Process each token
+        Scratch scratch = Scratch.get();
+        long[] hashes = scratch.longs(Scratch.TOKEN_HASHES, tokens.size());
+        int count = 0;
         for (String token : tokens) {
-            long hash = hashToken(token);
-            
-            // Update vector based on hash bits
-            for (int i = 0; i < HASH_BITS; i++) {
-                long bit = (hash >> i) & 1;
-                if (bit == 1) {
-                    vector[i]++;
-                } else {
-                    vector[i]--;
-                }
+            byte[] bytes = token.getBytes();
+            hashes[count++] = hashToken(bytes, bytes.length, scratch);
+        }
+        
+        // Bit i of the SimHash is set when more than half of the tokens have it set
+        return SimHashFold.fold(hashes, count);
+    }
+    
+    /**
+     * SimHash of the words of a text; same value as compute(tokenize(text)),
+     * but ASCII text is scanned in place with the calling thread's scratch
+     * buffers, so no token strings are created
+     */
+    public static long computeText(CharSequence text) {
+        if (!isAsciiText(text)) {
+            return compute(tokenize(text.toString()));
+        }
+        
+        Scratch scratch = Scratch.get();
+        int length = text.length();
+        long[] hashes = scratch.longs(Scratch.TOKEN_HASHES, (length + 1) / 2);
+        byte[] bytes = scratch.bytes(length);
+        int count = 0;
+        
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (!isWordChar(c)) {
+                i++;
+                continue;
+            }
+            int tokenLength = 0;
+            while (i < length && isWordChar(c = text.charAt(i))) {
+                bytes[tokenLength++] = (byte) toLowerAscii(c);
+                i++;
             }
+            hashes[count++] = hashToken(bytes, tokenLength, scratch);
         }
         
-        // Generate final hash from vector
-        long simhash = 0L;
-        for (int i = 0; i < HASH_BITS; i++) {
-            if (vector[i] > 0) {
-                simhash |= (1L << i);
+        return SimHashFold.fold(hashes, count);
+    }
+    
+    /**
+     * Fold token hashes into a SimHash with bit-sliced counters: plane b holds
+     * bit b of all 64 per-position counts, so adding a token is a ripple-carry
+     * add over whole words instead of 64 per-bit branches, and the final
+     * "count > half" test is one word-wide comparison
+     * 
+     * @param hashes Token hashes; only the first count are used
+     */
+    public static long foldBitSliced(long[] hashes, int count) {
+        if (count == 0) {
+            return 0L;
+        }
+        
+        int planes = 32 - Integer.numberOfLeadingZeros(count);
+        long[] plane = new long[planes];
+        for (int t = 0; t < count; t++) {
+            long carry = hashes[t];
+            for (int b = 0; carry != 0; b++) {
+                long sum = plane[b] ^ carry;
+                carry &= plane[b];
+                plane[b] = sum;
             }
         }
         
-        return simhash;
+        return majority(plane, planes, count);
     }
     
     /**
-     * Hash a single token using MD5
+     * Positions whose bit-sliced count (plane[0..planes-1]) is more than half
+     * of count, compared against the threshold from the top plane down
      */
-    private static long hashToken(String token) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] digest = md.digest(token.getBytes());
-            
-            // Convert first 8 bytes to long
-            long hash = 0;
-            for (int i = 0; i < Math.min(8, digest.length); i++) {
-                hash = (hash << 8) | (digest[i] & 0xFF);
+    static long majority(long[] plane, int planes, int count) {
+        int threshold = count / 2 + 1;
+        long greater = 0L;
+        long equal = ~0L;
+        for (int b = planes - 1; b >= 0; b--) {
+            long thresholdBit = -((long) (threshold >>> b) & 1L);
+            greater |= equal & plane[b] & ~thresholdBit;
+            equal &= ~(plane[b] ^ thresholdBit);
+        }
+        
+        return greater | equal;
+    }
+    
+    /**
+     * Hash a single token using MD5 (the thread's digest, reused)
+     * 
+     * @param bytes The encoded token in bytes[0..length)
+     */
+    private static long hashToken(byte[] bytes, int length, Scratch scratch) {
+        MessageDigest md = scratch.md5;
+        if (md != null) {
+            try {
+                md.update(bytes, 0, length);
+                md.digest(scratch.digest, 0, scratch.digest.length);
+                
+                // Convert first 8 bytes to long
+                long hash = 0;
+                for (int i = 0; i < 8; i++) {
+                    hash = (hash << 8) | (scratch.digest[i] & 0xFF);
+                }
+                return hash;
+            } catch (DigestException e) {
+                md.reset();
             }
-            return hash;
-        } catch (Exception e) {
-            // Fallback to hashCode if MD5 not available
-            return token.hashCode();
         }
+        
+        // Fallback to hashCode if MD5 not available
+        return new String(bytes, 0, length).hashCode();
     }
     
     /**
@@ -98,6 +176,23 @@ public class SimHash {
             return tokens;
         }
         
+        if (isAsciiText(text)) {
+            int length = text.length();
+            int i = 0;
+            while (i < length) {
+                if (!isWordChar(text.charAt(i))) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                while (i < length && isWordChar(text.charAt(i))) {
+                    i++;
+                }
+                tokens.add(text.substring(start, i).toLowerCase());
+            }
+            return tokens;
+        }
+        
         // Split on non-alphanumeric characters
         String[] words = text.toLowerCase().split("\\W+");
         
@@ -110,6 +205,33 @@ public class SimHash {
         return tokens;
     }
     
+    /**
+     * Whether text can be split with the plain ASCII scan (isWordChar runs,
+     * lower-cased with toLowerAscii) and give the same words as tokenize
+     */
+    static boolean isAsciiText(CharSequence text) {
+        if (!ASCII_SCAN) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * The characters \w matches: [a-zA-Z_0-9]
+     */
+    static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+    
+    static char toLowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+    
     // Test method
     public static void main(String[] args) {
         // Test tokenization
@@ -0,0 +1,177 @@
+package com.comp3110.lhdiff;
+
+import java.util.*;
+
+/**
+ * SimHash fold benchmark
+ * Times folding token hashes into a SimHash with the original per-bit loop,
+ * the bit-sliced fold and whatever SimHashFold uses on this JVM (the Vector
+ * API version when run from the jar on Java 17+ with
+ * --add-modules jdk.incubator.vector)
+ */
+public class SimHashBenchmark {
+    
+    private final int warmupRounds;
+    private final int rounds;
+    private final int tokensPerRound;
+    private long checksum;
+    
+    /**
+     * @param tokensPerRound Tokens each variant folds per round, split into as
+     *                       many folds as the token count allows
+     */
+    public SimHashBenchmark(int warmupRounds, int rounds, int tokensPerRound) {
+        this.warmupRounds = warmupRounds;
+        this.rounds = rounds;
+        this.tokensPerRound = tokensPerRound;
+    }
+    
+    /**
+     * Best-of-rounds nanoseconds per fold for one token count
+     * 
+     * @return {per-bit loop, bit-sliced, SimHashFold}
+     */
+    public double[] run(int tokens, long seed) {
+        Random random = new Random(seed);
+        long[][] inputs = new long[64][tokens];
+        for (long[] hashes : inputs) {
+            for (int t = 0; t < tokens; t++) {
+                hashes[t] = random.nextLong();
+            }
+        }
+        
+        // All three must agree before any of them is worth timing
+        for (long[] hashes : inputs) {
+            long expected = foldPerBit(hashes, tokens);
+            if (SimHash.foldBitSliced(hashes, tokens) != expected
+                || SimHashFold.fold(hashes, tokens) != expected) {
+                throw new IllegalStateException("SimHash folds disagree for " + tokens + " tokens");
+            }
+        }
+        
+        int folds = Math.max(1000, tokensPerRound / tokens);
+        double[] best = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        for (int round = 0; round < warmupRounds + rounds; round++) {
+            // One loop per variant so the JIT compiles each fold on its own
+            long start = System.nanoTime();
+            checksum += foldAllPerBit(inputs, tokens, folds);
+            long perBitNanos = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            checksum += foldAllBitSliced(inputs, tokens, folds);
+            long bitSlicedNanos = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            checksum += foldAll(inputs, tokens, folds);
+            long foldNanos = System.nanoTime() - start;
+            
+            if (round >= warmupRounds) {
+                best[0] = Math.min(best[0], (double) perBitNanos / folds);
+                best[1] = Math.min(best[1], (double) bitSlicedNanos / folds);
+                best[2] = Math.min(best[2], (double) foldNanos / folds);
+            }
+        }
+        
+        return best;
+    }
+    
+    /**
+     * Sum of every SimHash folded so far; main prints it, which keeps the
+     * results live so the folds cannot be optimized away
+     */
+    public long checksum() {
+        return checksum;
+    }
+    
+    private static long foldAllPerBit(long[][] inputs, int tokens, int folds) {
+        long checksum = 0;
+        for (int i = 0; i < folds; i++) {
+            checksum += foldPerBit(inputs[i & 63], tokens);
+        }
+        return checksum;
+    }
+    
+    private static long foldAllBitSliced(long[][] inputs, int tokens, int folds) {
+        long checksum = 0;
+        for (int i = 0; i < folds; i++) {
+            checksum += SimHash.foldBitSliced(inputs[i & 63], tokens);
+        }
+        return checksum;
+    }
+    
+    private static long foldAll(long[][] inputs, int tokens, int folds) {
+        long checksum = 0;
+        for (int i = 0; i < folds; i++) {
+            checksum += SimHashFold.fold(inputs[i & 63], tokens);
+        }
+        return checksum;
+    }
+    
+    /**
+     * The fold SimHash.compute used before the bit-sliced version: one signed
+     * counter per bit position, adjusted with a branch per token and bit
+     */
+    static long foldPerBit(long[] hashes, int count) {
+        int[] vector = new int[64];
+        for (int t = 0; t < count; t++) {
+            long hash = hashes[t];
+            for (int i = 0; i < 64; i++) {
+                long bit = (hash >> i) & 1;
+                if (bit == 1) {
+                    vector[i]++;
+                } else {
+                    vector[i]--;
+                }
+            }
+        }
+        
+        long simhash = 0L;
+        for (int i = 0; i < 64; i++) {
+            if (vector[i] > 0) {
+                simhash |= (1L << i);
+            }
+        }
+        return simhash;
+    }
+    
+    /**
+     * Main method - Command line interface
+     */
+    public static void main(String[] args) {
+        List<Integer> tokenCounts = new ArrayList<>(Arrays.asList(5, 20, 200));
+        int warmup = 5;
+        int rounds = 5;
+        int tokensPerRound = 2000000;
+        
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--tokens":
+                    tokenCounts.clear();
+                    for (String count : args[++i].split(",")) {
+                        tokenCounts.add(Integer.parseInt(count.trim()));
+                    }
+                    break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                case "--work": tokensPerRound = Integer.parseInt(args[++i]); break;
+                default:
+                    System.out.println("Usage: java SimHashBenchmark [--tokens 5,20,...] [--warmup N] [--rounds N] [--work TOKENS]");
+                    return;
+            }
+        }
+        
+        SimHashBenchmark benchmark = new SimHashBenchmark(warmup, rounds, tokensPerRound);
+        
+        System.out.println("SimHash fold, best of " + rounds + " rounds; SimHashFold = "
+                           + SimHashFold.implementation());
+        System.out.println(String.format("  %-8s %14s %14s %14s %10s",
+                           "tokens", "per-bit ns", "bit-sliced ns", "SimHashFold ns", "speedup"));
+        for (int tokens : tokenCounts) {
+            double[] nanos = benchmark.run(tokens, tokens);
+            System.out.println(String.format("  %-8d %14.1f %14.1f %14.1f %9.1fx",
+                               tokens, nanos[0], nanos[1], nanos[2],
+                               nanos[0] / Math.min(nanos[1], nanos[2])));
+        }
+        System.out.println(String.format("  Checksum: %016x", benchmark.checksum()));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,24 @@
+package com.comp3110.lhdiff;
+
+/**
+ * Folds token hashes into a SimHash value.
+ * This is the Java 8 version; the multi-release JAR replaces this class on
+ * Java 17+ with one that uses the Vector API when jdk.incubator.vector is
+ * enabled (src/main/java17).
+ */
+final class SimHashFold {
+    
+    private SimHashFold() {
+    }
+    
+    static long fold(long[] hashes, int count) {
+        return SimHash.foldBitSliced(hashes, count);
+    }
+    
+    /**
+     * Name of the implementation in use, for benchmarks and diagnostics
+     */
+    static String implementation() {
+        return "bit-sliced";
+    }
+}
\ No newline at end of file
@@ -8,16 +8,62 @@ import java.util.*;
  */
 public class SimHashGenerator {
     
+    /**
+     * How Step 3 searches the right lines for candidates
+     */
+    public enum Search {
+        /** Score every left line against every right line */
+        EXHAUSTIVE,
+        /** Score only right lines sharing an LSH bucket (generateCandidatesLsh) */
+        LSH
+    }
+    
     private final int kCandidates;
+    private final int minCandidates;
+    private final double maxScoreGap;
+    private final double minScore;
     private static final int CONTEXT_WINDOW = 4; // Lines above/below for context
     private static final int MAX_HASH_DISTANCE = 64; // For 64-bit hash
+    // Packed scans rank pairs by 3 * contentDist + 2 * contextDist, which orders
+    // them exactly like the 60/40 combined similarity (= 1 - key / 320)
+    private static final int MAX_DISTANCE_KEY = 5 * MAX_HASH_DISTANCE;
+    private static final int LSH_BANDS = 8; // Bands per 64-bit hash, one every 8 bits
+    private static final int LSH_BAND_BITS = 16; // Most bits per band; bands overlap their neighbours
+    private static final int LSH_TABLES = 2 * LSH_BANDS; // Content and context bands
+    private static final int LSH_MAX_SCORED = 1024; // Cap on right lines scored per left line
+    private static final int LSH_MAX_VISITED = 256; // Cap on lines of one bucket visited per left line
     
     public SimHashGenerator() {
         this(15); // Default: top 15 candidates
     }
     
     public SimHashGenerator(int kCandidates) {
+        this(kCandidates, kCandidates, 1.0, 0.0);
+    }
+    
+    /**
+     * Adaptive candidate count: past the first minCandidates, a list is cut
+     * at the first candidate scoring more than maxScoreGap below the best one
+     * or below minScore, so a line whose best candidate is clearly ahead sends
+     * fewer pairs to Step 4
+     * 
+     * @param kCandidates Most candidates kept per line
+     * @param minCandidates Fewest candidates kept per line (when there are that many)
+     * @param maxScoreGap Largest combined-similarity drop from the best candidate
+     * @param minScore Lowest combined similarity kept
+     */
+    public SimHashGenerator(int kCandidates, int minCandidates, double maxScoreGap, double minScore) {
         this.kCandidates = kCandidates;
+        this.minCandidates = Math.max(0, Math.min(minCandidates, kCandidates));
+        this.maxScoreGap = maxScoreGap;
+        this.minScore = minScore;
+    }
+    
+    /**
+     * Whether the candidate at a position of a list sorted best first is kept
+     */
+    private boolean keepCandidate(int position, double bestScore, double score) {
+        return position < minCandidates || (score >= bestScore - maxScoreGap && score >= minScore);
     }
     
     /**
@@ -29,10 +75,15 @@ public class SimHashGenerator {
      * @return Context as concatenated string
      */
     public String getContext(List<String> lines, int lineIdx, int window) {
+        StringBuilder context = new StringBuilder();
+        appendContext(lines, lineIdx, window, context);
+        return context.toString();
+    }
+    
+    private static void appendContext(List<String> lines, int lineIdx, int window, StringBuilder context) {
         int start = Math.max(0, lineIdx - window);
         int end = Math.min(lines.size(), lineIdx + window + 1);
         
-        StringBuilder context = new StringBuilder();
         for (int i = start; i < end; i++) {
             if (i != lineIdx) { // Exclude the line itself
                 if (context.length() > 0) {
@@ -41,8 +92,6 @@ public class SimHashGenerator {
                 context.append(lines.get(i));
             }
         }
-        
-        return context.toString();
     }
     
     /**
@@ -53,9 +102,23 @@ public class SimHashGenerator {
      * @return Map of line_number -> LineFeatures
      */
     public Map<Integer, LineFeatures> computeLineFeatures(List<String> lines, Set<Integer> lineNumbers) {
+        return computeLineFeatures(lines, lineNumbers, CancellationToken.NONE);
+    }
+    
+    /**
+     * Compute line features, stopping early once the token is cancelled and
+     * returning the features computed so far
+     */
+    public Map<Integer, LineFeatures> computeLineFeatures(List<String> lines, Set<Integer> lineNumbers,
+                                                          CancellationToken token) {
         Map<Integer, LineFeatures> features = new HashMap<>();
+        StringBuilder context = Scratch.get().text;
         
         for (int lineNum : lineNumbers) {
+            if (token.isCancelled()) {
+                break;
+            }
+            
             int lineIdx = lineNum - 1; // Convert to 0-indexed
             
             if (lineIdx < 0 || lineIdx >= lines.size()) {
@@ -63,12 +126,12 @@ public class SimHashGenerator {
             }
             
             // Content: the line itself
-            String content = lines.get(lineIdx);
-            long contentHash = SimHash.compute(SimHash.tokenize(content));
+            long contentHash = SimHash.computeText(lines.get(lineIdx));
             
             // Context: surrounding lines
-            String context = getContext(lines, lineIdx, CONTEXT_WINDOW);
-            long contextHash = SimHash.compute(SimHash.tokenize(context));
+            context.setLength(0);
+            appendContext(lines, lineIdx, CONTEXT_WINDOW, context);
+            long contextHash = SimHash.computeText(context);
             
             features.put(lineNum, new LineFeatures(contentHash, contextHash));
         }
@@ -101,9 +164,23 @@ public class SimHashGenerator {
      */
     public Map<Integer, List<Integer>> generateCandidates(Map<Integer, LineFeatures> leftFeatures,
                                                           Map<Integer, LineFeatures> rightFeatures) {
+        return generateCandidates(leftFeatures, rightFeatures, CancellationToken.NONE);
+    }
+    
+    /**
+     * Generate candidates, stopping early once the token is cancelled and
+     * returning candidates for the left lines processed so far
+     */
+    public Map<Integer, List<Integer>> generateCandidates(Map<Integer, LineFeatures> leftFeatures,
+                                                          Map<Integer, LineFeatures> rightFeatures,
+                                                          CancellationToken token) {
         Map<Integer, List<Integer>> candidates = new HashMap<>();
         
         for (Map.Entry<Integer, LineFeatures> leftEntry : leftFeatures.entrySet()) {
+            if (token.isCancelled()) {
+                break;
+            }
+            
             int leftLine = leftEntry.getKey();
             LineFeatures leftFeat = leftEntry.getValue();
             
@@ -126,6 +203,9 @@ public class SimHashGenerator {
             
             List<Integer> topK = new ArrayList<>();
             for (int i = 0; i < Math.min(kCandidates, similarities.size()); i++) {
+                if (!keepCandidate(i, similarities.get(0).score, similarities.get(i).score)) {
+                    break;
+                }
                 topK.add(similarities.get(i).lineNum);
             }
             
@@ -135,6 +215,311 @@ public class SimHashGenerator {
         return candidates;
     }
     
+    /**
+     * Compute content and context SimHash for each line into a FeatureTable,
+     * with the context word signatures Step 4 bounds cosine similarity by,
+     * stopping early once the token is cancelled
+     * 
+     * @param lines All lines in file (0-indexed)
+     * @param lineNumbers Line numbers to process (1-indexed)
+     * @return Features of the processed lines, in line order
+     */
+    public FeatureTable computeFeatureTable(List<String> lines, Set<Integer> lineNumbers,
+                                           CancellationToken token) {
+        int[] lineNo = new int[lineNumbers.size()];
+        int count = 0;
+        for (int lineNum : lineNumbers) {
+            if (lineNum >= 1 && lineNum <= lines.size()) {
+                lineNo[count++] = lineNum;
+            }
+        }
+        Arrays.sort(lineNo, 0, count);
+        
+        long[] contentHash = new long[count];
+        long[] contextHash = new long[count];
+        int[] contextWords = new int[count];
+        long[] contextSignature = new long[2 * count];
+        Scratch scratch = Scratch.get();
+        StringBuilder context = scratch.text;
+        int done = 0;
+        while (done < count && !token.isCancelled()) {
+            int lineIdx = lineNo[done] - 1;
+            contentHash[done] = SimHash.computeText(lines.get(lineIdx));
+            context.setLength(0);
+            appendContext(lines, lineIdx, CONTEXT_WINDOW, context);
+            contextHash[done] = SimHash.computeText(context);
+            
+            // The distinct words ConflictResolver.cosineSimilarity will see
+            if (SimHash.isAsciiText(context)) {
+                scratch.words.clear();
+                scratch.words.addWords(context);
+                contextWords[done] = scratch.words.size();
+                contextSignature[2 * done] = scratch.words.signatureLow();
+                contextSignature[2 * done + 1] = scratch.words.signatureHigh();
+            } else {
+                Set<String> words = new HashSet<>(SimHash.tokenize(context.toString()));
+                contextWords[done] = words.size();
+                for (String word : words) {
+                    int bit = TokenSet.signatureBit(word.hashCode());
+                    contextSignature[2 * done + (bit >>> 6)] |= 1L << (bit & 63);
+                }
+            }
+            done++;
+        }
+        
+        return new FeatureTable(Arrays.copyOf(lineNo, done), Arrays.copyOf(contentHash, done),
+                                Arrays.copyOf(contextHash, done), Arrays.copyOf(contextWords, done),
+                                Arrays.copyOf(contextSignature, 2 * done));
+    }
+    
+    /**
+     * Generate candidate mappings by scanning every left line against every
+     * right line of two feature tables. Same scores and top-k as the map-based
+     * generateCandidates; equal scores are ordered by right line number.
+     * 
+     * @param left Features for left (old) file lines
+     * @param right Features for right (new) file lines
+     * @return Map of left_line_num -> [list of top-k right_line_nums]
+     */
+    public Map<Integer, List<Integer>> generateCandidates(FeatureTable left, FeatureTable right,
+                                                          CancellationToken token) {
+        Map<Integer, List<Integer>> candidates = new HashMap<>();
+        int n = right.size();
+        long[] rightContent = right.contentHash;
+        long[] rightContext = right.contextHash;
+        int[] keys = Scratch.get().ints(Scratch.CANDIDATE_KEYS, n);
+        int[] histogram = new int[MAX_DISTANCE_KEY + 1];
+        
+        for (int i = 0; i < left.size(); i++) {
+            if (token.isCancelled()) {
+                break;
+            }
+            
+            long content = left.contentHash[i];
+            long context = left.contextHash[i];
+            
+            // Branch-free scan over the packed arrays, which the JIT can unroll and vectorize
+            for (int j = 0; j < n; j++) {
+                keys[j] = 3 * Long.bitCount(content ^ rightContent[j]) + 2 * Long.bitCount(context ^ rightContext[j]);
+            }
+            
+            candidates.put(left.lineNo[i], selectTopK(null, keys, n, histogram, right.lineNo));
+        }
+        
+        return candidates;
+    }
+    
+    /**
+     * Generate candidate mappings with locality-sensitive hashing: right lines
+     * are bucketed by each band of their content and context hashes
+     * (LSH_BANDS bands per hash, starting every 8 bits), and a left line is
+     * only scored against right lines sharing at least one bucket. Scores and
+     * top-k selection are the same as generateCandidates, but lines far from
+     * everything may get fewer than k (or no) candidates.
+     * 
+     * Bands are log2 of the right line count wide (8 to LSH_BAND_BITS bits),
+     * so a table has about as many buckets as there are right lines and
+     * buckets hold O(1) lines unless the input is full of near-duplicates.
+     * Of a crowded bucket only the LSH_MAX_VISITED lines nearest the left
+     * line's position are visited, and if more than LSH_MAX_SCORED right
+     * lines turn up, the ones sharing the most bands are scored. Either way
+     * the work per left line is bounded, so the search is linear.
+     * 
+     * @param leftFeatures Features for left (old) file lines
+     * @param rightFeatures Features for right (new) file lines
+     * @return Map of left_line_num -> [list of top-k right_line_nums]
+     */
+    public Map<Integer, List<Integer>> generateCandidatesLsh(Map<Integer, LineFeatures> leftFeatures,
+                                                             Map<Integer, LineFeatures> rightFeatures) {
+        return generateCandidatesLsh(FeatureTable.of(leftFeatures), FeatureTable.of(rightFeatures),
+                                     CancellationToken.NONE);
+    }
+    
+    /**
+     * LSH candidate generation over feature tables, stopping early once the
+     * token is cancelled
+     */
+    public Map<Integer, List<Integer>> generateCandidatesLsh(FeatureTable left, FeatureTable right,
+                                                             CancellationToken token) {
+        int n = right.size();
+        long[][] rightHashes = {right.contentHash, right.contextHash};
+        int bits = Math.max(8, Math.min(LSH_BAND_BITS, 32 - Integer.numberOfLeadingZeros(Math.max(1, n - 1))));
+        
+        // Bucket index laid out as one array: bucket b holds entries[start[b]..start[b+1]),
+        // each bucket in right row (line) order
+        int bucketCount = LSH_TABLES << bits;
+        int[] start = new int[bucketCount + 1];
+        for (int i = 0; i < n; i++) {
+            for (int table = 0; table < LSH_TABLES; table++) {
+                start[bucket(table, bits, rightHashes[table / LSH_BANDS][i]) + 1]++;
+            }
+        }
+        for (int b = 0; b < bucketCount; b++) {
+            start[b + 1] += start[b];
+        }
+        int[] fill = Arrays.copyOf(start, bucketCount);
+        int[] entries = new int[start[bucketCount]];
+        for (int i = 0; i < n; i++) {
+            for (int table = 0; table < LSH_TABLES; table++) {
+                entries[fill[bucket(table, bits, rightHashes[table / LSH_BANDS][i])]++] = i;
+            }
+        }
+        
+        Map<Integer, List<Integer>> candidates = new HashMap<>();
+        int[] seen = new int[n];
+        int[] shared = new int[n];
+        int[] found = new int[Math.min(n, LSH_TABLES * LSH_MAX_VISITED)];
+        int[] rows = new int[Math.min(n, LSH_MAX_SCORED)];
+        int[] keys = new int[rows.length];
+        int[] histogram = new int[MAX_DISTANCE_KEY + 1];
+        int[] byShared = new int[LSH_TABLES + 2];
+        
+        for (int l = 0; l < left.size(); l++) {
+            if (token.isCancelled()) {
+                break;
+            }
+            
+            long[] leftHashes = {left.contentHash[l], left.contextHash[l]};
+            int stamp = l + 1;
+            int count = 0;
+            
+            // Right lines sharing a bucket, with how many bands each shares
+            for (int table = 0; table < LSH_TABLES; table++) {
+                int b = bucket(table, bits, leftHashes[table / LSH_BANDS]);
+                int from = start[b];
+                int to = start[b + 1];
+                if (to - from > LSH_MAX_VISITED) {
+                    // Crowded bucket: the right lines nearest the left line's position
+                    int near = nearestRow(right.lineNo, left.lineNo[l]);
+                    int at = Arrays.binarySearch(entries, from, to, near);
+                    at = at >= 0 ? at : -at - 1;
+                    from = Math.max(from, Math.min(at - LSH_MAX_VISITED / 2, to - LSH_MAX_VISITED));
+                    to = from + LSH_MAX_VISITED;
+                }
+                for (int e = from; e < to; e++) {
+                    int i = entries[e];
+                    if (seen[i] != stamp) {
+                        seen[i] = stamp;
+                        shared[i] = 0;
+                        found[count++] = i;
+                    }
+                    shared[i]++;
+                }
+            }
+            
+            // Score every line found, or the LSH_MAX_SCORED sharing the most bands
+            int scored = pickMostShared(found, count, shared, rows, byShared);
+            for (int r = 0; r < scored; r++) {
+                int i = rows[r];
+                keys[r] = 3 * Long.bitCount(leftHashes[0] ^ right.contentHash[i])
+                        + 2 * Long.bitCount(leftHashes[1] ^ right.contextHash[i]);
+            }
+            
+            candidates.put(left.lineNo[l], selectTopK(rows, keys, scored, histogram, right.lineNo));
+        }
+        
+        return candidates;
+    }
+    
+    /**
+     * Bucket of one band: bits bits of the hash, starting at the band's offset
+     */
+    private static int bucket(int table, int bits, long value) {
+        int band = (int) Long.rotateRight(value, (table % LSH_BANDS) * (64 / LSH_BANDS)) & ((1 << bits) - 1);
+        return (table << bits) | band;
+    }
+    
+    /**
+     * Row of the right line numbered closest to lineNum (rows are in line order)
+     */
+    private static int nearestRow(int[] lineNo, int lineNum) {
+        int at = Arrays.binarySearch(lineNo, lineNum);
+        return at >= 0 ? at : Math.min(-at - 1, lineNo.length - 1);
+    }
+    
+    /**
+     * Copy the found rows into rows, all of them if they fit, otherwise the
+     * ones sharing the most bands (ties in the order found)
+     * 
+     * @return Number of rows copied
+     */
+    private static int pickMostShared(int[] found, int count, int[] shared, int[] rows, int[] byShared) {
+        if (count <= rows.length) {
+            System.arraycopy(found, 0, rows, 0, count);
+            return count;
+        }
+        
+        // Counting sort by shared bands, most first
+        Arrays.fill(byShared, 0);
+        for (int f = 0; f < count; f++) {
+            byShared[LSH_TABLES - shared[found[f]] + 1]++;
+        }
+        for (int c = 0; c <= LSH_TABLES; c++) {
+            byShared[c + 1] += byShared[c];
+        }
+        for (int f = 0; f < count; f++) {
+            int slot = byShared[LSH_TABLES - shared[found[f]]]++;
+            if (slot < rows.length) {
+                rows[slot] = found[f];
+            }
+        }
+        return rows.length;
+    }
+    
+    /**
+     * Pick the kCandidates smallest distance keys without sorting all of them:
+     * a histogram over the small key range finds the cutoff key, and only the
+     * picked entries are sorted (by key, then by row, i.e. line number), then
+     * cut short by the adaptive thresholds
+     * 
+     * @param rows Right-table row of each key, or null when keys[i] belongs to row i
+     * @param histogram Scratch array of MAX_DISTANCE_KEY + 1 counters
+     */
+    private List<Integer> selectTopK(int[] rows, int[] keys, int count, int[] histogram, int[] lineNo) {
+        int k = Math.min(kCandidates, count);
+        List<Integer> topK = new ArrayList<>(k);
+        if (k == 0) {
+            return topK;
+        }
+        
+        Arrays.fill(histogram, 0);
+        for (int i = 0; i < count; i++) {
+            histogram[keys[i]]++;
+        }
+        
+        // Smallest cutoff with at least k keys <= cutoff; ties at the cutoff go to the lowest rows
+        int cutoff = 0;
+        int below = 0;
+        while (below + histogram[cutoff] < k) {
+            below += histogram[cutoff];
+            cutoff++;
+        }
+        int takeAtCutoff = k - below;
+        
+        long[] picked = Scratch.get().longs(Scratch.PICKED_CANDIDATES, k);
+        int p = 0;
+        for (int i = 0; i < count && p < k; i++) {
+            int key = keys[i];
+            if (key < cutoff || (key == cutoff && takeAtCutoff-- > 0)) {
+                picked[p++] = ((long) key << 32) | (rows == null ? i : rows[i]);
+            }
+        }
+        
+        Arrays.sort(picked, 0, k);
+        double bestScore = keyScore((int) (picked[0] >>> 32));
+        for (int i = 0; i < k; i++) {
+            if (!keepCandidate(i, bestScore, keyScore((int) (picked[i] >>> 32)))) {
+                break;
+            }
+            topK.add(lineNo[(int) picked[i]]);
+        }
+        return topK;
+    }
+    
+    private static double keyScore(int key) {
+        return 1.0 - (double) key / MAX_DISTANCE_KEY;
+    }
+    
     /**
      * Container for line features (content and context hashes)
      */
@@ -0,0 +1,114 @@
+package com.comp3110.lhdiff;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timings and counters collected while mapping one pair of files.
+ * Stages may record from several threads, so all updates are synchronized.
+ * Stats made with forPair() also publish the pair to JDK Flight Recorder on
+ * Java 11+ (see PipelineEvents).
+ */
+public class StageStats {
+    
+    /**
+     * Pipeline stages, in execution order
+     */
+    public enum Stage {
+        PREPROCESS("Step 1: Preprocessing"),
+        UNCHANGED("Step 2: Unchanged lines"),
+        EXACT_MOVES("Step 2b: Exact moves"),
+        CANDIDATES("Step 3: Candidates"),
+        RESOLVE("Step 4: Conflict resolution"),
+        SPLITS("Step 5: Line splits");
+        
+        private final String label;
+        
+        Stage(String label) {
+            this.label = label;
+        }
+        
+        public String getLabel() {
+            return label;
+        }
+    }
+    
+    private final long[] nanos = new long[Stage.values().length];
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private final PipelineEvents events;
+    
+    public StageStats() {
+        this(PipelineEvents.NONE);
+    }
+    
+    private StageStats(PipelineEvents events) {
+        this.events = events;
+    }
+    
+    /**
+     * Stats for mapping one pair of files that also feed Flight Recorder
+     * events; sources name the files, or are null for text held in memory
+     */
+    static StageStats forPair(String oldSource, String newSource) {
+        return new StageStats(PipelineEvents.begin(oldSource, newSource));
+    }
+    
+    /**
+     * Add elapsed time to a stage
+     */
+    public synchronized void record(Stage stage, long elapsedNanos) {
+        nanos[stage.ordinal()] += elapsedNanos;
+        events.stage(stage, elapsedNanos);
+    }
+    
+    public synchronized long getNanos(Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+    
+    public synchronized long getTotalNanos() {
+        long total = 0;
+        for (long stageNanos : nanos) {
+            total += stageNanos;
+        }
+        return total;
+    }
+    
+    /**
+     * Add to a named counter (e.g. number of candidate pairs scored)
+     */
+    public synchronized void increment(String counter, long delta) {
+        Long current = counters.get(counter);
+        counters.put(counter, current == null ? delta : current + delta);
+    }
+    
+    public synchronized long getCounter(String counter) {
+        Long value = counters.get(counter);
+        return value == null ? 0 : value;
+    }
+    
+    /**
+     * The pair is mapped: count its preprocessed lines and publish it (and, if it took longer than
+     * latencyTargetMillis of wall time, publish it as slow)
+     */
+    void finish(int oldLines, int newLines, boolean partial, long latencyTargetMillis) {
+        increment("old lines", oldLines);
+        increment("new lines", newLines);
+        events.end(this, oldLines, newLines, partial, latencyTargetMillis);
+    }
+    
+    public synchronized Map<String, Long> getCounters() {
+        return new LinkedHashMap<>(counters);
+    }
+    
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            sb.append(String.format("  %-30s %10.3f ms%n", stage.getLabel(), nanos[stage.ordinal()] / 1e6));
+        }
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            sb.append(String.format("  %-30s %10d%n", entry.getKey(), entry.getValue()));
+        }
+        return sb.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,227 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.DiffAnalyzer.Algorithm;
+import com.comp3110.lhdiff.SimHashGenerator.Search;
+
+import java.util.*;
+
+/**
+ * Strategy Selection
+ * Chooses the Step 2 algorithm, the Step 3 candidate search and whether Step 5
+ * runs from the sizes of the inputs, so that large or heavily edited pairs stay
+ * within the configured memory budget and latency target instead of blowing up
+ * 
+ * The choices are estimates against the whole latency target, so they depend
+ * only on the pair and the configuration. Time actually spent only shrinks
+ * the budget in latency mode or when the caller set a deadline.
+ */
+public class StrategySelector {
+    
+    // Rough per-operation costs, measured on generated 1k-5k line pairs
+    private static final double LCS_CELL_NANOS = 15.0;
+    private static final double MYERS_STEP_NANOS = 3.0;
+    private static final double CANDIDATE_PAIR_NANOS = 5.0;
+    private static final double SPLIT_PAIR_NANOS = 250.0;
+    
+    // Share of the latency target each decision may spend
+    private static final double DIFF_SHARE = 0.25;
+    private static final double CANDIDATE_SHARE = 0.4;
+    private static final double SPLIT_SHARE = 0.2;
+    
+    private final EngineConfig config;
+    
+    public StrategySelector(EngineConfig config) {
+        this.config = config;
+    }
+    
+    /**
+     * Pick the Step 2 algorithm: the LCS table while its (m+1)*(n+1) int table
+     * fits the memory budget and its time fits the target, otherwise Myers
+     * while the change ratio keeps its O((m+n)*D) work in bounds, otherwise
+     * patience diff
+     * 
+     * @param reasons Receives a short explanation of the choice
+     */
+    public Algorithm chooseDiffAlgorithm(List<String> oldLines, List<String> newLines, List<String> reasons) {
+        if (config.diffAlgorithm != null) {
+            reasons.add("Step 2: " + config.diffAlgorithm + " (configured)");
+            return config.diffAlgorithm;
+        }
+        
+        long m = oldLines.size();
+        long n = newLines.size();
+        double targetNanos = config.latencyTargetMillis * 1e6;
+        
+        long tableBytes = (m + 1) * (n + 1) * 4;
+        double tableNanos = m * n * LCS_CELL_NANOS;
+        if (tableBytes <= config.memoryBudgetBytes && tableNanos <= targetNanos * DIFF_SHARE) {
+            reasons.add(String.format("Step 2: LCS_TABLE (%s table, ~%.0f ms)",
+                                      formatBytes(tableBytes), tableNanos / 1e6));
+            return Algorithm.LCS_TABLE;
+        }
+        
+        long edits = estimateEdits(oldLines, newLines);
+        double myersNanos = (m + n) * edits * MYERS_STEP_NANOS;
+        String why = tableBytes > config.memoryBudgetBytes
+            ? formatBytes(tableBytes) + " LCS table over budget"
+            : String.format("LCS table ~%.0f ms", tableNanos / 1e6);
+        
+        if (myersNanos <= targetNanos * DIFF_SHARE) {
+            reasons.add(String.format("Step 2: MYERS (%s; ~%d edits, %.1f%% changed)",
+                                      why, edits, 100.0 * edits / Math.max(1, m + n)));
+            return Algorithm.MYERS;
+        }
+        
+        reasons.add(String.format("Step 2: PATIENCE (%s; ~%d edits make Myers ~%.0f ms)",
+                                  why, edits, myersNanos / 1e6));
+        return Algorithm.PATIENCE;
+    }
+    
+    /**
+     * Pick the Step 3 search from the number of changed line pairs left after
+     * Steps 2 and 2b
+     * 
+     * @param budgetNanos Time left for the rest of this mapping
+     */
+    public Search chooseCandidateSearch(int oldPool, int newPool, long budgetNanos, List<String> reasons) {
+        if (config.candidateSearch != null) {
+            reasons.add("Step 3: " + config.candidateSearch + " (configured)");
+            return config.candidateSearch;
+        }
+        
+        double pairs = (double) oldPool * newPool;
+        double exhaustiveNanos = pairs * CANDIDATE_PAIR_NANOS;
+        if (exhaustiveNanos <= budgetNanos * CANDIDATE_SHARE) {
+            reasons.add(String.format("Step 3: EXHAUSTIVE (%dx%d changed lines, ~%.0f ms)",
+                                      oldPool, newPool, exhaustiveNanos / 1e6));
+            return Search.EXHAUSTIVE;
+        }
+        
+        reasons.add(String.format("Step 3: LSH (%dx%d changed lines would take ~%.0f ms exhaustively)",
+                                  oldPool, newPool, exhaustiveNanos / 1e6));
+        return Search.LSH;
+    }
+    
+    /**
+     * Decide whether Step 5 runs; it compares every unmapped old line with
+     * every run of unmapped new lines, so it is the first thing dropped
+     */
+    public boolean chooseSplitDetection(int oldPool, int newPool, long budgetNanos, List<String> reasons) {
+        if (config.splitDetection != null) {
+            reasons.add("Step 5: " + (config.splitDetection ? "on" : "off") + " (configured)");
+            return config.splitDetection;
+        }
+        
+        double splitNanos = (double) oldPool * newPool * SPLIT_PAIR_NANOS;
+        if (splitNanos <= budgetNanos * SPLIT_SHARE) {
+            reasons.add(String.format("Step 5: on (~%.0f ms)", splitNanos / 1e6));
+            return true;
+        }
+        
+        reasons.add(String.format("Step 5: off (would take ~%.0f ms)", splitNanos / 1e6));
+        return false;
+    }
+    
+    /**
+     * Time Steps 3 and 5 are sized to: the latency target, or in latency mode
+     * what remains of it after elapsedNanos, and no more than is left before
+     * the caller's deadline
+     * 
+     * @param reasons Receives the budget whenever time already spent shrank it
+     */
+    public long budgetNanos(long elapsedNanos, CancellationToken token, List<String> reasons) {
+        long budget = config.latencyTargetMillis * 1_000_000;
+        if (config.latencyMode) {
+            budget = Math.max(0, budget - elapsedNanos);
+            reasons.add(String.format("Budget: %.0f ms left of the latency target (latency mode)", budget / 1e6));
+        }
+        
+        long remaining = token.remainingNanos();
+        if (remaining < budget) {
+            budget = remaining;
+            reasons.add(String.format("Budget: %.0f ms left before the deadline", budget / 1e6));
+        }
+        return budget;
+    }
+    
+    /**
+     * Lower bound on the edit distance D: lines whose text occurs more often on
+     * one side than on the other must be inserted or deleted
+     */
+    static long estimateEdits(List<String> oldLines, List<String> newLines) {
+        Map<String, Integer> balance = new HashMap<>();
+        for (String line : oldLines) {
+            balance.merge(line, 1, Integer::sum);
+        }
+        for (String line : newLines) {
+            balance.merge(line, -1, Integer::sum);
+        }
+        
+        long edits = 0;
+        for (int count : balance.values()) {
+            edits += Math.abs(count);
+        }
+        return edits;
+    }
+    
+    private static String formatBytes(long bytes) {
+        if (bytes >= 1L << 30) {
+            return String.format("%.1f GB", bytes / (double) (1L << 30));
+        }
+        return String.format("%.1f MB", bytes / (double) (1L << 20));
+    }
+    
+    /**
+     * Strategies chosen for one mapping, with the reason for each
+     */
+    public static class Strategy {
+        public final Algorithm diffAlgorithm;
+        public final Search candidateSearch;
+        public final boolean splitDetection;
+        public final List<String> reasons;
+        
+        public Strategy(Algorithm diffAlgorithm, Search candidateSearch, boolean splitDetection,
+                        List<String> reasons) {
+            this.diffAlgorithm = diffAlgorithm;
+            this.candidateSearch = candidateSearch;
+            this.splitDetection = splitDetection;
+            this.reasons = Collections.unmodifiableList(new ArrayList<>(reasons));
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (String reason : reasons) {
+                sb.append("  ").append(reason).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+    
+    // Test method
+    public static void main(String[] args) {
+        List<String> reasons = new ArrayList<>();
+        StrategySelector selector = new StrategySelector(EngineConfig.defaults());
+        
+        int[] sizes = {1000, 10000, 100000};
+        for (int size : sizes) {
+            List<String> oldLines = new ArrayList<>();
+            List<String> newLines = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                oldLines.add("line " + i);
+                newLines.add(i % 20 == 0 ? "edited " + i : "line " + i);
+            }
+            
+            reasons.clear();
+            selector.chooseDiffAlgorithm(oldLines, newLines, reasons);
+            long budget = selector.budgetNanos(0, CancellationToken.NONE, reasons);
+            selector.chooseCandidateSearch(size / 20, size / 20, budget, reasons);
+            selector.chooseSplitDetection(size / 20, size / 20, budget, reasons);
+            
+            System.out.println(size + " lines, 5% edited:");
+            for (String reason : reasons) {
+                System.out.println("  " + reason);
+            }
+        }
+    }
+}
\ No newline at end of file
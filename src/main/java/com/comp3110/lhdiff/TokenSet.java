@@ -0,0 +1,166 @@
+package com.comp3110.lhdiff;
+
+import java.util.Arrays;
+
+/**
+ * Reusable set of the distinct words of some text, split and lower-cased as
+ * SimHash.tokenize does. Words are kept as ranges of one char buffer and
+ * looked up through an open-addressing table, so once the buffers have grown
+ * filling the set allocates nothing. Only text for which SimHash.isAsciiText
+ * holds may be added; callers fall back to tokenize for anything else.
+ */
+final class TokenSet {
+    
+    private char[] chars = new char[256];
+    private int charCount;
+    private int[] wordStart = new int[32];
+    private int[] wordLength = new int[32];
+    private int[] wordHash = new int[32];
+    private int size;
+    private long signatureLow;
+    private long signatureHigh;
+    // Word index + 1 per slot, 0 for empty; the length is a power of two
+    private int[] table = new int[64];
+    
+    void clear() {
+        charCount = 0;
+        size = 0;
+        signatureLow = 0;
+        signatureHigh = 0;
+        Arrays.fill(table, 0);
+    }
+    
+    /**
+     * Number of distinct words
+     */
+    int size() {
+        return size;
+    }
+    
+    /**
+     * Low and high half of the 128-bit mask with signatureBit set for every word
+     */
+    long signatureLow() {
+        return signatureLow;
+    }
+    
+    long signatureHigh() {
+        return signatureHigh;
+    }
+    
+    /**
+     * Bit (0-127) a word sets in a context signature, from the String.hashCode
+     * of its lower-cased text (which is what wordHash holds)
+     */
+    static int signatureBit(int wordHash) {
+        return (wordHash * 0x9E3779B1) >>> 25;
+    }
+    
+    /**
+     * Add the words of text
+     */
+    void addWords(CharSequence text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (!SimHash.isWordChar(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            
+            int start = charCount;
+            int hash = 0;
+            char c;
+            while (i < length && SimHash.isWordChar(c = text.charAt(i))) {
+                if (charCount == chars.length) {
+                    chars = Arrays.copyOf(chars, 2 * chars.length);
+                }
+                char lower = SimHash.toLowerAscii(c);
+                chars[charCount++] = lower;
+                hash = 31 * hash + lower;
+                i++;
+            }
+            
+            if (indexOf(chars, start, charCount - start, hash) >= 0) {
+                charCount = start; // Duplicate: drop its chars again
+            } else {
+                add(start, charCount - start, hash);
+            }
+        }
+    }
+    
+    /**
+     * Number of words in both sets
+     */
+    int intersectionSize(TokenSet other) {
+        int common = 0;
+        for (int w = 0; w < size; w++) {
+            if (other.indexOf(chars, wordStart[w], wordLength[w], wordHash[w]) >= 0) {
+                common++;
+            }
+        }
+        return common;
+    }
+    
+    private int indexOf(char[] word, int start, int length, int hash) {
+        int mask = table.length - 1;
+        for (int slot = spread(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int w = table[slot] - 1;
+            if (wordHash[w] == hash && wordLength[w] == length
+                && regionEquals(chars, wordStart[w], word, start, length)) {
+                return w;
+            }
+        }
+        return -1;
+    }
+    
+    private void add(int start, int length, int hash) {
+        if (size == wordStart.length) {
+            wordStart = Arrays.copyOf(wordStart, 2 * size);
+            wordLength = Arrays.copyOf(wordLength, 2 * size);
+            wordHash = Arrays.copyOf(wordHash, 2 * size);
+        }
+        wordStart[size] = start;
+        wordLength[size] = length;
+        wordHash[size] = hash;
+        size++;
+        int bit = signatureBit(hash);
+        if (bit < 64) {
+            signatureLow |= 1L << bit;
+        } else {
+            signatureHigh |= 1L << (bit - 64);
+        }
+        
+        // Keep the table at most half full
+        if (2 * size > table.length) {
+            table = new int[2 * table.length];
+            for (int w = 0; w < size; w++) {
+                insert(w);
+            }
+        } else {
+            insert(size - 1);
+        }
+    }
+    
+    private void insert(int w) {
+        int mask = table.length - 1;
+        int slot = spread(wordHash[w]) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = w + 1;
+    }
+    
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+    
+    private static boolean regionEquals(char[] a, int aStart, char[] b, int bStart, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aStart + i] != b[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,284 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.DiffAnalyzer.DiffResult;
+import com.comp3110.lhdiff.DiffAnalyzer.MatchBlock;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Unified diff input
+ * Parses the hunks of a single-file unified diff (as from git diff or
+ * diff -u, with any amount of context, including -U0) so that Step 2 can be
+ * taken from the patch instead of recomputed: lines outside the hunks and
+ * context lines are unchanged, '-' and '+' lines are the changed ones.
+ * Deriving the DiffResult is linear in the size of the files.
+ */
+public class UnifiedDiff {
+    
+    private static final Pattern HUNK_HEADER =
+        Pattern.compile("^@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@.*");
+    
+    /**
+     * One hunk; lines keep their ' ', '-' or '+' prefix
+     */
+    public static class Hunk {
+        public final int oldStart;
+        public final int oldCount;
+        public final int newStart;
+        public final int newCount;
+        public final List<String> lines;
+        
+        public Hunk(int oldStart, int oldCount, int newStart, int newCount, List<String> lines) {
+            this.oldStart = oldStart;
+            this.oldCount = oldCount;
+            this.newStart = newStart;
+            this.newCount = newCount;
+            this.lines = lines;
+        }
+        
+        /**
+         * First old line the hunk covers; a hunk with no old lines starts
+         * after the line its header names
+         */
+        int firstOld() {
+            return oldCount == 0 ? oldStart + 1 : oldStart;
+        }
+        
+        int firstNew() {
+            return newCount == 0 ? newStart + 1 : newStart;
+        }
+    }
+    
+    public final List<Hunk> hunks;
+    
+    public UnifiedDiff(List<Hunk> hunks) {
+        this.hunks = hunks;
+    }
+    
+    /**
+     * Parse a unified diff of one file; file headers (diff --git, index,
+     * ---, +++) are skipped
+     * 
+     * @throws IllegalArgumentException if the diff is malformed or touches
+     *         more than one file
+     */
+    public static UnifiedDiff parse(List<String> patch) {
+        List<Hunk> hunks = new ArrayList<>();
+        int i = 0;
+        boolean sawFileHeader = false;
+        
+        while (i < patch.size()) {
+            String line = patch.get(i);
+            Matcher header = HUNK_HEADER.matcher(line);
+            if (!header.matches()) {
+                if (line.startsWith("--- ")) {
+                    if (sawFileHeader && !hunks.isEmpty()) {
+                        throw new IllegalArgumentException("Patch touches more than one file (line " + (i + 1) + ")");
+                    }
+                    sawFileHeader = true;
+                }
+                i++;
+                continue;
+            }
+            
+            int oldStart = Integer.parseInt(header.group(1));
+            int oldCount = header.group(2) == null ? 1 : Integer.parseInt(header.group(2));
+            int newStart = Integer.parseInt(header.group(3));
+            int newCount = header.group(4) == null ? 1 : Integer.parseInt(header.group(4));
+            i++;
+            
+            List<String> lines = new ArrayList<>();
+            int oldLeft = oldCount;
+            int newLeft = newCount;
+            while (oldLeft > 0 || newLeft > 0) {
+                if (i >= patch.size()) {
+                    throw new IllegalArgumentException("Patch ends inside the hunk at old line " + oldStart);
+                }
+                String body = patch.get(i++);
+                // Some tools strip the space of an empty context line
+                char kind = body.isEmpty() ? ' ' : body.charAt(0);
+                if (kind == '\\') {
+                    continue; // "\ No newline at end of file"
+                }
+                if (kind == ' ') {
+                    oldLeft--;
+                    newLeft--;
+                } else if (kind == '-') {
+                    oldLeft--;
+                } else if (kind == '+') {
+                    newLeft--;
+                } else {
+                    throw new IllegalArgumentException("Unexpected line in hunk at patch line " + i + ": " + body);
+                }
+                if (oldLeft < 0 || newLeft < 0) {
+                    throw new IllegalArgumentException("Hunk at old line " + oldStart + " is longer than its header");
+                }
+                lines.add(body.isEmpty() ? " " : body);
+            }
+            
+            Hunk hunk = new Hunk(oldStart, oldCount, newStart, newCount, lines);
+            if (!hunks.isEmpty()) {
+                Hunk previous = hunks.get(hunks.size() - 1);
+                if (hunk.firstOld() < previous.firstOld() + previous.oldCount) {
+                    throw new IllegalArgumentException("Hunks out of order at old line " + oldStart);
+                }
+            }
+            hunks.add(hunk);
+        }
+        
+        return new UnifiedDiff(hunks);
+    }
+    
+    /**
+     * The new version: oldLines with the hunks applied
+     * 
+     * @throws IllegalArgumentException if the patch does not apply to oldLines
+     */
+    public List<String> applyTo(List<String> oldLines) {
+        List<String> newLines = new ArrayList<>(oldLines.size());
+        int old = 1; // Next old line, 1-indexed
+        
+        for (Hunk hunk : hunks) {
+            int firstOld = hunk.firstOld();
+            if (firstOld - 1 > oldLines.size()) {
+                throw new IllegalArgumentException("Hunk at old line " + hunk.oldStart + " is past the end of the file");
+            }
+            while (old < firstOld) {
+                newLines.add(oldLines.get(old++ - 1));
+            }
+            if (newLines.size() + 1 != hunk.firstNew()) {
+                throw new IllegalArgumentException("Hunk at old line " + hunk.oldStart
+                                                   + " does not start at new line " + hunk.newStart);
+            }
+            
+            for (String line : hunk.lines) {
+                char kind = line.charAt(0);
+                if (kind == '+') {
+                    newLines.add(line.substring(1));
+                    continue;
+                }
+                if (old > oldLines.size() || !oldLines.get(old - 1).equals(line.substring(1))) {
+                    throw new IllegalArgumentException("Patch does not apply at old line " + old);
+                }
+                if (kind == ' ') {
+                    newLines.add(oldLines.get(old - 1));
+                }
+                old++;
+            }
+        }
+        
+        while (old <= oldLines.size()) {
+            newLines.add(oldLines.get(old++ - 1));
+        }
+        return newLines;
+    }
+    
+    /**
+     * Step 2 from the hunks: every line outside a hunk and every context line
+     * is unchanged, in blocks of consecutive unchanged lines
+     * 
+     * @param oldSize Number of lines in the old version
+     * @param newSize Number of lines in the new version (see applyTo)
+     */
+    public DiffResult toDiffResult(int oldSize, int newSize) {
+        Map<Integer, Integer> unchanged = new HashMap<>();
+        Set<Integer> oldChanged = new HashSet<>();
+        Set<Integer> newChanged = new HashSet<>();
+        List<MatchBlock> blocks = new ArrayList<>();
+        BlockBuilder builder = new BlockBuilder(unchanged, blocks);
+        
+        int old = 1;
+        int neu = 1;
+        for (Hunk hunk : hunks) {
+            while (old < hunk.firstOld()) {
+                builder.add(old++, neu++);
+            }
+            for (String line : hunk.lines) {
+                char kind = line.charAt(0);
+                if (kind == ' ') {
+                    builder.add(old++, neu++);
+                } else if (kind == '-') {
+                    oldChanged.add(old++);
+                } else {
+                    newChanged.add(neu++);
+                }
+            }
+        }
+        while (old <= oldSize && neu <= newSize) {
+            builder.add(old++, neu++);
+        }
+        builder.finish();
+        
+        return new DiffResult(unchanged, oldChanged, newChanged, blocks);
+    }
+    
+    /**
+     * Collects unchanged line pairs into maximal MatchBlocks
+     */
+    private static class BlockBuilder {
+        private final Map<Integer, Integer> unchanged;
+        private final List<MatchBlock> blocks;
+        private int oldStart = -1;
+        private int newStart;
+        private int size;
+        
+        BlockBuilder(Map<Integer, Integer> unchanged, List<MatchBlock> blocks) {
+            this.unchanged = unchanged;
+            this.blocks = blocks;
+        }
+        
+        void add(int oldLine, int newLine) {
+            unchanged.put(oldLine, newLine);
+            if (oldLine - 1 == oldStart + size && newLine - 1 == newStart + size) {
+                size++;
+                return;
+            }
+            finish();
+            oldStart = oldLine - 1;
+            newStart = newLine - 1;
+            size = 1;
+        }
+        
+        void finish() {
+            if (size > 0) {
+                blocks.add(new MatchBlock(oldStart, newStart, size));
+                size = 0;
+            }
+        }
+    }
+    
+    // Test method
+    public static void main(String[] args) {
+        List<String> oldLines = Arrays.asList(
+            "int a = 1;",
+            "int b = 2;",
+            "int c = 3;",
+            "return a + b + c;"
+        );
+        List<String> patch = Arrays.asList(
+            "--- a/Example.java",
+            "+++ b/Example.java",
+            "@@ -1,4 +1,5 @@",
+            " int a = 1;",
+            "-int b = 2;",
+            "+int b = 20;",
+            "+int d = 4;",
+            " int c = 3;",
+            " return a + b + c;"
+        );
+        
+        UnifiedDiff diff = UnifiedDiff.parse(patch);
+        List<String> newLines = diff.applyTo(oldLines);
+        DiffResult result = diff.toDiffResult(oldLines.size(), newLines.size());
+        
+        System.out.println("New version:");
+        for (String line : newLines) {
+            System.out.println("  " + line);
+        }
+        System.out.println("Unchanged: " + result.unchangedMappings);
+        System.out.println("Old changed: " + result.oldChanged);
+        System.out.println("New changed: " + result.newChanged);
+    }
+}
\ No newline at end of file
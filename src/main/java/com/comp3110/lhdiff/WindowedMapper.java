@@ -0,0 +1,428 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.LHDiff.MappingResult;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Windowed streaming mode
+ * Maps two files too large to hold in memory by reading both in windows of
+ * at most windowLines lines each and mapping one window pair at a time, so
+ * peak memory follows the window size rather than the file size.
+ * 
+ * After a window pair is mapped, the last unchanged line pair at least
+ * overlapLines lines before the end of both windows (the anchor) ends what
+ * is committed: mappings with both lines up to the anchor are written out,
+ * lines up to it left unmapped are counted as such, and the lines after it
+ * are carried into the next window pair. The carried overlap lets a line
+ * that moved across a window boundary by less than overlapLines still be
+ * found. A window pair without any unchanged line means the sides are out of
+ * step (an insertion or deletion longer than a window); the files are then
+ * scanned ahead, up to maxResyncLines lines, for a pair of consecutive lines
+ * of one window in the other file, and the side that has to catch up skips
+ * to it.
+ * 
+ * Results are written as they are committed, in LHDiff text format, window
+ * by window (each window's 1:1 mappings, then its splits). Files are read
+ * as UTF-8 with \n, \r or \r\n line ends.
+ */
+public class WindowedMapper {
+    
+    private final LHDiff lhdiff;
+    private final Preprocessor preprocessor = new Preprocessor();
+    private final int windowLines;
+    private final int overlapLines;
+    private final int maxResyncLines;
+    
+    public WindowedMapper() {
+        this(new LHDiff(), 20000, 1000, 1000000);
+    }
+    
+    /**
+     * @param windowLines Most lines of each file held at a time
+     * @param overlapLines Lines carried from each window into the next
+     * @param maxResyncLines How far to scan ahead when the windows are out of step
+     */
+    public WindowedMapper(LHDiff lhdiff, int windowLines, int overlapLines, int maxResyncLines) {
+        if (windowLines < 2 || overlapLines < 0 || overlapLines >= windowLines) {
+            throw new IllegalArgumentException("Need 0 <= overlap < window, got overlap " + overlapLines
+                                               + " and window " + windowLines);
+        }
+        this.lhdiff = lhdiff;
+        this.windowLines = windowLines;
+        this.overlapLines = overlapLines;
+        this.maxResyncLines = maxResyncLines;
+    }
+    
+    /**
+     * Map two files window by window, writing mappings to out as they are
+     * committed; out is flushed but not closed
+     */
+    public Summary map(Path oldFile, Path newFile, Writer out) throws IOException {
+        long start = System.nanoTime();
+        Summary summary = new Summary();
+        List<String> oldWindow = new ArrayList<>();
+        List<String> newWindow = new ArrayList<>();
+        int oldBase = 0; // Lines of each file already committed
+        int newBase = 0;
+        
+        try (LineReader oldReader = new LineReader(oldFile, 0);
+             LineReader newReader = new LineReader(newFile, 0)) {
+            while (true) {
+                fill(oldWindow, oldReader);
+                fill(newWindow, newReader);
+                if (oldWindow.isEmpty() && newWindow.isEmpty()) {
+                    break;
+                }
+                
+                MappingResult result = lhdiff.mapLines(oldWindow, newWindow, false);
+                summary.windows++;
+                
+                int[] cut = anchor(result, oldWindow.size(), oldReader.atEnd(), newWindow.size(), newReader.atEnd());
+                if (cut == null) {
+                    cut = resync(oldFile, oldWindow, oldReader, newFile, newWindow, newReader, summary);
+                }
+                int oldCommit = cut[0];
+                int newCommit = cut[1];
+                
+                commit(result, oldBase, oldCommit, newBase, newCommit, out, summary);
+                oldWindow.subList(0, oldCommit).clear();
+                newWindow.subList(0, newCommit).clear();
+                oldBase += oldCommit;
+                newBase += newCommit;
+                
+                // Lines a resync skipped without reading them into a window
+                oldBase += cut[2];
+                newBase += cut[3];
+                summary.unmappedOld += cut[2];
+                summary.unmappedNew += cut[3];
+            }
+        }
+        
+        out.flush();
+        summary.oldLines = oldBase;
+        summary.newLines = newBase;
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+    
+    private void fill(List<String> window, LineReader reader) throws IOException {
+        String line;
+        while (window.size() < windowLines && (line = reader.readLine()) != null) {
+            window.add(line);
+        }
+    }
+    
+    /**
+     * Old and new lines to commit (window-relative) up to the last unchanged
+     * pair leaving overlapLines on each side still to come (or, failing that,
+     * the last unchanged pair at all), then 0 lines skipped on either side;
+     * null if the windows share no unchanged line
+     */
+    private int[] anchor(MappingResult result, int oldSize, boolean oldAtEnd, int newSize, boolean newAtEnd) {
+        if (oldAtEnd && newAtEnd) {
+            return new int[] {oldSize, newSize, 0, 0};
+        }
+        
+        int oldLimit = oldAtEnd ? oldSize : oldSize - overlapLines;
+        int newLimit = newAtEnd ? newSize : newSize - overlapLines;
+        int bestOld = 0;
+        int bestNew = 0;
+        int lastOld = 0;
+        int lastNew = 0;
+        for (Map.Entry<Integer, Integer> entry : result.unchanged.entrySet()) {
+            int oldLine = entry.getKey();
+            int newLine = entry.getValue();
+            if (oldLine <= oldLimit && newLine <= newLimit && oldLine > bestOld) {
+                bestOld = oldLine;
+                bestNew = newLine;
+            }
+            if (oldLine > lastOld) {
+                lastOld = oldLine;
+                lastNew = newLine;
+            }
+        }
+        
+        if (bestOld > 0) {
+            return new int[] {bestOld, bestNew, 0, 0};
+        }
+        if (lastOld > 0) {
+            return new int[] {lastOld, lastNew, 0, 0};
+        }
+        return null;
+    }
+    
+    /**
+     * The windows share no unchanged line: find which file has to skip ahead
+     * to get back in step, by scanning each file past its window for two
+     * consecutive lines of the other window. Commits the whole window of the
+     * side that skips (and skips further lines of it), or, when neither scan
+     * finds anything, everything but the overlap on both sides.
+     */
+    private int[] resync(Path oldFile, List<String> oldWindow, LineReader oldReader,
+                         Path newFile, List<String> newWindow, LineReader newReader,
+                         Summary summary) throws IOException {
+        int newDistance = scan(newFile, newReader, pairHashes(oldWindow));
+        int oldDistance = scan(oldFile, oldReader, pairHashes(newWindow));
+        
+        if (newDistance >= 0 && (oldDistance < 0 || newDistance <= oldDistance)) {
+            // Lines were inserted in the new file
+            summary.resyncs++;
+            return new int[] {0, newWindow.size(), 0, newReader.skip(newDistance)};
+        }
+        if (oldDistance >= 0) {
+            // Lines were deleted from the old file
+            summary.resyncs++;
+            return new int[] {oldWindow.size(), 0, oldReader.skip(oldDistance), 0};
+        }
+        
+        int oldCommit = oldReader.atEnd() ? oldWindow.size() : oldWindow.size() - overlapLines;
+        int newCommit = newReader.atEnd() ? newWindow.size() : newWindow.size() - overlapLines;
+        return new int[] {oldCommit, newCommit, 0, 0};
+    }
+    
+    /**
+     * Hashes of every pair of consecutive non-blank normalized lines
+     */
+    private Set<Long> pairHashes(List<String> window) {
+        Set<Long> hashes = new HashSet<>();
+        String previous = null;
+        for (String line : window) {
+            String normalized = preprocessor.normalizeLine(line);
+            if (previous != null && !previous.isEmpty() && !normalized.isEmpty()) {
+                hashes.add(pairHash(previous, normalized));
+            }
+            previous = normalized;
+        }
+        return hashes;
+    }
+    
+    private static long pairHash(String first, String second) {
+        return ((long) first.hashCode() << 32) | (second.hashCode() & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * Lines of the file after the reader's position before the first pair of
+     * consecutive lines hashing into hashes, or -1 if there is none within
+     * maxResyncLines lines; the reader itself does not move
+     */
+    private int scan(Path file, LineReader reader, Set<Long> hashes) throws IOException {
+        if (hashes.isEmpty() || reader.atEnd()) {
+            return -1;
+        }
+        try (LineReader ahead = new LineReader(file, reader.offset())) {
+            String previous = null;
+            String line;
+            for (int i = 0; i < maxResyncLines && (line = ahead.readLine()) != null; i++) {
+                String normalized = preprocessor.normalizeLine(line);
+                if (previous != null && !previous.isEmpty() && !normalized.isEmpty()
+                    && hashes.contains(pairHash(previous, normalized))) {
+                    return i - 1;
+                }
+                previous = normalized;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Write the mappings with both lines committed, in file line numbers, and
+     * count the committed lines left unmapped
+     */
+    private void commit(MappingResult result, int oldBase, int oldCommit, int newBase, int newCommit,
+                        Writer out, Summary summary) throws IOException {
+        Map<Integer, Integer> mappings = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : result.mappings.entrySet()) {
+            if (entry.getKey() <= oldCommit && entry.getValue() <= newCommit) {
+                mappings.put(oldBase + entry.getKey(), newBase + entry.getValue());
+            }
+        }
+        
+        Map<Integer, List<Integer>> splits = new HashMap<>();
+        int splitLines = 0;
+        for (Map.Entry<Integer, List<Integer>> entry : result.splits.entrySet()) {
+            if (entry.getKey() <= oldCommit && Collections.max(entry.getValue()) <= newCommit) {
+                List<Integer> lines = new ArrayList<>(entry.getValue().size());
+                for (int newLine : entry.getValue()) {
+                    lines.add(newBase + newLine);
+                }
+                splits.put(oldBase + entry.getKey(), lines);
+                splitLines += lines.size();
+            }
+        }
+        
+        ResultWriter.writeText(PackedMapping.of(mappings, splits, Collections.<Integer>emptyList(),
+                                                Collections.<Integer>emptyList()), out);
+        summary.mapped += mappings.size();
+        summary.splits += splits.size();
+        summary.unmappedOld += oldCommit - mappings.size() - splits.size();
+        summary.unmappedNew += newCommit - mappings.size() - splitLines;
+    }
+    
+    /**
+     * Counts over a whole windowed mapping
+     */
+    public static class Summary {
+        public int oldLines;
+        public int newLines;
+        public int windows;
+        public int resyncs;
+        public long mapped;
+        public long splits;
+        public long unmappedOld;
+        public long unmappedNew;
+        public long elapsedNanos;
+        
+        public void print(PrintStream out) {
+            out.println(String.format("Lines:   %d old, %d new in %d windows (%d resyncs)",
+                                      oldLines, newLines, windows, resyncs));
+            out.println(String.format("Mapped:  %d 1:1, %d splits, %d unmapped old, %d unmapped new",
+                                      mapped, splits, unmappedOld, unmappedNew));
+            out.println(String.format("Time:    %.2f ms (%.0f lines/s)", elapsedNanos / 1e6,
+                                      (oldLines + newLines) / Math.max(1e-9, elapsedNanos / 1e9)));
+        }
+    }
+    
+    /**
+     * UTF-8 line reader that knows the byte offset of the next line, so a
+     * second reader can scan ahead from there
+     */
+    private static final class LineReader implements Closeable {
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int pos;
+        private int limit;
+        private long offset;
+        private byte[] line = new byte[256];
+        
+        LineReader(Path file, long start) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            channel.position(start);
+            this.in = Channels.newInputStream(channel);
+            this.offset = start;
+        }
+        
+        /**
+         * Next line without its terminator, or null at the end of the file
+         */
+        String readLine() throws IOException {
+            int length = 0;
+            while (pos < limit || fill()) {
+                byte b = buffer[pos++];
+                offset++;
+                if (b == '\n') {
+                    return decode(length);
+                }
+                if (b == '\r') {
+                    if ((pos < limit || fill()) && buffer[pos] == '\n') {
+                        pos++;
+                        offset++;
+                    }
+                    return decode(length);
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, 2 * length);
+                }
+                line[length++] = b;
+            }
+            return length > 0 ? decode(length) : null;
+        }
+        
+        /**
+         * Skip up to count lines, returning how many there were
+         */
+        int skip(int count) throws IOException {
+            int skipped = 0;
+            while (skipped < count && readLine() != null) {
+                skipped++;
+            }
+            return skipped;
+        }
+        
+        boolean atEnd() throws IOException {
+            return pos == limit && !fill();
+        }
+        
+        /**
+         * Byte offset of the next line in the file
+         */
+        long offset() {
+            return offset;
+        }
+        
+        private boolean fill() throws IOException {
+            int read = in.read(buffer);
+            if (read <= 0) {
+                return false;
+            }
+            pos = 0;
+            limit = read;
+            return true;
+        }
+        
+        private String decode(int length) {
+            return new String(line, 0, length, StandardCharsets.UTF_8);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+    
+    /**
+     * Main method - Command line interface
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java WindowedMapper <old_file> <new_file> [--window N] [--overlap N]"
+                               + " [--max-resync N] [--output FILE]");
+            System.out.println("\nOptions:");
+            System.out.println("  --window N       Lines of each file held at a time (default 20000)");
+            System.out.println("  --overlap N      Lines carried from one window into the next (default 1000)");
+            System.out.println("  --max-resync N   Lines scanned ahead when the files get out of step (default 1000000)");
+            System.out.println("  --output FILE    Write the mapping to FILE instead of standard output");
+            System.out.println("\nThe summary goes to standard error.");
+            return;
+        }
+        
+        int window = 20000;
+        int overlap = 1000;
+        int maxResync = 1000000;
+        String outputFile = null;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--window": window = Integer.parseInt(args[++i]); break;
+                case "--overlap": overlap = Integer.parseInt(args[++i]); break;
+                case "--max-resync": maxResync = Integer.parseInt(args[++i]); break;
+                case "--output": outputFile = args[++i]; break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+        
+        try {
+            WindowedMapper mapper = new WindowedMapper(new LHDiff(), window, overlap, maxResync);
+            OutputStream stream = outputFile != null ? new FileOutputStream(outputFile) : System.out;
+            Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+            try {
+                mapper.map(Paths.get(args[0]), Paths.get(args[1]), out).print(System.err);
+            } finally {
+                if (outputFile != null) {
+                    out.close();
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,458 @@
+package com.comp3110.lhdiff;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Synthetic Workload Generator
+ * Expands a seed source file into a large old/new pair and writes a
+ * ground_truth.json in the same format as the pairs under datasets/new
+ */
+public class WorkloadGenerator {
+    
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern WORD = Pattern.compile("\\w+");
+    private static final String[] EDIT_SUFFIXES = {"2", "Value", "Tmp", "New", "Count"};
+    
+    // Keywords are left alone when copies of the seed are made distinct
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+        "abstract", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+        "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally",
+        "float", "for", "if", "implements", "import", "instanceof", "int", "interface", "long",
+        "new", "package", "private", "protected", "public", "return", "short", "static",
+        "super", "switch", "this", "throw", "throws", "try", "void", "while", "true", "false",
+        "null", "String", "System", "out", "println", "def", "self", "None", "True", "False",
+        "and", "or", "not", "in", "is", "elif", "pass", "lambda", "from", "as", "with", "yield",
+        "function", "var", "let", "undefined", "console", "log", "async", "await"
+    ));
+    
+    private final EditMix mix;
+    private final Random random;
+    
+    public WorkloadGenerator(EditMix mix, long seed) {
+        this.mix = mix;
+        this.random = new Random(seed);
+    }
+    
+    /**
+     * Build the old version by repeating the seed until the target size is reached.
+     * Every copy after the first gets its identifiers suffixed so that the copies
+     * are not exact duplicates of each other.
+     */
+    public List<String> expandSeed(List<String> seedLines, int targetLines) {
+        List<String> lines = new ArrayList<>(targetLines);
+        
+        if (seedLines.isEmpty()) {
+            return lines;
+        }
+        
+        int copy = 0;
+        while (lines.size() < targetLines) {
+            for (String line : seedLines) {
+                if (lines.size() >= targetLines) {
+                    break;
+                }
+                lines.add(copy == 0 ? line : renameIdentifiers(line, "_" + copy));
+            }
+            copy++;
+        }
+        
+        return lines;
+    }
+    
+    /**
+     * Apply the configured edit mix to the old version
+     * 
+     * @param oldLines Lines of the old version
+     * @return Generated pair with the new version and its ground truth
+     */
+    public GeneratedPair generate(List<String> oldLines) {
+        int n = oldLines.size();
+        
+        // Plan block moves: source block -> insertion point in old coordinates
+        boolean[] moved = new boolean[n];
+        Map<Integer, List<int[]>> movesAt = new HashMap<>();
+        planMoves(n, moved, movesAt);
+        
+        // Plan renames: identifier replaced inside an old line range
+        List<Rename> renames = planRenames(oldLines);
+        
+        GeneratedPair pair = new GeneratedPair(oldLines);
+        for (int i = 0; i < n; i++) {
+            List<int[]> blocks = movesAt.get(i);
+            if (blocks != null) {
+                for (int[] block : blocks) {
+                    for (int j = block[0]; j < block[0] + block[1]; j++) {
+                        emitOld(pair, oldLines, j, renames);
+                    }
+                }
+            }
+            
+            if (!moved[i]) {
+                emitOld(pair, oldLines, i, renames);
+            }
+            
+            if (random.nextDouble() < mix.insert) {
+                emitInserted(pair, oldLines);
+            }
+        }
+        
+        return pair;
+    }
+    
+    private void planMoves(int n, boolean[] moved, Map<Integer, List<int[]>> movesAt) {
+        int averageBlock = (2 + mix.maxMoveBlock) / 2;
+        int blockCount = (int) Math.round(n * mix.move / averageBlock);
+        
+        for (int b = 0; b < blockCount && n > mix.maxMoveBlock * 2; b++) {
+            int length = 2 + random.nextInt(mix.maxMoveBlock - 1);
+            int start = random.nextInt(n - length);
+            
+            boolean free = true;
+            for (int j = Math.max(0, start - 1); j < Math.min(n, start + length + 1); j++) {
+                if (moved[j]) {
+                    free = false;
+                    break;
+                }
+            }
+            if (!free) {
+                continue;
+            }
+            
+            // Insertion point must lie outside the block itself
+            int target = random.nextInt(n);
+            if (target >= start && target <= start + length) {
+                continue;
+            }
+            
+            for (int j = start; j < start + length; j++) {
+                moved[j] = true;
+            }
+            movesAt.computeIfAbsent(target, k -> new ArrayList<>()).add(new int[] {start, length});
+        }
+    }
+    
+    private List<Rename> planRenames(List<String> oldLines) {
+        List<Rename> renames = new ArrayList<>();
+        int n = oldLines.size();
+        int count = (int) Math.round(n * mix.rename);
+        
+        for (int r = 0; r < count && n > 0; r++) {
+            int start = random.nextInt(n);
+            int end = Math.min(n, start + 50 + random.nextInt(350));
+            
+            // Pick an identifier that actually occurs at the start of the region
+            List<String> identifiers = new ArrayList<>();
+            for (int i = start; i < end && identifiers.isEmpty(); i++) {
+                Matcher m = IDENTIFIER.matcher(oldLines.get(i));
+                while (m.find()) {
+                    if (!KEYWORDS.contains(m.group()) && m.group().length() > 2) {
+                        identifiers.add(m.group());
+                    }
+                }
+            }
+            
+            if (!identifiers.isEmpty()) {
+                String from = identifiers.get(random.nextInt(identifiers.size()));
+                renames.add(new Rename(start, end, from, from + "Renamed" + r));
+            }
+        }
+        
+        return renames;
+    }
+    
+    /**
+     * Emit one old line into the new version as unchanged, edited, split or deleted
+     */
+    private void emitOld(GeneratedPair pair, List<String> oldLines, int oldIdx, List<Rename> renames) {
+        int oldLineNum = oldIdx + 1;
+        String line = applyRenames(oldLines.get(oldIdx), oldIdx, renames);
+        double roll = random.nextDouble();
+        
+        if (roll < mix.delete) {
+            pair.unmappedOld.add(oldLineNum);
+            return;
+        }
+        roll -= mix.delete;
+        
+        if (roll < mix.split) {
+            List<String> parts = splitLine(line);
+            if (parts.size() > 1) {
+                List<Integer> newLineNums = new ArrayList<>();
+                for (String part : parts) {
+                    newLineNums.add(pair.addNewLine(part));
+                }
+                pair.splits.put(oldLineNum, newLineNums);
+                return;
+            }
+        }
+        roll -= mix.split;
+        
+        if (roll < mix.edit) {
+            line = editLine(line);
+        }
+        
+        pair.mappings.put(oldLineNum, pair.addNewLine(line));
+    }
+    
+    private void emitInserted(GeneratedPair pair, List<String> oldLines) {
+        String template = oldLines.get(random.nextInt(oldLines.size()));
+        if (template.trim().isEmpty()) {
+            return;
+        }
+        
+        pair.unmappedNew.add(pair.addNewLine(renameIdentifiers(template, "_ins" + pair.newLines.size())));
+    }
+    
+    private String applyRenames(String line, int oldIdx, List<Rename> renames) {
+        for (Rename rename : renames) {
+            if (oldIdx >= rename.start && oldIdx < rename.end && line.contains(rename.from)) {
+                line = line.replaceAll("\\b" + Pattern.quote(rename.from) + "\\b",
+                                       Matcher.quoteReplacement(rename.to));
+            }
+        }
+        return line;
+    }
+    
+    /**
+     * Small textual edit: change one word so the line stays recognisable
+     */
+    private String editLine(String line) {
+        List<int[]> words = new ArrayList<>();
+        Matcher m = WORD.matcher(line);
+        while (m.find()) {
+            words.add(new int[] {m.start(), m.end()});
+        }
+        
+        if (words.isEmpty()) {
+            return line;
+        }
+        
+        int[] word = words.get(random.nextInt(words.size()));
+        String token = line.substring(word[0], word[1]);
+        String replacement = Character.isDigit(token.charAt(0))
+            ? String.valueOf(random.nextInt(1000))
+            : token + EDIT_SUFFIXES[random.nextInt(EDIT_SUFFIXES.length)];
+        
+        return line.substring(0, word[0]) + replacement + line.substring(word[1]);
+    }
+    
+    /**
+     * Split a line at whitespace into two or three continuation lines
+     */
+    private List<String> splitLine(String line) {
+        String trimmed = line.trim();
+        String indent = line.substring(0, line.length() - line.replaceAll("^\\s+", "").length());
+        String[] tokens = trimmed.split("\\s+");
+        List<String> parts = new ArrayList<>();
+        
+        if (tokens.length < 4 || trimmed.length() < 20) {
+            parts.add(line);
+            return parts;
+        }
+        
+        int pieces = tokens.length >= 8 && random.nextBoolean() ? 3 : 2;
+        int perPiece = (tokens.length + pieces - 1) / pieces;
+        for (int p = 0; p < pieces; p++) {
+            int from = p * perPiece;
+            int to = Math.min(tokens.length, from + perPiece);
+            if (from >= to) {
+                break;
+            }
+            String text = String.join(" ", Arrays.copyOfRange(tokens, from, to));
+            parts.add((p == 0 ? indent : indent + "    ") + text);
+        }
+        
+        return parts;
+    }
+    
+    private static String renameIdentifiers(String line, String suffix) {
+        Matcher m = IDENTIFIER.matcher(line);
+        StringBuffer result = new StringBuffer();
+        
+        while (m.find()) {
+            String word = m.group();
+            boolean insideString = countQuotes(line, m.start()) % 2 == 1;
+            String renamed = KEYWORDS.contains(word) || insideString ? word : word + suffix;
+            m.appendReplacement(result, Matcher.quoteReplacement(renamed));
+        }
+        m.appendTail(result);
+        
+        return result.toString();
+    }
+    
+    private static int countQuotes(String line, int end) {
+        int quotes = 0;
+        for (int i = 0; i < end; i++) {
+            if (line.charAt(i) == '"') {
+                quotes++;
+            }
+        }
+        return quotes;
+    }
+    
+    /**
+     * Relative frequency of each edit kind, per old line
+     */
+    public static class EditMix {
+        public final double edit;
+        public final double insert;
+        public final double delete;
+        public final double move;
+        public final double split;
+        public final double rename;
+        public final int maxMoveBlock;
+        
+        public EditMix() {
+            this(0.05, 0.02, 0.02, 0.02, 0.005, 0.001, 12);
+        }
+        
+        public EditMix(double edit, double insert, double delete, double move,
+                       double split, double rename, int maxMoveBlock) {
+            this.edit = edit;
+            this.insert = insert;
+            this.delete = delete;
+            this.move = move;
+            this.split = split;
+            this.rename = rename;
+            this.maxMoveBlock = Math.max(2, maxMoveBlock);
+        }
+    }
+    
+    /**
+     * An identifier renamed within a range of old lines (0-indexed, end exclusive)
+     */
+    private static class Rename {
+        final int start;
+        final int end;
+        final String from;
+        final String to;
+        
+        Rename(int start, int end, String from, String to) {
+            this.start = start;
+            this.end = end;
+            this.from = from;
+            this.to = to;
+        }
+    }
+    
+    /**
+     * Generated old/new pair together with its ground truth (1-indexed)
+     */
+    public static class GeneratedPair {
+        public final List<String> oldLines;
+        public final List<String> newLines = new ArrayList<>();
+        public final Map<Integer, Integer> mappings = new TreeMap<>();
+        public final Map<Integer, List<Integer>> splits = new TreeMap<>();
+        public final Set<Integer> unmappedOld = new TreeSet<>();
+        public final Set<Integer> unmappedNew = new TreeSet<>();
+        
+        GeneratedPair(List<String> oldLines) {
+            this.oldLines = oldLines;
+        }
+        
+        int addNewLine(String line) {
+            newLines.add(line);
+            return newLines.size();
+        }
+        
+        /**
+         * Write old.ext, new.ext and ground_truth.json into a directory
+         */
+        public void write(Path dir, String extension) throws IOException {
+            Files.createDirectories(dir);
+            Files.write(dir.resolve("old" + extension), oldLines, StandardCharsets.UTF_8);
+            Files.write(dir.resolve("new" + extension), newLines, StandardCharsets.UTF_8);
+            
+            try (Writer out = Files.newBufferedWriter(dir.resolve("ground_truth.json"), StandardCharsets.UTF_8)) {
+                ResultWriter.writeJson(PackedMapping.of(mappings, splits, unmappedOld, unmappedNew), out);
+            }
+        }
+    }
+    
+    /**
+     * Main method - Command line interface
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            printUsage();
+            return;
+        }
+        
+        Path seedFile = Paths.get(args[0]);
+        Path outputDir = Paths.get(args[1]);
+        int lines = 10000;
+        long seed = 42;
+        double edit = 0.05, insert = 0.02, delete = 0.02, move = 0.02, split = 0.005, rename = 0.001;
+        
+        for (int i = 2; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                System.err.println("Missing value for " + args[i]);
+                printUsage();
+                return;
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--lines": lines = Integer.parseInt(value); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--edit": edit = Double.parseDouble(value); break;
+                case "--insert": insert = Double.parseDouble(value); break;
+                case "--delete": delete = Double.parseDouble(value); break;
+                case "--move": move = Double.parseDouble(value); break;
+                case "--split": split = Double.parseDouble(value); break;
+                case "--rename": rename = Double.parseDouble(value); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    printUsage();
+                    return;
+            }
+        }
+        
+        try {
+            String name = seedFile.getFileName().toString();
+            String extension = name.contains(".") ? name.substring(name.lastIndexOf('.')) : "";
+            
+            WorkloadGenerator generator = new WorkloadGenerator(
+                new EditMix(edit, insert, delete, move, split, rename, 12), seed
+            );
+            List<String> oldLines = generator.expandSeed(
+                Files.readAllLines(seedFile, StandardCharsets.UTF_8), lines
+            );
+            GeneratedPair pair = generator.generate(oldLines);
+            pair.write(outputDir, extension);
+            
+            System.out.println("Generated " + outputDir);
+            System.out.println("  Old lines: " + pair.oldLines.size());
+            System.out.println("  New lines: " + pair.newLines.size());
+            System.out.println("  Mappings: " + pair.mappings.size());
+            System.out.println("  Splits: " + pair.splits.size());
+            System.out.println("  Unmapped old: " + pair.unmappedOld.size());
+            System.out.println("  Unmapped new: " + pair.unmappedNew.size());
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private static void printUsage() {
+        System.out.println("Usage: java WorkloadGenerator <seed_file> <output_dir> [options]");
+        System.out.println("\nOptions:");
+        System.out.println("  --lines N       Lines in the old version (default 10000)");
+        System.out.println("  --seed S        Random seed (default 42)");
+        System.out.println("  --edit P        Probability an old line is edited (default 0.05)");
+        System.out.println("  --insert P      Probability a line is inserted after an old line (default 0.02)");
+        System.out.println("  --delete P      Probability an old line is deleted (default 0.02)");
+        System.out.println("  --move P        Fraction of old lines moved in blocks (default 0.02)");
+        System.out.println("  --split P       Probability an old line is split (default 0.005)");
+        System.out.println("  --rename P      Renamed regions per old line (default 0.001)");
+        System.out.println("\nExample:");
+        System.out.println("  java WorkloadGenerator examples/Version1.java datasets/large/pair_1m --lines 1000000");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,224 @@
+package com.comp3110.lhdiff;
+
+import com.comp3110.lhdiff.StageStats.Stage;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Publishes one pair's mapping to JDK Flight Recorder (Java 11+ version).
+ * Three events, in the "LHDiff" category:
+ * 
+ *   com.comp3110.lhdiff.Mapping      every pair: sources, line counts, Step 3
+ *                                    candidates, Levenshtein calls and the
+ *                                    time of each stage (on by default)
+ *   com.comp3110.lhdiff.SlowMapping  the same, only for a pair whose wall
+ *                                    time (the event's duration) exceeded
+ *                                    the engine's latency target (on by
+ *                                    default)
+ *   com.comp3110.lhdiff.Stage        each stage as it finishes (off by
+ *                                    default; enable it in a .jfc file)
+ * 
+ * Under a continuous recording (-XX:StartFlightRecording) SlowMapping names
+ * the inputs that blow up Step 2 or Step 5 without attaching a profiler.
+ * When no event is enabled begin() returns NONE and nothing is allocated
+ * per stage.
+ */
+final class PipelineEvents {
+    
+    static final PipelineEvents NONE = new PipelineEvents(null, null, null, null, 0);
+    
+    private final String oldSource;
+    private final String newSource;
+    private final MappingEvent mapping;
+    private final SlowMappingEvent slow;
+    private final long startNanos;
+    
+    private PipelineEvents(String oldSource, String newSource, MappingEvent mapping, SlowMappingEvent slow,
+                           long startNanos) {
+        this.oldSource = oldSource;
+        this.newSource = newSource;
+        this.mapping = mapping;
+        this.slow = slow;
+        this.startNanos = startNanos;
+    }
+    
+    /**
+     * Start timing a pair; sources are file names, or null for text held in memory
+     */
+    static PipelineEvents begin(String oldSource, String newSource) {
+        MappingEvent mapping = new MappingEvent();
+        SlowMappingEvent slow = new SlowMappingEvent();
+        if (!mapping.isEnabled() && !slow.isEnabled() && !new StageEvent().isEnabled()) {
+            return NONE;
+        }
+        mapping.begin();
+        slow.begin();
+        return new PipelineEvents(oldSource, newSource, mapping, slow, System.nanoTime());
+    }
+    
+    void stage(Stage stage, long elapsedNanos) {
+        if (this == NONE) {
+            return;
+        }
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.oldFile = oldSource;
+            event.newFile = newSource;
+            event.stage = stage.getLabel();
+            event.stageTime = elapsedNanos;
+            event.commit();
+        }
+    }
+    
+    /**
+     * The pair is mapped; stats holds its stage timings and counters
+     */
+    void end(StageStats stats, int oldLines, int newLines, boolean partial, long latencyTargetMillis) {
+        if (this == NONE) {
+            return;
+        }
+        mapping.end();
+        if (mapping.shouldCommit()) {
+            fill(mapping, stats, oldLines, newLines, partial);
+            mapping.commit();
+        }
+        
+        // Wall time, not the stage sum: since stages overlap, the sum can exceed the target on its own
+        slow.end();
+        long latencyTargetNanos = latencyTargetMillis * 1000000L;
+        if (System.nanoTime() - startNanos > latencyTargetNanos && slow.shouldCommit()) {
+            fill(slow, stats, oldLines, newLines, partial);
+            slow.latencyTarget = latencyTargetNanos;
+            slow.commit();
+        }
+    }
+    
+    private void fill(PairEvent event, StageStats stats, int oldLines, int newLines, boolean partial) {
+        event.oldFile = oldSource;
+        event.newFile = newSource;
+        event.oldLines = oldLines;
+        event.newLines = newLines;
+        event.partial = partial;
+        event.candidateLines = stats.getCounter("candidate lines");
+        event.candidatePairs = stats.getCounter("candidate pairs");
+        event.levenshteinCalls = stats.getCounter("resolve pairs") - stats.getCounter("resolve pairs filtered")
+                                 + stats.getCounter("split extensions") - stats.getCounter("split extensions filtered");
+        event.preprocessTime = stats.getNanos(Stage.PREPROCESS);
+        event.unchangedTime = stats.getNanos(Stage.UNCHANGED);
+        event.exactMovesTime = stats.getNanos(Stage.EXACT_MOVES);
+        event.candidatesTime = stats.getNanos(Stage.CANDIDATES);
+        event.resolveTime = stats.getNanos(Stage.RESOLVE);
+        event.splitsTime = stats.getNanos(Stage.SPLITS);
+        event.totalTime = stats.getTotalNanos();
+    }
+    
+    /**
+     * Name of the implementation in use, for diagnostics
+     */
+    static String implementation() {
+        return "jdk.jfr";
+    }
+    
+    @Category("LHDiff")
+    @StackTrace(false)
+    abstract static class PairEvent extends Event {
+        @Label("Old File")
+        String oldFile;
+        
+        @Label("New File")
+        String newFile;
+        
+        @Label("Old Lines")
+        int oldLines;
+        
+        @Label("New Lines")
+        int newLines;
+        
+        @Label("Partial")
+        @Description("Cancelled before every stage finished")
+        boolean partial;
+        
+        @Label("Candidate Lines")
+        @Description("Changed old lines given Step 3 candidates")
+        long candidateLines;
+        
+        @Label("Candidate Pairs")
+        @Description("Old-new line pairs Step 3 handed to Step 4")
+        long candidatePairs;
+        
+        @Label("Levenshtein Calls")
+        @Description("Edit distances computed by Steps 4 and 5 (pairs the bounds filtered out excluded)")
+        long levenshteinCalls;
+        
+        @Label("Preprocessing")
+        @Timespan
+        long preprocessTime;
+        
+        @Label("Unchanged Lines")
+        @Timespan
+        long unchangedTime;
+        
+        @Label("Exact Moves")
+        @Timespan
+        long exactMovesTime;
+        
+        @Label("Candidates")
+        @Timespan
+        long candidatesTime;
+        
+        @Label("Conflict Resolution")
+        @Timespan
+        long resolveTime;
+        
+        @Label("Line Splits")
+        @Timespan
+        long splitsTime;
+        
+        @Label("Stage Total")
+        @Description("Sum of the stage times; stages that overlap count in full")
+        @Timespan
+        long totalTime;
+    }
+    
+    @Name("com.comp3110.lhdiff.Mapping")
+    @Label("LHDiff Mapping")
+    @Description("One pair of files mapped")
+    static class MappingEvent extends PairEvent {
+    }
+    
+    @Name("com.comp3110.lhdiff.SlowMapping")
+    @Label("LHDiff Slow Mapping")
+    @Description("A pair whose wall time exceeded the engine's latency target")
+    static class SlowMappingEvent extends PairEvent {
+        @Label("Latency Target")
+        @Timespan
+        long latencyTarget;
+    }
+    
+    @Name("com.comp3110.lhdiff.Stage")
+    @Label("LHDiff Stage")
+    @Description("One pipeline stage of a mapping finished")
+    @Category("LHDiff")
+    @StackTrace(false)
+    @Enabled(false)
+    static class StageEvent extends Event {
+        @Label("Old File")
+        String oldFile;
+        
+        @Label("New File")
+        String newFile;
+        
+        @Label("Stage")
+        String stage;
+        
+        @Label("Stage Time")
+        @Timespan
+        long stageTime;
+    }
+}
\ No newline at end of file
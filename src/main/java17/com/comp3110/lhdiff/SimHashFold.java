@@ -0,0 +1,32 @@
+package com.comp3110.lhdiff;
+
+/**
+ * Folds token hashes into a SimHash value (Java 17+ version).
+ * Uses VectorSimHash when the JVM runs with --add-modules jdk.incubator.vector,
+ * otherwise the same bit-sliced fold as the Java 8 version. The incubator
+ * classes are only touched behind the module check, so this class loads
+ * either way.
+ */
+final class SimHashFold {
+    
+    private static final boolean VECTOR =
+        ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+        && !Boolean.getBoolean("lhdiff.simhash.scalar");
+    
+    private SimHashFold() {
+    }
+    
+    static long fold(long[] hashes, int count) {
+        if (VECTOR && count >= VectorSimHash.MIN_TOKENS) {
+            return VectorSimHash.fold(hashes, count);
+        }
+        return SimHash.foldBitSliced(hashes, count);
+    }
+    
+    /**
+     * Name of the implementation in use, for benchmarks and diagnostics
+     */
+    static String implementation() {
+        return VECTOR ? VectorSimHash.describe() : "bit-sliced";
+    }
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+package com.comp3110.lhdiff;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SimHash fold with the Vector API: the bit-sliced fold of
+ * SimHash.foldBitSliced run on LANES tokens at a time. Each lane keeps its own
+ * bit-sliced counters over the tokens it sees; the lane counters are then
+ * summed with scalar ripple-carry adds and compared against the threshold.
+ */
+final class VectorSimHash {
+    
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    
+    /** Below this many tokens summing the lane counters costs more than it saves */
+    static final int MIN_TOKENS = 64;
+    
+    private VectorSimHash() {
+    }
+    
+    static long fold(long[] hashes, int count) {
+        // Per-lane counts reach at most count / LANES
+        int lanePlanes = 32 - Integer.numberOfLeadingZeros(count / LANES);
+        // Plane b of the lane counters is laneBits[b * LANES, (b + 1) * LANES)
+        long[] laneBits = new long[lanePlanes * LANES];
+        
+        int vectorCount = count - count % LANES;
+        for (int t = 0; t < vectorCount; t += LANES) {
+            LongVector carry = LongVector.fromArray(SPECIES, hashes, t);
+            for (int b = 0; b < lanePlanes; b++) {
+                LongVector plane = LongVector.fromArray(SPECIES, laneBits, b * LANES);
+                plane.lanewise(VectorOperators.XOR, carry).intoArray(laneBits, b * LANES);
+                carry = carry.and(plane);
+            }
+        }
+        
+        // Sum the lane counters into one bit-sliced count per position
+        int planes = 32 - Integer.numberOfLeadingZeros(count);
+        long[] plane = new long[planes];
+        for (int l = 0; l < LANES; l++) {
+            long carry = 0L;
+            for (int b = 0; b < planes; b++) {
+                long addend = b < lanePlanes ? laneBits[b * LANES + l] : 0L;
+                long partial = plane[b] ^ addend;
+                long nextCarry = (plane[b] & addend) | (carry & partial);
+                plane[b] = partial ^ carry;
+                carry = nextCarry;
+            }
+        }
+        
+        // The last count % LANES tokens; masked loads are slow on some JDKs
+        for (int t = vectorCount; t < count; t++) {
+            long carry = hashes[t];
+            for (int b = 0; carry != 0; b++) {
+                long sum = plane[b] ^ carry;
+                carry &= plane[b];
+                plane[b] = sum;
+            }
+        }
+        
+        return SimHash.majority(plane, planes, count);
+    }
+    
+    static String describe() {
+        return "vector (" + LANES + " x 64-bit lanes)";
+    }
+}
\ No newline at end of file